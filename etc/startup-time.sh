@@ -0,0 +1,49 @@
+#!/usr/bin/env bash
+# Compares the time to start metering, the time to the first sample and the peak RSS of the JVM and the native build.
+# Both builds log these times at startup, see ShellyPowerReader. Linux only, the RSS is read from /proc.
+#
+# Usage: etc/startup-time.sh <device ip[:port]> [generation] [runs]
+# Needs the uber-jar (./mvnw package) and the native executable (./mvnw package -Pnative) in target.
+set -euo pipefail
+
+DEVICE=${1:?"usage: $0 <device ip[:port]> [generation] [runs]"}
+GENERATION=${2:-2+}
+RUNS=${3:-5}
+TARGET=$(dirname "$0")/../target
+
+measure() {
+  local name=$1
+  shift
+  for run in $(seq "$RUNS"); do
+    local log
+    log=$(mktemp)
+    "$@" --ip "$DEVICE" --generation "$GENERATION" --interval 100ms > "$log" 2>&1 &
+    local pid=$!
+    for _ in $(seq 300); do
+      grep -q "First sample after" "$log" && break
+      sleep 0.1
+    done
+    local rss
+    rss=$(awk '/VmHWM/ {print int($2 / 1024)}' "/proc/$pid/status" 2> /dev/null || echo "?")
+    kill "$pid" 2> /dev/null || true
+    wait "$pid" 2> /dev/null || true
+    local metering first
+    metering=$(grep -o "Metering started [0-9]* ms" "$log" | grep -o "[0-9]*" || echo "?")
+    first=$(grep -o "First sample after [0-9]* ms" "$log" | grep -o "[0-9]*" || echo "?")
+    echo "$name run $run: metering started after ${metering} ms, first sample after ${first} ms, peak RSS ${rss} MB"
+    rm -f "$log"
+  done
+}
+
+JAR=$(ls "$TARGET"/*-runner.jar 2> /dev/null | head -1 || true)
+NATIVE=$(ls "$TARGET"/*-runner 2> /dev/null | head -1 || true)
+if [ -n "$JAR" ]; then
+  measure jvm java -jar "$JAR"
+else
+  echo "no uber-jar in $TARGET, run ./mvnw package"
+fi
+if [ -n "$NATIVE" ]; then
+  measure native "$NATIVE"
+else
+  echo "no native executable in $TARGET, run ./mvnw package -Pnative"
+fi
@@ -0,0 +1,60 @@
+package edu.hm.greenit.tools.shelly;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.net.http.HttpRequest;
+import java.time.Duration;
+
+/**
+ * Digest authentication of RPC requests. <br>
+ * {@link #authorizedRequest()} is the cost paid on every request to a password protected device,
+ * {@link #newSession()} the cost of answering a challenge (first request or expired nonce).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DigestBenchmark {
+
+    private static final String CHALLENGE =
+            "Digest qop=\"auth\", realm=\"shellyplugsg3-123456\", nonce=\"60dc59c6\", algorithm=SHA-256";
+    private static final String PASSWORD = "secret";
+
+    private RpcReader reader;
+    private RpcReader.DigestSession session;
+    private String body;
+    private Duration timeout;
+
+    @Setup
+    public void setUp() {
+        reader = new RpcReader("192.168.1.40", PASSWORD, RpcStatusMethod.STATUS);
+        session = RpcReader.DigestSession.fromChallenge(CHALLENGE, PASSWORD);
+        body = RpcStatusMethod.STATUS.getRequestBody();
+        timeout = IReader.DEFAULT_TIMEOUT;
+    }
+
+    @Benchmark
+    public HttpRequest authorizedRequest() {
+        return reader.buildDigestAuthorizedRequest(body, session, timeout);
+    }
+
+    @Benchmark
+    public String authorizationHeader() {
+        return session.nextAuthorizationHeader();
+    }
+
+    @Benchmark
+    public RpcReader.DigestSession newSession() {
+        return RpcReader.DigestSession.fromChallenge(CHALLENGE, PASSWORD);
+    }
+
+}
@@ -0,0 +1,86 @@
+package edu.hm.greenit.tools.shelly;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Formatting of samples as done by <code>printPowerConsumption</code>: the CSV rows written to stdout. <br>
+ * The rows go to a channel discarding all bytes, so only formatting and buffering is measured.
+ * One operation writes and flushes a batch of {@value #BATCH} samples, as the writer thread does.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OutputBenchmark {
+
+    static final int BATCH = 64;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Sample[] samples = new Sample[BATCH];
+    private CsvSink sink;
+
+    @Setup
+    public void setUp() throws IOException {
+        for (int i = 0; i < BATCH; i++) {
+            Meter meter = new Meter();
+            meter.setTimestamp(1739294619L + i);
+            meter.setPower(70.24 + i * 0.13);
+            meter.setTotal(18013.5 + i * 0.02);
+            meter.setChannel(i % 4);
+            meter.setReceivedAt(1739294619_123456L + i * 1_000_000L);
+            meter.setLatency(18_250 + i);
+            samples[i] = new Sample("192.168.1." + (20 + i % 8), meter);
+        }
+        sink = new CsvSink(new NullChannel(), BUFFER_SIZE);
+        sink.open();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        sink.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void csv() throws IOException {
+        for (Sample sample : samples) {
+            sink.write(sample);
+        }
+        sink.flush();
+    }
+
+    private static final class NullChannel implements WritableByteChannel {
+
+        @Override
+        public int write(ByteBuffer src) {
+            int remaining = src.remaining();
+            src.position(src.limit());
+            return remaining;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+}
@@ -0,0 +1,72 @@
+package edu.hm.greenit.tools.shelly;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+/**
+ * Parsing of status responses as received from the devices. <br>
+ * The payloads in <code>src/jmh/resources/payloads</code> are complete responses of a Gen 1 Plug S and 3EM
+ * (<code>/status</code>) and of a Gen 2 Plus Plug S, Pro 4PM and Pro 3EM (<code>Shelly.GetStatus</code>).
+ */
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParseBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Gen1Response {
+        @Param({"gen1-plug-s", "gen1-3em"})
+        String payload;
+        byte[] response;
+
+        @Setup
+        public void setUp() throws IOException {
+            response = payload(payload);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Gen2Response {
+        @Param({"gen2-plug-s", "gen2-pro-4pm", "gen2-pro-3em"})
+        String payload;
+        byte[] response;
+
+        @Setup
+        public void setUp() throws IOException {
+            response = payload(payload);
+        }
+    }
+
+    static byte[] payload(String name) throws IOException {
+        try (InputStream in = ParseBenchmark.class.getResourceAsStream("/payloads/" + name + ".json")) {
+            if (in == null) {
+                throw new IOException("Unknown payload: " + name);
+            }
+            return in.readAllBytes();
+        }
+    }
+
+    @Benchmark
+    public List<Meter> httpApiReader(Gen1Response gen1) throws IOException {
+        return HttpApiReader.parsePowerConsumption(gen1.response);
+    }
+
+    @Benchmark
+    public List<Meter> rpcReader(Gen2Response gen2) throws IOException {
+        return RpcReader.parsePowerConsumption(gen2.response);
+    }
+
+}
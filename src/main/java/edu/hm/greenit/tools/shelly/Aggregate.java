@@ -0,0 +1,22 @@
+package edu.hm.greenit.tools.shelly;
+
+/**
+ * Statistics of the samples of one device channel in one window, see {@link SeriesAggregator}.
+ *
+ * @param ip            the ip of the device
+ * @param channel       the channel of the device
+ * @param start         start of the window in microseconds since the epoch, inclusive
+ * @param end           end of the window in microseconds since the epoch, exclusive
+ * @param samples       number of samples in the window
+ * @param minPower      minimum power in W
+ * @param maxPower      maximum power in W
+ * @param meanPower     mean power of the samples in W
+ * @param p95Power      95th percentile of the power in W (nearest rank)
+ * @param energy        energy in Wh, integrated from the power with the trapezoidal rule
+ * @param counterEnergy energy in Wh, from the differences of the energy counter of the device
+ * @param counterResets number of times the energy counter of the device was reset within the window
+ */
+public record Aggregate(String ip, int channel, long start, long end, int samples,
+                        double minPower, double maxPower, double meanPower, double p95Power,
+                        double energy, double counterEnergy, int counterResets) {
+}
@@ -0,0 +1,107 @@
+package edu.hm.greenit.tools.shelly;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Writes one CSV row per device channel and window instead of the samples, see {@link SeriesAggregator}.
+ */
+public class AggregateCsvSink extends CsvSink {
+
+    static final String AGGREGATE_HEADER =
+            "ip,channel,start,end,samples,min_power,max_power,mean_power,p95_power,energy,counter_energy,counter_resets";
+    private static final String FILE_PREFIX = "shelly-aggregates";
+
+    private final long window;
+    private final long step;
+    private final Map<SampleStore.SeriesKey, SeriesAggregator> aggregators = new HashMap<>();
+    private final Consumer<Aggregate> output = this::writeAggregate;
+
+    /**
+     * Aggregate sink writing to a channel, e.g. stdout.
+     *
+     * @param window length of a window
+     * @param step   time between the ends of two windows, equal to the window for tumbling windows
+     */
+    public AggregateCsvSink(WritableByteChannel channel, int bufferSize, Duration window, Duration step) {
+        super(channel, bufferSize, AGGREGATE_HEADER);
+        this.window = toMicros(window);
+        this.step = toMicros(step);
+        validate();
+    }
+
+    /**
+     * Aggregate sink writing to rolling files in the given directory.
+     */
+    public AggregateCsvSink(Path directory, long maxFileSize, int bufferSize, Duration window, Duration step) {
+        super(directory, FILE_PREFIX, maxFileSize, bufferSize, AGGREGATE_HEADER);
+        this.window = toMicros(window);
+        this.step = toMicros(step);
+        validate();
+    }
+
+    @Override
+    public void write(Sample sample) throws IOException {
+        Meter meter = sample.meter();
+        SeriesAggregator aggregator = aggregators.computeIfAbsent(new SampleStore.SeriesKey(sample.ip(), meter.getChannel()),
+                key -> new SeriesAggregator(key.ip(), key.channel(), window, step));
+        try {
+            aggregator.add(meter.getReceivedAt(), meter.getPower(), meter.getTotal(), output);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Writes the windows not completed yet before closing the output.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            for (SeriesAggregator aggregator : aggregators.values()) {
+                aggregator.flush(output);
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            super.close();
+        }
+    }
+
+    private void writeAggregate(Aggregate aggregate) {
+        row.append(aggregate.ip()).append(SEPARATOR)
+                .append(aggregate.channel()).append(SEPARATOR)
+                .append(aggregate.start()).append(SEPARATOR)
+                .append(aggregate.end()).append(SEPARATOR)
+                .append(aggregate.samples()).append(SEPARATOR)
+                .append(aggregate.minPower()).append(SEPARATOR)
+                .append(aggregate.maxPower()).append(SEPARATOR)
+                .append(aggregate.meanPower()).append(SEPARATOR)
+                .append(aggregate.p95Power()).append(SEPARATOR)
+                .append(aggregate.energy()).append(SEPARATOR)
+                .append(aggregate.counterEnergy()).append(SEPARATOR)
+                .append(aggregate.counterResets()).append(NEW_LINE);
+        try {
+            appendRow();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void validate() {
+        if (step <= 0 || step > window) {
+            throw new IllegalArgumentException("Aggregation step must be positive and not longer than the window");
+        }
+    }
+
+    private static long toMicros(Duration duration) {
+        return duration.toNanos() / 1000;
+    }
+
+}
@@ -0,0 +1,91 @@
+package edu.hm.greenit.tools.shelly;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+
+import static edu.hm.greenit.tools.shelly.BinarySink.FIXED_POINT_FACTOR;
+import static edu.hm.greenit.tools.shelly.BinarySink.MAGIC;
+import static edu.hm.greenit.tools.shelly.BinarySink.SAMPLE_RECORD;
+import static edu.hm.greenit.tools.shelly.BinarySink.SERIES_RECORD;
+import static edu.hm.greenit.tools.shelly.BinarySink.VERSION;
+
+/**
+ * Reads files written by the {@link BinarySink}.
+ */
+public final class BinarySampleDecoder {
+
+    private BinarySampleDecoder() {
+    }
+
+    /**
+     * Decodes all samples of one file in the order they were written.
+     *
+     * @param input    buffered input of the file
+     * @param consumer receives every decoded sample
+     */
+    public static void decode(InputStream input, Consumer<Sample> consumer) throws IOException {
+        byte[] magic = input.readNBytes(MAGIC.length);
+        if (!Arrays.equals(MAGIC, magic) || input.read() != VERSION) {
+            throw new IOException("Not a shelly power reader binary file or unsupported version");
+        }
+        List<String> ips = new ArrayList<>();
+        List<Integer> channels = new ArrayList<>();
+        List<long[]> lastValues = new ArrayList<>();
+        int recordType;
+        while ((recordType = input.read()) != -1) {
+            if (recordType == SERIES_RECORD) {
+                int id = (int) readVarint(input);
+                byte[] ip = input.readNBytes((int) readVarint(input));
+                int channel = (int) readVarint(input);
+                if (id != ips.size()) {
+                    throw new IOException("Unexpected series id " + id);
+                }
+                ips.add(new String(ip, StandardCharsets.UTF_8));
+                channels.add(channel);
+                lastValues.add(new long[5]);
+            } else if (recordType == SAMPLE_RECORD) {
+                int id = (int) readVarint(input);
+                long[] last = lastValues.get(id);
+                for (int i = 0; i < last.length; i++) {
+                    last[i] += unzigzag(readVarint(input));
+                }
+                Meter meter = new Meter();
+                meter.setChannel(channels.get(id));
+                meter.setTimestamp(last[0]);
+                meter.setPower(last[1] / FIXED_POINT_FACTOR);
+                meter.setTotal(last[2] / FIXED_POINT_FACTOR);
+                meter.setReceivedAt(last[3]);
+                meter.setLatency(last[4]);
+                consumer.accept(new Sample(ips.get(id), meter));
+            } else {
+                throw new IOException("Unknown record type " + recordType);
+            }
+        }
+    }
+
+    private static long readVarint(InputStream input) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < Long.SIZE; shift += 7) {
+            int b = input.read();
+            if (b == -1) {
+                throw new EOFException("Truncated record");
+            }
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+}
@@ -0,0 +1,159 @@
+package edu.hm.greenit.tools.shelly;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Writes samples to rolling files in a compact, append-only binary format. <br>
+ * Every file starts with the magic bytes <code>SPRB</code> and the format version, followed by records:
+ * <ul>
+ *     <li><code>SERIES</code>: series id, ip (length and UTF-8 bytes) and channel; written before the first sample of a series</li>
+ *     <li><code>SAMPLE</code>: series id and the differences of timestamp, power (mW), energy (mWh), receive time (µs) and
+ *     latency (µs) to the previous sample of the series</li>
+ * </ul>
+ * All numbers are unsigned LEB128 varints, differences are zigzag encoded first. Power and energy are stored as fixed point
+ * values rounded to the three decimal resolution of the devices. Values read from a device are restored exactly,
+ * totals of Gen 1 meters, which are converted from watt-minutes, are restored to within 0.0005 Wh.
+ * Every file is self-contained: series are defined again and differences restart after a file was rolled.
+ * See {@link BinarySampleDecoder} to read the files.
+ */
+public class BinarySink implements SampleSink {
+
+    static final byte[] MAGIC = "SPRB".getBytes(StandardCharsets.US_ASCII);
+    static final byte VERSION = 2;
+    static final byte SERIES_RECORD = 1;
+    static final byte SAMPLE_RECORD = 2;
+    static final double FIXED_POINT_FACTOR = 1000.0;
+    private static final String FILE_PREFIX = "shelly";
+    private static final String FILE_EXTENSION = ".sprb";
+    // record type, 6 varints of up to 10 bytes
+    private static final int MAX_SAMPLE_RECORD_SIZE = 1 + 6 * 10;
+    // record type, 3 varints of up to 10 bytes, plus the ip
+    private static final int MAX_SERIES_RECORD_SIZE = 1 + 3 * 10;
+    // holds at least one series and sample record
+    private static final int MIN_BUFFER_SIZE = 1024;
+
+    private final RollingFiles files;
+    private final ByteBuffer buffer;
+    private final Map<SampleStore.SeriesKey, Series> seriesByKey = new HashMap<>();
+    private int nextSeriesId;
+
+    public BinarySink(Path directory, long maxFileSize, int bufferSize) {
+        this.files = new RollingFiles(directory, FILE_PREFIX, FILE_EXTENSION, maxFileSize);
+        this.buffer = ByteBuffer.allocateDirect(Math.max(bufferSize, MIN_BUFFER_SIZE));
+    }
+
+    @Override
+    public void open() throws IOException {
+        files.roll();
+        startFile();
+    }
+
+    @Override
+    public void write(Sample sample) throws IOException {
+        Meter meter = sample.meter();
+        // reserve space for both records first, flushing may start a new file which resets the series
+        ensureRemaining(MAX_SAMPLE_RECORD_SIZE + MAX_SERIES_RECORD_SIZE + sample.ip().length() * 3);
+        Series series = series(sample.ip(), meter.getChannel());
+        long timestamp = meter.getTimestamp();
+        long power = Math.round(meter.getPower() * FIXED_POINT_FACTOR);
+        long energy = Math.round(meter.getTotal() * FIXED_POINT_FACTOR);
+        long receivedAt = meter.getReceivedAt();
+        long latency = meter.getLatency();
+        buffer.put(SAMPLE_RECORD);
+        putVarint(series.id);
+        putVarint(zigzag(timestamp - series.timestamp));
+        putVarint(zigzag(power - series.power));
+        putVarint(zigzag(energy - series.energy));
+        putVarint(zigzag(receivedAt - series.receivedAt));
+        putVarint(zigzag(latency - series.latency));
+        series.timestamp = timestamp;
+        series.power = power;
+        series.energy = energy;
+        series.receivedAt = receivedAt;
+        series.latency = latency;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        buffer.flip();
+        try {
+            files.write(buffer);
+        } finally {
+            buffer.clear();
+        }
+        if (files.isFull()) {
+            files.roll();
+            startFile();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+        files.close();
+    }
+
+    private void startFile() {
+        seriesByKey.clear();
+        nextSeriesId = 0;
+        buffer.put(MAGIC);
+        buffer.put(VERSION);
+    }
+
+    private Series series(String ip, int channel) {
+        // keyed by ip and channel, the channels of a device are sparse, e.g. 0 and 400 to 402
+        SampleStore.SeriesKey key = new SampleStore.SeriesKey(ip, channel);
+        Series series = seriesByKey.get(key);
+        if (series == null) {
+            series = new Series(nextSeriesId++);
+            seriesByKey.put(key, series);
+            byte[] ipBytes = ip.getBytes(StandardCharsets.UTF_8);
+            buffer.put(SERIES_RECORD);
+            putVarint(series.id);
+            putVarint(ipBytes.length);
+            buffer.put(ipBytes);
+            putVarint(channel);
+        }
+        return series;
+    }
+
+    private void ensureRemaining(int bytes) throws IOException {
+        if (buffer.remaining() < bytes) {
+            flush();
+        }
+    }
+
+    private void putVarint(long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    /**
+     * Last values of one device channel within the current file.
+     */
+    private static final class Series {
+        private final int id;
+        private long timestamp;
+        private long power;
+        private long energy;
+        private long receivedAt;
+        private long latency;
+
+        private Series(int id) {
+            this.id = id;
+        }
+    }
+
+}
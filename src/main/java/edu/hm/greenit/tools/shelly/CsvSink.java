@@ -0,0 +1,141 @@
+package edu.hm.greenit.tools.shelly;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+
+/**
+ * Writes samples as CSV rows, either to a channel like stdout or to rolling files. <br>
+ * Rows are formatted into one reused {@link StringBuilder} without intermediate strings and collected in a buffer,
+ * every file starts with the header.
+ */
+public class CsvSink implements SampleSink {
+
+    static final String CSV_HEADER = "ip,timestamp,power,energy,channel,received,latency";
+    private static final String FILE_PREFIX = "shelly";
+    private static final String FILE_EXTENSION = ".csv";
+    static final char SEPARATOR = ',';
+    static final char NEW_LINE = '\n';
+
+    /**
+     * The row being formatted, copied to the buffer by {@link #appendRow()}.
+     */
+    final StringBuilder row = new StringBuilder(128);
+    private final WritableByteChannel channel;
+    private final RollingFiles files;
+    private final ByteBuffer buffer;
+    private final byte[] headerBytes;
+
+    /**
+     * CSV sink writing to a channel, e.g. stdout.
+     */
+    public CsvSink(WritableByteChannel channel, int bufferSize) {
+        this(channel, bufferSize, CSV_HEADER);
+    }
+
+    /**
+     * CSV sink writing to files in the given directory, a new file is started when a file exceeds the maximum size.
+     */
+    public CsvSink(Path directory, long maxFileSize, int bufferSize) {
+        this(directory, FILE_PREFIX, maxFileSize, bufferSize, CSV_HEADER);
+    }
+
+    CsvSink(WritableByteChannel channel, int bufferSize, String header) {
+        this.channel = channel;
+        this.files = null;
+        this.buffer = ByteBuffer.allocateDirect(bufferSize);
+        this.headerBytes = (header + NEW_LINE).getBytes(StandardCharsets.US_ASCII);
+    }
+
+    CsvSink(Path directory, String filePrefix, long maxFileSize, int bufferSize, String header) {
+        this.channel = null;
+        this.files = new RollingFiles(directory, filePrefix, FILE_EXTENSION, maxFileSize);
+        this.buffer = ByteBuffer.allocateDirect(bufferSize);
+        this.headerBytes = (header + NEW_LINE).getBytes(StandardCharsets.US_ASCII);
+    }
+
+    @Override
+    public void open() throws IOException {
+        if (files != null) {
+            files.roll();
+        }
+        appendHeader();
+    }
+
+    @Override
+    public void write(Sample sample) throws IOException {
+        Meter meter = sample.meter();
+        row.append(sample.ip()).append(SEPARATOR)
+                .append(meter.getTimestamp()).append(SEPARATOR)
+                .append(meter.getPower()).append(SEPARATOR)
+                .append(meter.getTotal()).append(SEPARATOR)
+                .append(meter.getChannel()).append(SEPARATOR)
+                .append(meter.getReceivedAt()).append(SEPARATOR);
+        if (meter.getLatency() >= 0) {
+            row.append(meter.getLatency());
+        }
+        row.append(NEW_LINE);
+        appendRow();
+    }
+
+    @Override
+    public void flush() throws IOException {
+        writeBuffer();
+        if (files != null && files.isFull()) {
+            files.roll();
+            appendHeader();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+        if (files != null) {
+            files.close();
+        }
+    }
+
+    /**
+     * Puts the header into the buffer, which is empty at the start of every file.
+     * The row builder is not used, as the header can be written while a row is being appended.
+     */
+    private void appendHeader() {
+        buffer.put(headerBytes);
+    }
+
+    /**
+     * Copies the formatted row into the buffer, writing the buffer first if the row does not fit.
+     * A row longer than the whole buffer is written in chunks, a new file is only started between rows.
+     */
+    void appendRow() throws IOException {
+        if (row.length() > buffer.remaining()) {
+            flush();
+        }
+        for (int i = 0; i < row.length(); i++) {
+            if (!buffer.hasRemaining()) {
+                writeBuffer();
+            }
+            // rows are ASCII only
+            buffer.put((byte) row.charAt(i));
+        }
+        row.setLength(0);
+    }
+
+    private void writeBuffer() throws IOException {
+        buffer.flip();
+        try {
+            if (files != null) {
+                files.write(buffer);
+            } else {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+        } finally {
+            buffer.clear();
+        }
+    }
+
+}
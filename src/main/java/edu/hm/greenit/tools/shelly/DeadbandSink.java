@@ -0,0 +1,163 @@
+package edu.hm.greenit.tools.shelly;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Passes only the samples that carry information to another sink (deadband compression). <br>
+ * A sample of a device channel is written if its power left the deadband around the last written power,
+ * if its energy counter changed, or if the last written sample of the channel is older than the heartbeat interval.
+ * The deadband is the larger of the absolute deadband and the relative deadband times the last written power. <br>
+ * Before a change the last suppressed sample of the channel is written as well, so the power is known up to the change
+ * and every value of the energy counter is in the output. On close the last suppressed samples are written. <br>
+ * The state of a channel is kept in primitive fields and found by ip and a search over the few channels of the device,
+ * which are sparse, e.g. 0 and 400 to 402 of an energy meter. Once a channel is known filtering a sample allocates nothing.
+ */
+public class DeadbandSink implements SampleSink {
+
+    private static final int INITIAL_CHANNELS = 4;
+
+    private final SampleSink sink;
+    private final double absoluteDeadband;
+    private final double relativeDeadband;
+    private final long heartbeatMicros;
+    private final Map<String, DeviceChannels> devices = new HashMap<>();
+    private long suppressedSamples;
+
+    /**
+     * @param sink             the sink the passed samples are written to
+     * @param absoluteDeadband power change in W a sample is suppressed below
+     * @param relativeDeadband power change a sample is suppressed below, as fraction of the last written power
+     * @param heartbeat        maximum time between two written samples of a channel
+     */
+    public DeadbandSink(SampleSink sink, double absoluteDeadband, double relativeDeadband, Duration heartbeat) {
+        this.sink = sink;
+        this.absoluteDeadband = absoluteDeadband;
+        this.relativeDeadband = relativeDeadband;
+        this.heartbeatMicros = heartbeat.toNanos() / 1000;
+    }
+
+    @Override
+    public void open() throws IOException {
+        sink.open();
+    }
+
+    @Override
+    public void write(Sample sample) throws IOException {
+        Meter meter = sample.meter();
+        ChannelState state = state(sample.ip(), meter.getChannel());
+        if (!state.written) {
+            write(state, sample);
+        } else if (isOutsideDeadband(state, meter.getPower()) || meter.getTotal() != state.total) {
+            if (state.held != null) {
+                sink.write(state.held);
+                state.held = null;
+            }
+            write(state, sample);
+        } else if (meter.getReceivedAt() - state.writtenAt >= heartbeatMicros) {
+            write(state, sample);
+        } else {
+            if (state.held != null) {
+                suppressedSamples++;
+            }
+            state.held = sample;
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        sink.flush();
+    }
+
+    /**
+     * Writes the last suppressed sample of every channel and closes the sink.
+     */
+    @Override
+    public void close() throws IOException {
+        for (DeviceChannels channels : devices.values()) {
+            for (int i = 0; i < channels.size; i++) {
+                ChannelState state = channels.states[i];
+                if (state.held != null) {
+                    sink.write(state.held);
+                    state.held = null;
+                }
+            }
+        }
+        sink.close();
+    }
+
+    /**
+     * @return number of samples not written so far
+     */
+    public long getSuppressedSamples() {
+        return suppressedSamples;
+    }
+
+    private boolean isOutsideDeadband(ChannelState state, double power) {
+        return Math.abs(power - state.power) > Math.max(absoluteDeadband, relativeDeadband * Math.abs(state.power));
+    }
+
+    private void write(ChannelState state, Sample sample) throws IOException {
+        if (state.held != null) {
+            // superseded by the heartbeat sample
+            suppressedSamples++;
+            state.held = null;
+        }
+        sink.write(sample);
+        Meter meter = sample.meter();
+        state.written = true;
+        state.power = meter.getPower();
+        state.total = meter.getTotal();
+        state.writtenAt = meter.getReceivedAt();
+    }
+
+    private ChannelState state(String ip, int channel) {
+        DeviceChannels channels = devices.get(ip);
+        if (channels == null) {
+            channels = new DeviceChannels();
+            devices.put(ip, channels);
+        }
+        return channels.state(channel);
+    }
+
+    /**
+     * The channels of a device in the order they were first seen.
+     */
+    private static final class DeviceChannels {
+        private int[] channels = new int[INITIAL_CHANNELS];
+        private ChannelState[] states = new ChannelState[INITIAL_CHANNELS];
+        private int size;
+
+        private ChannelState state(int channel) {
+            for (int i = 0; i < size; i++) {
+                if (channels[i] == channel) {
+                    return states[i];
+                }
+            }
+            if (size == channels.length) {
+                channels = Arrays.copyOf(channels, size * 2);
+                states = Arrays.copyOf(states, size * 2);
+            }
+            ChannelState state = new ChannelState();
+            channels[size] = channel;
+            states[size] = state;
+            size++;
+            return state;
+        }
+    }
+
+    /**
+     * Last written values of a channel and the last sample suppressed since.
+     */
+    private static final class ChannelState {
+        private boolean written;
+        private double power;
+        private double total;
+        private long writtenAt;
+        private Sample held;
+    }
+
+}
@@ -0,0 +1,208 @@
+package edu.hm.greenit.tools.shelly;
+
+import org.jboss.logging.Logger;
+
+import java.io.IOException;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.URI;
+import java.net.UnknownHostException;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
+
+/**
+ * Finds Shelly devices in address ranges by probing the identification <code>http://&lt;ip&gt;/shelly</code>,
+ * which devices of all generations serve without authentication. <br>
+ * The response tells the generation, so the matching reader is picked per device, and the model,
+ * which is kept in the inventory.
+ * Every address is probed on its own virtual thread blocked in the request, at most {@link #MAX_PROBES} at a time,
+ * so a /24 subnet is scanned in about one probe timeout. The found devices are merged into the {@link DeviceInventory}
+ * and persisted. <br>
+ * The ranges are scanned in the background, newly found devices are handed to a listener
+ * while the devices already known keep being read.
+ */
+public class DeviceDiscovery implements AutoCloseable {
+
+    private static final Logger LOGGER = Logger.getLogger(DeviceDiscovery.class);
+    private static final int MAX_PROBES = 256;
+    // larger ranges are a typo rather than a fleet
+    private static final int MIN_PREFIX_LENGTH = 16;
+    private static final int IPV4_BITS = 32;
+    private static final String CIDR_SEPARATOR = "/";
+    private static final String SHELLY_INFO_PATH = "/shelly";
+    private static final int HTTP_OK = 200;
+
+    private final List<String> addresses;
+    private final Duration probeTimeout;
+    private final DeviceInventory inventory;
+    private final Path inventoryFile;
+    private Thread refreshThread;
+
+    /**
+     * @param ranges        address ranges to scan, see {@link #expand(String)}
+     * @param probeTimeout  maximum time to wait for the identification of a device
+     * @param inventory     inventory the found devices are added to
+     * @param inventoryFile file the inventory is written to after every scan
+     */
+    public DeviceDiscovery(List<String> ranges, Duration probeTimeout, DeviceInventory inventory, Path inventoryFile) {
+        this.addresses = new ArrayList<>();
+        for (String range : ranges) {
+            addresses.addAll(expand(range));
+        }
+        this.probeTimeout = probeTimeout;
+        this.inventory = inventory;
+        this.inventoryFile = inventoryFile;
+    }
+
+    /**
+     * Expands an address range to the addresses to probe. <br>
+     * A range is either an IPv4 CIDR block, e.g. <code>192.168.1.0/24</code>, of which the network and broadcast address
+     * are skipped, or a single <code>host[:port]</code>.
+     */
+    static List<String> expand(String range) {
+        String trimmed = range.strip();
+        int separator = trimmed.indexOf(CIDR_SEPARATOR);
+        if (separator < 0) {
+            return List.of(trimmed);
+        }
+        int prefixLength;
+        InetAddress network;
+        try {
+            prefixLength = Integer.parseInt(trimmed.substring(separator + 1));
+            network = InetAddress.getByName(trimmed.substring(0, separator));
+        } catch (NumberFormatException | UnknownHostException e) {
+            throw new IllegalArgumentException("Invalid address range: " + range);
+        }
+        if (!(network instanceof Inet4Address) || prefixLength < MIN_PREFIX_LENGTH || prefixLength > IPV4_BITS) {
+            throw new IllegalArgumentException("Address range must be an IPv4 CIDR block of /" + MIN_PREFIX_LENGTH
+                    + " to /" + IPV4_BITS + ": " + range);
+        }
+        byte[] bytes = network.getAddress();
+        long base = ((bytes[0] & 0xFFL) << 24) | ((bytes[1] & 0xFFL) << 16) | ((bytes[2] & 0xFFL) << 8) | (bytes[3] & 0xFFL);
+        long size = 1L << (IPV4_BITS - prefixLength);
+        base &= ~(size - 1);
+        // /31 and /32 have no network and broadcast address
+        long first = size > 2 ? base + 1 : base;
+        long last = size > 2 ? base + size - 2 : base + size - 1;
+        List<String> addresses = new ArrayList<>((int) (last - first + 1));
+        for (long address = first; address <= last; address++) {
+            addresses.add(toDottedQuad(address));
+        }
+        return addresses;
+    }
+
+    private static String toDottedQuad(long address) {
+        return (address >> 24) + "." + ((address >> 16) & 0xFF) + "." + ((address >> 8) & 0xFF) + "." + (address & 0xFF);
+    }
+
+    /**
+     * Probes every address of the ranges.
+     *
+     * @return the devices found, in order of their address
+     */
+    public List<DeviceInventory.Entry> scan() throws InterruptedException {
+        long start = System.nanoTime();
+        Semaphore probes = new Semaphore(MAX_PROBES);
+        List<Future<DeviceInventory.Entry>> results = new ArrayList<>(addresses.size());
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (String address : addresses) {
+                probes.acquire();
+                results.add(executor.submit(() -> {
+                    try {
+                        return probe(address);
+                    } finally {
+                        probes.release();
+                    }
+                }));
+            }
+        }
+        List<DeviceInventory.Entry> found = new ArrayList<>();
+        for (Future<DeviceInventory.Entry> result : results) {
+            if (result.state() == Future.State.SUCCESS && result.resultNow() != null) {
+                found.add(result.resultNow());
+            }
+        }
+        LOGGER.infof("Probed %d addresses in %d ms, found %d shelly devices", addresses.size(),
+                (System.nanoTime() - start) / 1_000_000, found.size());
+        return found;
+    }
+
+    /**
+     * Scans the ranges, adds the found devices to the inventory and writes the inventory file.
+     *
+     * @return the devices not in the inventory before
+     */
+    public List<DeviceInventory.Entry> discover() throws InterruptedException, IOException {
+        List<DeviceInventory.Entry> added = inventory.merge(scan());
+        inventory.write(inventoryFile);
+        return added;
+    }
+
+    /**
+     * Scans the ranges on a background thread, the first time right away and then every interval,
+     * so the devices already known are read while the scan is running.
+     *
+     * @param interval time between two scans, zero to scan only once
+     * @param listener receives the devices not in the inventory before, if any
+     */
+    public void startRefresh(Duration interval, Consumer<List<DeviceInventory.Entry>> listener) {
+        refreshThread = Thread.ofVirtual().name("shelly-discovery").start(() -> {
+            try {
+                refresh(listener);
+                while (!interval.isZero() && !Thread.currentThread().isInterrupted()) {
+                    Thread.sleep(interval);
+                    refresh(listener);
+                }
+            } catch (InterruptedException e) {
+                // closed
+            }
+        });
+    }
+
+    /**
+     * Stops the background refresh, a running scan is cancelled.
+     */
+    @Override
+    public void close() throws InterruptedException {
+        if (refreshThread != null) {
+            refreshThread.interrupt();
+            refreshThread.join();
+        }
+    }
+
+    private void refresh(Consumer<List<DeviceInventory.Entry>> listener) throws InterruptedException {
+        try {
+            List<DeviceInventory.Entry> added = discover();
+            if (!added.isEmpty()) {
+                listener.accept(added);
+            }
+        } catch (IOException e) {
+            LOGGER.warn("Error writing inventory " + inventoryFile, e);
+        }
+    }
+
+    private DeviceInventory.Entry probe(String address) throws InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder(URI.create("http://" + address + SHELLY_INFO_PATH))
+                .timeout(probeTimeout)
+                .GET()
+                .build();
+        try {
+            HttpResponse<byte[]> response = HttpClients.sendAsync(request, HttpResponse.BodyHandlers.ofByteArray()).get();
+            return response.statusCode() == HTTP_OK ? StatusParser.parseShellyInfo(address, response.body()) : null;
+        } catch (ExecutionException | IOException e) {
+            // nothing listening, no answer in time or not a shelly device
+            return null;
+        }
+    }
+
+}
@@ -0,0 +1,125 @@
+package edu.hm.greenit.tools.shelly;
+
+import java.time.Duration;
+
+/**
+ * Request timeout, backoff and circuit breaker of one device. <br>
+ * The timeout adapts to the observed latency like the TCP retransmission timeout
+ * (<a href="https://datatracker.ietf.org/doc/html/rfc6298">RFC 6298</a>): smoothed latency plus four times its variation,
+ * limited to the configured minimum and maximum, doubled after every timeout. <br>
+ * After a failed read the device is skipped for an exponentially growing backoff. After
+ * {@link Settings#failureThreshold()} failures in a row the circuit opens and the device is only probed once per
+ * {@link Settings#probeInterval()}, the first successful read closes the circuit again.
+ * So unreachable devices neither block a request slot for the full timeout on every tick nor slow down the healthy fleet.
+ */
+public final class DeviceHealth {
+
+    private static final int RTT_ALPHA_SHIFT = 3;
+    private static final int RTT_BETA_SHIFT = 2;
+    private static final int RTT_VARIATION_FACTOR = 4;
+    private static final int MAX_BACKOFF_SHIFT = 20;
+
+    private final Settings settings;
+    private long smoothedLatency = -1;
+    private long latencyVariation;
+    private int timeoutShift;
+    private int consecutiveFailures;
+    private boolean open;
+    private boolean waiting;
+    private long nextReadNanos;
+
+    public DeviceHealth(Settings settings) {
+        this.settings = settings;
+    }
+
+    /**
+     * @param now the current {@link System#nanoTime()}
+     * @return <code>false</code> if the device is in backoff or the circuit is open and the next probe is not due yet
+     */
+    public synchronized boolean isReadDue(long now) {
+        return !waiting || now - nextReadNanos >= 0;
+    }
+
+    /**
+     * @return the timeout for the next request
+     */
+    public synchronized Duration getTimeout() {
+        long max = settings.maxTimeout().toNanos();
+        if (smoothedLatency < 0) {
+            return settings.maxTimeout();
+        }
+        long timeout = smoothedLatency + RTT_VARIATION_FACTOR * latencyVariation;
+        timeout = Math.max(timeout, settings.minTimeout().toNanos());
+        timeout = timeout << Math.min(timeoutShift, MAX_BACKOFF_SHIFT);
+        return Duration.ofNanos(timeout < 0 ? max : Math.min(timeout, max));
+    }
+
+    /**
+     * Records a successful read, closes the circuit.
+     *
+     * @param latency time from sending the request until the response in nanoseconds
+     * @return <code>true</code> if the circuit was open before
+     */
+    public synchronized boolean recordSuccess(long latency) {
+        if (smoothedLatency < 0) {
+            smoothedLatency = latency;
+            latencyVariation = latency / 2;
+        } else {
+            latencyVariation += (Math.abs(smoothedLatency - latency) - latencyVariation) >> RTT_BETA_SHIFT;
+            smoothedLatency += (latency - smoothedLatency) >> RTT_ALPHA_SHIFT;
+        }
+        boolean wasOpen = open;
+        timeoutShift = 0;
+        consecutiveFailures = 0;
+        open = false;
+        waiting = false;
+        return wasOpen;
+    }
+
+    /**
+     * Records a failed read and schedules the next attempt.
+     *
+     * @param now     the current {@link System#nanoTime()}
+     * @param timeout <code>true</code> if the request timed out
+     * @return <code>true</code> if the circuit was opened by this failure
+     */
+    public synchronized boolean recordFailure(long now, boolean timeout) {
+        if (timeout) {
+            timeoutShift++;
+        }
+        consecutiveFailures++;
+        waiting = true;
+        if (open || consecutiveFailures >= settings.failureThreshold()) {
+            boolean opened = !open;
+            open = true;
+            nextReadNanos = now + settings.probeInterval().toNanos();
+            return opened;
+        }
+        long backoff = settings.backoff().toNanos() << Math.min(consecutiveFailures - 1, MAX_BACKOFF_SHIFT);
+        nextReadNanos = now + Math.min(backoff, settings.probeInterval().toNanos());
+        return false;
+    }
+
+    public synchronized boolean isOpen() {
+        return open;
+    }
+
+    public synchronized int getConsecutiveFailures() {
+        return consecutiveFailures;
+    }
+
+    /**
+     * @param minTimeout       lower limit of the adaptive request timeout
+     * @param maxTimeout       upper limit of the adaptive request timeout, used until the first response
+     * @param backoff          pause after the first failure, doubled for every further failure
+     * @param failureThreshold failures in a row that open the circuit
+     * @param probeInterval    time between two reads while the circuit is open, upper limit of the backoff
+     */
+    public record Settings(Duration minTimeout, Duration maxTimeout, Duration backoff, int failureThreshold,
+                           Duration probeInterval) {
+
+        public static final Settings DEFAULT = new Settings(Duration.ofMillis(200), IReader.DEFAULT_TIMEOUT,
+                Duration.ofSeconds(1), 5, Duration.ofSeconds(30));
+    }
+
+}
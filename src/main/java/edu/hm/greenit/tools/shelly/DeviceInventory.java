@@ -0,0 +1,132 @@
+package edu.hm.greenit.tools.shelly;
+
+import jakarta.annotation.Nonnull;
+import org.jboss.logging.Logger;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static io.quarkus.runtime.util.StringUtil.isNullOrEmpty;
+
+/**
+ * The Shelly devices found by {@link DeviceDiscovery}, one entry per ip. <br>
+ * The inventory is persisted as a file with one device per line: <code>ip,generation,mac,model,app,auth</code>,
+ * so the devices are known on the next start without scanning first. The file is replaced atomically,
+ * a reader of the file never sees a partly written inventory.
+ */
+public class DeviceInventory {
+
+    private static final Logger LOGGER = Logger.getLogger(DeviceInventory.class);
+    private static final String HEADER = "# ip,generation,mac,model,app,auth";
+    private static final String SEPARATOR = ",";
+    private static final String COMMENT = "#";
+    private static final int FIELDS = 6;
+
+    private final Map<String, Entry> entries = new LinkedHashMap<>();
+
+    /**
+     * Reads an inventory file.
+     *
+     * @return the inventory, empty if the file does not exist yet
+     */
+    static DeviceInventory read(Path file) throws IOException {
+        DeviceInventory inventory = new DeviceInventory();
+        if (!Files.exists(file)) {
+            return inventory;
+        }
+        for (String line : Files.readAllLines(file)) {
+            String trimmed = line.strip();
+            if (!trimmed.isEmpty() && !trimmed.startsWith(COMMENT)) {
+                Entry entry = Entry.parse(trimmed);
+                inventory.entries.put(entry.ip(), entry);
+            }
+        }
+        return inventory;
+    }
+
+    /**
+     * Writes the inventory to a temporary file next to the given file and moves it in place.
+     */
+    synchronized void write(Path file) throws IOException {
+        List<String> lines = new ArrayList<>(entries.size() + 1);
+        lines.add(HEADER);
+        for (Entry entry : entries.values()) {
+            lines.add(entry.toLine());
+        }
+        Path directory = file.toAbsolutePath().getParent();
+        Path temporary = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+        try {
+            Files.write(temporary, lines);
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    /**
+     * Adds discovered devices to the inventory. A known ip reporting another device replaces its entry,
+     * the device already read at this ip keeps its reader until the next start.
+     *
+     * @return the entries of ips not in the inventory before
+     */
+    synchronized List<Entry> merge(Collection<Entry> discovered) {
+        List<Entry> added = new ArrayList<>();
+        for (Entry entry : discovered) {
+            Entry previous = entries.put(entry.ip(), entry);
+            if (previous == null) {
+                added.add(entry);
+            } else if (!previous.equals(entry)) {
+                LOGGER.infof("%s changed from %s to %s, restart to read it with the new settings", entry.ip(),
+                        previous.toLine(), entry.toLine());
+            }
+        }
+        return added;
+    }
+
+    synchronized List<Entry> getEntries() {
+        return List.copyOf(entries.values());
+    }
+
+    /**
+     * A device found at an ip.
+     *
+     * @param generation {@link ShellyDevice#SHELLY_GEN1_ARG} or {@link ShellyDevice#SHELLY_GEN2PLUS_ARG}
+     * @param model      model (Gen 2+) or type (Gen 1) of the device, e.g. <code>SNPL-00112EU</code> or <code>SHPLG-S</code>
+     * @param app        device family of Gen 2+ devices, e.g. <code>PlusPlugS</code>, <code>null</code> for Gen 1
+     * @param auth       whether the device requires a password
+     */
+    public record Entry(@Nonnull String ip, @Nonnull String generation, @Nonnull String mac, @Nonnull String model,
+                        String app, boolean auth) {
+
+        /**
+         * @param password        password used if the device requires one
+         * @param rpcStatusMethod method to read Gen 2+ devices with, {@link RpcStatusMethod#AUTO} detects it
+         *                        and falls back to <code>Shelly.GetStatus</code> if the device has no such component
+         */
+        ShellyDevice toDevice(String password, RpcStatusMethod rpcStatusMethod) {
+            return new ShellyDevice(ip, generation, auth ? password : null, rpcStatusMethod);
+        }
+
+        String toLine() {
+            return String.join(SEPARATOR, ip, generation, mac, model, app == null ? "" : app, Boolean.toString(auth));
+        }
+
+        static Entry parse(String line) {
+            String[] fields = line.split(SEPARATOR, -1);
+            if (fields.length != FIELDS) {
+                throw new IllegalArgumentException("Invalid inventory entry, expected " + HEADER.substring(2) + ": " + line);
+            }
+            String app = fields[4].strip();
+            return new Entry(fields[0].strip(), fields[1].strip(), fields[2].strip(), fields[3].strip(),
+                    isNullOrEmpty(app) ? null : app, Boolean.parseBoolean(fields[5].strip()));
+        }
+    }
+
+}
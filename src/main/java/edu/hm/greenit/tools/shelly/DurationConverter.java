@@ -0,0 +1,33 @@
+package edu.hm.greenit.tools.shelly;
+
+import picocli.CommandLine;
+
+import java.time.Duration;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Converts command line durations like <code>100ms</code>, <code>1s</code>, <code>5m</code> or <code>1h</code>.
+ * A number without unit is read as milliseconds.
+ */
+public class DurationConverter implements CommandLine.ITypeConverter<Duration> {
+
+    private static final Pattern DURATION_PATTERN = Pattern.compile("(\\d+)\\s*(ms|s|m|h)?");
+
+    @Override
+    public Duration convert(String value) {
+        Matcher matcher = DURATION_PATTERN.matcher(value.strip());
+        if (!matcher.matches()) {
+            throw new CommandLine.TypeConversionException("Invalid duration '" + value + "', expected e.g. 100ms, 1s, 5m or 1h");
+        }
+        long amount = Long.parseLong(matcher.group(1));
+        String unit = matcher.group(2) == null ? "ms" : matcher.group(2);
+        return switch (unit) {
+            case "s" -> Duration.ofSeconds(amount);
+            case "m" -> Duration.ofMinutes(amount);
+            case "h" -> Duration.ofHours(amount);
+            default -> Duration.ofMillis(amount);
+        };
+    }
+
+}
@@ -0,0 +1,139 @@
+package edu.hm.greenit.tools.shelly;
+
+/**
+ * Running energy of one device channel from its samples. <br>
+ * The energy is integrated from the power with the trapezoidal rule and, as a cross-check, summed from the differences of
+ * the energy counter of the device. A counter that goes backwards was reset (e.g. by a reboot of the device),
+ * its new value is counted as the energy since the reset.
+ */
+final class EnergyIntegrator {
+
+    private static final double MICROS_PER_HOUR = 3_600_000_000.0;
+
+    private boolean started;
+    private long lastTime;
+    private double lastPower;
+    private double lastTotal;
+    private long clipTime = Long.MIN_VALUE;
+    private double segmentEnergy;
+    private double segmentCounterEnergy;
+    private boolean segmentCounterReset;
+    private double energy;
+    private double counterEnergy;
+    private long counterResets;
+    private int samples;
+
+    /**
+     * Adds a sample, samples not newer than the previous one are ignored.
+     *
+     * @param time  receive time in microseconds since the epoch
+     * @param power power in W
+     * @param total energy counter of the device in Wh
+     * @return <code>false</code> if the sample was ignored
+     */
+    boolean add(long time, double power, double total) {
+        segmentEnergy = 0;
+        segmentCounterEnergy = 0;
+        segmentCounterReset = false;
+        if (started) {
+            if (time <= lastTime) {
+                return false;
+            }
+            double counterDelta = total - lastTotal;
+            if (counterDelta < 0 && time > clipTime) {
+                segmentCounterReset = true;
+                counterDelta = total;
+                counterResets++;
+            }
+            if (time <= clipTime) {
+                // segment before the clip time, only the values of the sample are kept
+                segmentEnergy = 0;
+            } else if (lastTime < clipTime) {
+                // only the part of the segment after the clip time counts, the power in between is interpolated
+                double fraction = (double) (time - clipTime) / (time - lastTime);
+                double clipPower = power - (power - lastPower) * fraction;
+                segmentEnergy = (clipPower + power) / 2 * (time - clipTime) / MICROS_PER_HOUR;
+                segmentCounterEnergy = counterDelta * fraction;
+            } else {
+                segmentEnergy = (lastPower + power) / 2 * (time - lastTime) / MICROS_PER_HOUR;
+                segmentCounterEnergy = counterDelta;
+            }
+            energy += segmentEnergy;
+            counterEnergy += segmentCounterEnergy;
+        }
+        started = true;
+        lastTime = time;
+        lastPower = power;
+        lastTotal = total;
+        if (time > clipTime) {
+            samples++;
+        }
+        return true;
+    }
+
+    /**
+     * Counts only energy and samples after the given time,
+     * the last sample before is only used to interpolate the power at that time.
+     */
+    void clipBefore(long time) {
+        clipTime = time;
+    }
+
+    /**
+     * @return the energy up to the given time in Wh, holding the last power after the last sample
+     */
+    double getEnergyUntil(long time) {
+        long from = Math.max(lastTime, clipTime);
+        if (!started || time <= from) {
+            return energy;
+        }
+        return energy + lastPower * (time - from) / MICROS_PER_HOUR;
+    }
+
+    /**
+     * @return energy in Wh between the last two samples
+     */
+    double getSegmentEnergy() {
+        return segmentEnergy;
+    }
+
+    /**
+     * @return energy in Wh from the counter difference between the last two samples
+     */
+    double getSegmentCounterEnergy() {
+        return segmentCounterEnergy;
+    }
+
+    /**
+     * @return <code>true</code> if the counter was reset between the last two samples
+     */
+    boolean isSegmentCounterReset() {
+        return segmentCounterReset;
+    }
+
+    /**
+     * @return energy integrated from the power in Wh
+     */
+    double getEnergy() {
+        return energy;
+    }
+
+    /**
+     * @return energy from the counter differences in Wh
+     */
+    double getCounterEnergy() {
+        return counterEnergy;
+    }
+
+    long getCounterResets() {
+        return counterResets;
+    }
+
+    /**
+     * @return number of samples added, after the time given to {@link #clipBefore(long)} if called
+     */
+    int getSamples() {
+        return samples;
+    }
+
+}
@@ -1,18 +1,18 @@
 package edu.hm.greenit.tools.shelly;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import jakarta.annotation.Nonnull;
 import org.slf4j.helpers.MessageFormatter;
 
 import java.io.IOException;
-import java.net.Authenticator;
 import java.net.URI;
-import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
-import java.util.Optional;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
 import java.util.logging.Logger;
 
 import static edu.hm.greenit.tools.shelly.ShellyPowerReader.SHELLY_USER;
@@ -22,7 +22,8 @@ import static org.jboss.logmanager.Level.ERROR;
 /**
  * IReader implementation for Shelly devices using the Common HTTP API. <br>
  * This is the standard way of communication for Generation 1 devices. <br>
- * If the device has a password set, Basic authentication is used.
+ * Every meter and energy meter of the <code>/status</code> response is read as one channel. <br>
+ * If the device has a password set, Basic authentication is used, the credentials are sent with every request.
  * For API documentation see: <a href="https://shelly-api-docs.shelly.cloud/gen1/#http-dialect">Shelly Gen 1 Api Docs</a>
  */
 public class HttpApiReader implements IReader {
@@ -30,57 +31,69 @@ public class HttpApiReader implements IReader {
     private static final Logger LOGGER = Logger.getLogger(HttpApiReader.class.getName());
     private static final String SHELLY_HTTP_API_URI = "http://{}/status";
 
-    private final HttpClient client;
+    private final String ip;
     private final HttpRequest shellyRequest;
+    private volatile ReaderMetrics metrics = ReaderMetrics.NONE;
 
     public HttpApiReader(@Nonnull String shellyIp, String shellyPassword) {
-        if (isNullOrEmpty(shellyPassword)) {
-            client = HttpClient.newHttpClient();
-        } else {
-            client = HttpClient.newBuilder()
-                    .authenticator(new Authenticator() {
-                        @Override
-                        protected java.net.PasswordAuthentication getPasswordAuthentication() {
-                            return new java.net.PasswordAuthentication(SHELLY_USER, shellyPassword.toCharArray());
-                        }
-                    }).build();
-        }
-        shellyRequest = HttpRequest.newBuilder()
+        this.ip = shellyIp;
+        HttpRequest.Builder requestBuilder = HttpRequest.newBuilder()
                 .GET()
                 .uri(URI.create(MessageFormatter.format(SHELLY_HTTP_API_URI, shellyIp).getMessage()))
-                .header("Accept", "application/json")
-                .build();
+                .header("Accept", "application/json");
+        if (!isNullOrEmpty(shellyPassword)) {
+            // sent with every request, so the device does not have to challenge first
+            requestBuilder.header("Authorization", basicAuthorization(shellyPassword));
+        }
+        shellyRequest = requestBuilder.build();
+    }
+
+    static String basicAuthorization(String password) {
+        String credentials = SHELLY_USER + ":" + password;
+        return "Basic " + Base64.getEncoder().encodeToString(credentials.getBytes(StandardCharsets.UTF_8));
     }
 
     @Override
-    public Optional<Meter> readPowerConsumption() throws IOException, InterruptedException {
-        // Sende die Anfrage und erhalte die Antwort
-        HttpResponse<String> response = client.send(shellyRequest, HttpResponse.BodyHandlers.ofString());
+    public CompletionStage<List<Meter>> readPowerConsumptionAsync(Duration timeout) {
+        HttpRequest request = HttpRequest.newBuilder(shellyRequest, (name, value) -> true).timeout(timeout).build();
+        // Sende die Anfrage, die Antwort wird außerhalb der HTTP-Client-Threads ausgewertet
+        return HttpClients.sendAsync(request, HttpResponse.BodyHandlers.ofByteArray())
+                .thenApplyAsync(this::handleResponse);
+    }
+
+    @Override
+    public void setMetrics(ReaderMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    private List<Meter> handleResponse(HttpResponse<byte[]> response) {
         // Überprüfe den Antwortcode
         if (response.statusCode() == 200) {
-            String jsonResponse = response.body();
-            return Optional.ofNullable(parsePowerConsumption(jsonResponse));
+            try {
+                long start = System.nanoTime();
+                List<Meter> meters = parsePowerConsumption(response.body());
+                metrics.parsed(ip, System.nanoTime() - start);
+                return meters;
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
         } else {
+            metrics.httpError(ip, response.statusCode());
             LOGGER.log(ERROR, "Fehler beim Abrufen der Daten. HTTP-Antwortcode: " + response.statusCode());
-            return Optional.empty();
+            return List.of();
         }
     }
 
-    static Meter parsePowerConsumption(final String jsonResponse) throws JsonProcessingException {
-        ObjectMapper objectMapper = new ObjectMapper();
-        JsonNode rootNode = objectMapper.readTree(jsonResponse);
-        JsonNode metersNode = rootNode.path("meters");
-        if (metersNode.isArray() && !metersNode.isEmpty()) {
-            JsonNode firstMeter = metersNode.get(0);
-            Meter meter = new Meter();
-            meter.setPower(firstMeter.path("power").asDouble());
-            meter.setTimestamp(firstMeter.path("timestamp").asLong());
-            meter.setTotal(firstMeter.path("total").asLong());
-            return meter;
-        } else {
+    static List<Meter> parsePowerConsumption(final String jsonResponse) throws IOException {
+        return parsePowerConsumption(jsonResponse.getBytes(StandardCharsets.UTF_8));
+    }
+
+    static List<Meter> parsePowerConsumption(final byte[] jsonResponse) throws IOException {
+        List<Meter> meters = StatusParser.parseHttpApiStatus(jsonResponse);
+        if (meters.isEmpty()) {
             LOGGER.log(ERROR, "No meters found in JSON.");
-            return null;
         }
+        return meters;
     }
 
 }
@@ -0,0 +1,112 @@
+package edu.hm.greenit.tools.shelly;
+
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * The HTTP client shared by all readers. <br>
+ * One client serves the whole fleet: one selector thread, one keep-alive connection pool and a bounded executor
+ * instead of a client per device. Credentials are sent per request (Basic for Gen 1, Digest for Gen 2+),
+ * so devices with different passwords share the client as well. <br>
+ * HTTP/1.1 is used, as the devices do not speak HTTP/2 and the upgrade headers would only add to every first request.
+ * Requests sent with {@link #sendAsync(HttpRequest, HttpResponse.BodyHandler)} are queued per host,
+ * so every device has at most one request in flight and the pool keeps one connection per device.
+ * The client must be configured before the first reader is created.
+ */
+final class HttpClients {
+
+    static final Duration DEFAULT_CONNECT_TIMEOUT = Duration.ofSeconds(2);
+    static final Duration DEFAULT_KEEP_ALIVE = Duration.ofSeconds(30);
+    static final int DEFAULT_THREADS = Math.max(2, Runtime.getRuntime().availableProcessors());
+    // read once by the JDK when java.net.http is first used, so it is set as early as possible
+    private static final String KEEP_ALIVE_PROPERTY = "jdk.httpclient.keepalive.timeout";
+    // set with -D on the command line, takes precedence over --keep-alive
+    private static final boolean KEEP_ALIVE_PROPERTY_SET = System.getProperty(KEEP_ALIVE_PROPERTY) != null;
+    private static final CompletableFuture<Void> NO_REQUEST = CompletableFuture.completedFuture(null);
+    // completes once the last request queued for a host is done, removed when the host is idle
+    private static final ConcurrentMap<String, CompletableFuture<Void>> LAST_REQUESTS = new ConcurrentHashMap<>();
+
+    private static volatile Duration connectTimeout = DEFAULT_CONNECT_TIMEOUT;
+    private static volatile Duration keepAlive = DEFAULT_KEEP_ALIVE;
+    private static volatile int threads = DEFAULT_THREADS;
+    private static volatile HttpClient shared;
+
+    static {
+        setKeepAlive(DEFAULT_KEEP_ALIVE);
+    }
+
+    private HttpClients() {
+    }
+
+    /**
+     * @param connectTimeout maximum time to establish a connection to a device
+     * @param keepAlive      time an idle connection is kept open, should be longer than the sampling interval
+     * @param threads        number of threads completing the requests
+     */
+    static void configure(Duration connectTimeout, Duration keepAlive, int threads) {
+        HttpClients.connectTimeout = connectTimeout;
+        HttpClients.keepAlive = keepAlive;
+        HttpClients.threads = threads;
+        setKeepAlive(keepAlive);
+    }
+
+    private static void setKeepAlive(Duration keepAlive) {
+        if (!KEEP_ALIVE_PROPERTY_SET) {
+            System.setProperty(KEEP_ALIVE_PROPERTY, Long.toString(Math.max(1, keepAlive.toSeconds())));
+        }
+    }
+
+    /**
+     * @return the client shared by all readers
+     */
+    static HttpClient shared() {
+        HttpClient client = shared;
+        if (client == null) {
+            synchronized (HttpClients.class) {
+                client = shared;
+                if (client == null) {
+                    client = create();
+                    shared = client;
+                }
+            }
+        }
+        return client;
+    }
+
+    /**
+     * Sends a request with the shared client once the previous request to the same host is done. <br>
+     * The JDK client opens a new connection for every concurrent request to a host,
+     * queuing them caps the connections at one per device. The timeout of a request starts when it is sent.
+     */
+    static <T> CompletableFuture<HttpResponse<T>> sendAsync(HttpRequest request, HttpResponse.BodyHandler<T> handler) {
+        HttpClient client = shared();
+        String host = request.uri().getAuthority();
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        CompletableFuture<Void> previous = LAST_REQUESTS.put(host, done);
+        CompletableFuture<HttpResponse<T>> response = (previous == null ? NO_REQUEST : previous)
+                .thenCompose(ignored -> client.sendAsync(request, handler));
+        response.whenComplete((result, failure) -> {
+            LAST_REQUESTS.remove(host, done);
+            done.complete(null);
+        });
+        return response;
+    }
+
+    private static HttpClient create() {
+        ExecutorService executor = Executors.newFixedThreadPool(threads,
+                Thread.ofPlatform().name("shelly-http-", 0).daemon().factory());
+        return HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(connectTimeout)
+                .executor(executor)
+                .build();
+    }
+
+}
@@ -1,8 +1,53 @@
 package edu.hm.greenit.tools.shelly;
 
 import java.io.IOException;
-import java.util.Optional;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
 
 public interface IReader {
-    Optional<Meter> readPowerConsumption() throws IOException, InterruptedException;
+
+    Duration DEFAULT_TIMEOUT = Duration.ofSeconds(5);
+
+    /**
+     * Reads the current power consumption of all channels of the device without blocking the calling thread. <br>
+     * The request is sent asynchronously, the response is parsed off the HTTP client threads.
+     * A failed request completes the stage exceptionally, an unexpected response results in an empty list.
+     *
+     * @param timeout maximum time to wait for the response of each request,
+     *                a request without response completes the stage with an {@link java.net.http.HttpTimeoutException}
+     */
+    CompletionStage<List<Meter>> readPowerConsumptionAsync(Duration timeout);
+
+    /**
+     * {@link #readPowerConsumptionAsync(Duration)} with the {@link #DEFAULT_TIMEOUT}.
+     */
+    default CompletionStage<List<Meter>> readPowerConsumptionAsync() {
+        return readPowerConsumptionAsync(DEFAULT_TIMEOUT);
+    }
+
+    /**
+     * Sets the callback for events inside a read, e.g. authentication challenges, {@link ReaderMetrics#NONE} by default.
+     */
+    default void setMetrics(ReaderMetrics metrics) {
+    }
+
+    /**
+     * Blocking variant of {@link #readPowerConsumptionAsync()}.
+     */
+    default List<Meter> readPowerConsumption() throws IOException, InterruptedException {
+        try {
+            return readPowerConsumptionAsync().toCompletableFuture().get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException ioException) {
+                throw ioException;
+            }
+            if (cause instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new IOException(cause);
+        }
+    }
 }
@@ -18,7 +18,24 @@ public class Meter {
     private double overpower;
     private boolean is_valid;
     private long timestamp;
+    private double[] counters;
+    /**
+     * Energy counter of the channel in Wh, the watt-minutes of Gen 1 meters are converted when parsing.
+     */
     private double total;
+    /**
+     * Channel of the device the values belong to, e.g. the index of a meter (Gen 1) or the id of a switch (Gen 2+),
+     * other Gen 2+ component types start at their own first channel, see {@link StatusParser#parseRpcStatus(byte[])}.
+     */
+    private int channel;
+    /**
+     * Local time the response was received in microseconds since the epoch, see {@link MonotonicClock}.
+     */
+    private long receivedAt;
+    /**
+     * Round trip time of the request in microseconds, <code>-1</code> if the device pushed the values.
+     */
+    private long latency = -1;
 
     public double getPower() {
         return power;
@@ -44,6 +61,14 @@ public class Meter {
         this.timestamp = timestamp;
     }
 
+    public double[] getCounters() {
+        return counters;
+    }
+
+    public void setCounters(double[] counters) {
+        this.counters = counters;
+    }
+
     public double getTotal() {
         return total;
     }
@@ -52,4 +77,28 @@ public class Meter {
         this.total = total;
     }
 
+    public int getChannel() {
+        return channel;
+    }
+
+    public void setChannel(int channel) {
+        this.channel = channel;
+    }
+
+    public long getReceivedAt() {
+        return receivedAt;
+    }
+
+    public void setReceivedAt(long receivedAt) {
+        this.receivedAt = receivedAt;
+    }
+
+    public long getLatency() {
+        return latency;
+    }
+
+    public void setLatency(long latency) {
+        this.latency = latency;
+    }
+
 }
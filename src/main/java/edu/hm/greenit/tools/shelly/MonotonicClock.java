@@ -0,0 +1,31 @@
+package edu.hm.greenit.tools.shelly;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+
+/**
+ * Local receive time of samples in microseconds since the epoch. <br>
+ * The wall clock is read once, later times are derived from {@link System#nanoTime()},
+ * so they never go backwards when the system clock is adjusted (e.g. by NTP) and have sub-millisecond resolution.
+ */
+public final class MonotonicClock {
+
+    private static final long BASE_EPOCH_MICROS = ChronoUnit.MICROS.between(Instant.EPOCH, Instant.now());
+    private static final long BASE_NANOS = System.nanoTime();
+
+    private MonotonicClock() {
+    }
+
+    public static long currentTimeMicros() {
+        return toEpochMicros(System.nanoTime());
+    }
+
+    /**
+     * @param nanoTime a value of {@link System#nanoTime()}
+     * @return the time in microseconds since the epoch
+     */
+    public static long toEpochMicros(long nanoTime) {
+        return BASE_EPOCH_MICROS + (nanoTime - BASE_NANOS) / 1000;
+    }
+
+}
@@ -0,0 +1,270 @@
+package edu.hm.greenit.tools.shelly;
+
+import io.netty.handler.codec.mqtt.MqttQoS;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.mqtt.MqttClient;
+import io.vertx.mqtt.MqttClientOptions;
+import io.vertx.mqtt.messages.MqttPublishMessage;
+import org.jboss.logging.Logger;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+/**
+ * Push source for Gen 1 and Gen 2+ devices publishing their status to an MQTT broker. <br>
+ * One connection to the broker subscribes to the status topics of all devices with wildcards:
+ * <ul>
+ *     <li>Gen 1: <code>shellies/&lt;id&gt;/relay/&lt;n&gt;/power</code> (W) and
+ *     <code>shellies/&lt;id&gt;/relay/&lt;n&gt;/energy</code> (watt-minutes like the <code>total</code> of <code>/status</code>,
+ *     converted to Wh)</li>
+ *     <li>Gen 2+: <code>&lt;id&gt;/status/switch:&lt;n&gt;</code> and <code>&lt;id&gt;/status/pm1:&lt;n&gt;</code>,
+ *     sent by devices with <i>Generic status update over MQTT</i> enabled</li>
+ * </ul>
+ * Every message is emitted as a {@link Meter} of the device id taken from the topic. Gen 1 devices publish power and
+ * energy in separate messages, so a relay is emitted once both are known, each with the last known value of the other.
+ * The messages carry no device time, the local time is used instead. <br>
+ * Messages are handled on the Vert.x event loop of the connection. If the connection is lost it is reestablished
+ * every {@link #RECONNECT_DELAY_MILLIS} ms by a single reconnect loop.
+ * For API documentation see: <a href="https://shelly-api-docs.shelly.cloud/gen1/#shelly-plug-plugs-mqtt">Gen 1 MQTT</a>
+ * and <a href="https://shelly-api-docs.shelly.cloud/gen2/ComponentsAndServices/Mqtt">Gen 2+ MQTT</a>
+ */
+public class MqttSubscriber {
+
+    private static final Logger LOGGER = Logger.getLogger(MqttSubscriber.class);
+
+    static final String GEN1_POWER_TOPIC = "shellies/+/relay/+/power";
+    static final String GEN1_ENERGY_TOPIC = "shellies/+/relay/+/energy";
+    static final String GEN2_STATUS_TOPIC = "+/status/+";
+    // in the order of the granted QoS levels of the acknowledgement
+    private static final List<String> TOPICS = List.of(GEN1_POWER_TOPIC, GEN1_ENERGY_TOPIC, GEN2_STATUS_TOPIC);
+    private static final String GEN1_PREFIX = "shellies";
+    private static final String GEN1_RELAY = "relay";
+    private static final String GEN1_POWER = "power";
+    private static final String GEN1_ENERGY = "energy";
+    private static final String GEN2_STATUS = "status";
+    private static final String[] GEN2_METERING_COMPONENTS = {"switch:", "pm1:"};
+    private static final long RECONNECT_DELAY_MILLIS = 5000;
+    // MQTT 3.1 brokers accept client ids of up to 23 characters
+    private static final String CLIENT_ID_PREFIX = "shelly-reader-";
+
+    private final BiConsumer<String, Meter> meterConsumer;
+    private final String clientId;
+    private final String username;
+    private final String password;
+    private final Map<String, Relay> relays = new HashMap<>();
+    private final AtomicLong messages = new AtomicLong();
+    private final AtomicBoolean reconnecting = new AtomicBoolean();
+    private Vertx vertx;
+    private volatile MqttClient client;
+    private String host;
+    private int port;
+    private volatile boolean stopped;
+    // replaced in tests
+    long reconnectDelayMillis = RECONNECT_DELAY_MILLIS;
+
+    /**
+     * @param meterConsumer receives the device id and the {@link Meter} of every status message
+     * @param clientId      client id at the broker, <code>null</code> for a random id.
+     *                      The broker drops the older of two connections with the same id.
+     * @param username      user name for the broker, <code>null</code> to connect anonymously
+     * @param password      password for the broker
+     */
+    public MqttSubscriber(BiConsumer<String, Meter> meterConsumer, String clientId, String username, String password) {
+        this.meterConsumer = meterConsumer;
+        this.clientId = clientId != null ? clientId : CLIENT_ID_PREFIX + UUID.randomUUID().toString().substring(0, 8);
+        this.username = username;
+        this.password = password;
+    }
+
+    /**
+     * Connects to the broker and subscribes to the status topics.
+     *
+     * @return completed once the broker acknowledged the subscriptions
+     */
+    public Future<Void> start(Vertx vertx, String host, int port) {
+        this.vertx = vertx;
+        this.host = host;
+        this.port = port;
+        return connect().onSuccess(subscribed ->
+                LOGGER.info("Subscribed to shelly status topics on mqtt://" + host + ":" + port));
+    }
+
+    public Future<Void> stop() {
+        stopped = true;
+        return client == null || !client.isConnected() ? Future.succeededFuture() : client.disconnect();
+    }
+
+    /**
+     * @return number of messages received on the status topics
+     */
+    public long getMessages() {
+        return messages.get();
+    }
+
+    private Future<Void> connect() {
+        MqttClientOptions options = new MqttClientOptions()
+                .setClientId(clientId)
+                .setUsername(username)
+                .setPassword(password)
+                .setCleanSession(true)
+                .setAutoKeepAlive(true);
+        Promise<Void> subscribed = Promise.promise();
+        MqttClient connection = MqttClient.create(vertx, options);
+        client = connection;
+        connection.publishHandler(this::handleMessage);
+        connection.subscribeCompletionHandler(ack -> checkGranted(ack.grantedQoSLevels(), subscribed));
+        // a connection that never got subscribed is retried by the one who opened it
+        connection.closeHandler(closed -> {
+            if (subscribed.future().succeeded()) {
+                reconnect();
+            }
+        });
+        connection.connect(port, host)
+                .compose(connected -> connection.subscribe(topics()))
+                .onFailure(subscribed::tryFail);
+        return subscribed.future().onFailure(e -> {
+            if (connection.isConnected()) {
+                connection.disconnect();
+            }
+        });
+    }
+
+    private static Map<String, Integer> topics() {
+        Map<String, Integer> topics = new LinkedHashMap<>();
+        for (String topic : TOPICS) {
+            topics.put(topic, MqttQoS.AT_MOST_ONCE.value());
+        }
+        return topics;
+    }
+
+    /**
+     * Fails if the broker rejected all subscriptions, e.g. for missing permissions, and logs single rejected topics.
+     */
+    private void checkGranted(List<Integer> grantedQoSLevels, Promise<Void> subscribed) {
+        List<String> rejected = new ArrayList<>();
+        for (int i = 0; i < grantedQoSLevels.size() && i < TOPICS.size(); i++) {
+            if (grantedQoSLevels.get(i) == MqttQoS.FAILURE.value()) {
+                rejected.add(TOPICS.get(i));
+            }
+        }
+        if (rejected.size() == TOPICS.size()) {
+            subscribed.tryFail(new IllegalStateException("Broker rejected the subscriptions to " + rejected));
+            return;
+        }
+        if (!rejected.isEmpty()) {
+            LOGGER.warn("Broker rejected the subscriptions to " + rejected + ", devices publishing there are not metered");
+        }
+        subscribed.tryComplete();
+    }
+
+    /**
+     * Starts reconnecting after the connection was lost, unless a reconnect is already running.
+     */
+    private void reconnect() {
+        if (stopped || !reconnecting.compareAndSet(false, true)) {
+            return;
+        }
+        LOGGER.warn("Connection to mqtt://" + host + ":" + port + " lost, reconnecting");
+        scheduleReconnect();
+    }
+
+    private void scheduleReconnect() {
+        vertx.setTimer(reconnectDelayMillis, timer -> {
+            if (stopped) {
+                reconnecting.set(false);
+                return;
+            }
+            connect().onComplete(result -> {
+                if (result.succeeded()) {
+                    reconnecting.set(false);
+                    LOGGER.info("Reconnected to mqtt://" + host + ":" + port);
+                } else {
+                    LOGGER.warn("Reconnecting to mqtt://" + host + ":" + port + " failed: " + result.cause().getMessage());
+                    scheduleReconnect();
+                }
+            });
+        });
+    }
+
+    private void handleMessage(MqttPublishMessage message) {
+        messages.incrementAndGet();
+        handleMessage(message.topicName(), message.payload());
+    }
+
+    private void handleMessage(String topic, Buffer payload) {
+        String[] levels = topic.split("/");
+        try {
+            if (levels.length == 5 && GEN1_PREFIX.equals(levels[0]) && GEN1_RELAY.equals(levels[2])) {
+                handleRelay(levels[1], Integer.parseInt(levels[3]), levels[4], payload);
+            } else if (levels.length == 3 && GEN2_STATUS.equals(levels[1]) && isMeteringComponent(levels[2])) {
+                handleComponentStatus(levels[0], levels[2], payload);
+            }
+        } catch (IOException | NumberFormatException e) {
+            LOGGER.warn("Unreadable message on " + topic + ": " + payload);
+        }
+    }
+
+    private void handleRelay(String id, int channel, String value, Buffer payload) {
+        Relay relay = relays.computeIfAbsent(id + '/' + channel, key -> new Relay());
+        double number = Double.parseDouble(payload.toString().strip());
+        if (GEN1_POWER.equals(value)) {
+            relay.power = number;
+            relay.hasPower = true;
+        } else if (GEN1_ENERGY.equals(value)) {
+            relay.total = number / StatusParser.GEN1_WATT_MINUTES_PER_WH;
+            relay.hasTotal = true;
+        } else {
+            return;
+        }
+        if (relay.hasPower && relay.hasTotal) {
+            Meter meter = new Meter();
+            meter.setChannel(channel);
+            meter.setPower(relay.power);
+            meter.setTotal(relay.total);
+            emit(id, meter);
+        }
+    }
+
+    private void handleComponentStatus(String id, String component, Buffer payload) throws IOException {
+        Meter meter = StatusParser.parseRpcComponent(payload.getBytes(), component);
+        if (meter != null) {
+            emit(id, meter);
+        }
+    }
+
+    private void emit(String id, Meter meter) {
+        meter.setTimestamp(System.currentTimeMillis() / 1000);
+        meterConsumer.accept(id, meter);
+    }
+
+    private static boolean isMeteringComponent(String component) {
+        for (String prefix : GEN2_METERING_COMPONENTS) {
+            if (component.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Last known power and energy of a Gen 1 relay.
+     */
+    private static final class Relay {
+        private double power;
+        private double total;
+        private boolean hasPower;
+        private boolean hasTotal;
+    }
+
+}
@@ -0,0 +1,46 @@
+package edu.hm.greenit.tools.shelly;
+
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.nio.file.Path;
+import java.time.Duration;
+
+/**
+ * Output formats of the samples, each is written by its own {@link SampleSink}.
+ */
+public enum OutputFormat {
+    /**
+     * CSV rows on stdout.
+     */
+    CSV,
+    /**
+     * CSV rows in rolling files in the output directory.
+     */
+    CSV_FILE,
+    /**
+     * Compact binary records in rolling files in the output directory, see {@link BinarySink}.
+     */
+    BINARY;
+
+    SampleSink createSink(Path directory, long maxFileSize, int bufferSize) {
+        return switch (this) {
+            case CSV -> new CsvSink(new FileOutputStream(FileDescriptor.out).getChannel(), bufferSize);
+            case CSV_FILE -> new CsvSink(directory, maxFileSize, bufferSize);
+            case BINARY -> new BinarySink(directory, maxFileSize, bufferSize);
+        };
+    }
+
+    /**
+     * Creates a sink writing aggregates instead of samples, see {@link AggregateCsvSink}.
+     *
+     * @throws IllegalArgumentException if the format cannot hold aggregates
+     */
+    SampleSink createAggregateSink(Path directory, long maxFileSize, int bufferSize, Duration window, Duration step) {
+        return switch (this) {
+            case CSV -> new AggregateCsvSink(new FileOutputStream(FileDescriptor.out).getChannel(), bufferSize, window, step);
+            case CSV_FILE -> new AggregateCsvSink(directory, maxFileSize, bufferSize, window, step);
+            case BINARY -> throw new IllegalArgumentException("Aggregates can only be written as CSV or CSV_FILE");
+        };
+    }
+
+}
@@ -0,0 +1,35 @@
+package edu.hm.greenit.tools.shelly;
+
+/**
+ * Callback of the readers for events inside a read, e.g. to record metrics, see {@link ShellyMetrics}. <br>
+ * Called from the HTTP client and parser threads, implementations must be thread-safe and must not block.
+ */
+public interface ReaderMetrics {
+
+    /**
+     * Does not record anything, the default of every reader.
+     */
+    ReaderMetrics NONE = new ReaderMetrics() {
+    };
+
+    /**
+     * The device answered with an authentication challenge (HTTP 401), e.g. for a new or expired digest nonce.
+     */
+    default void authChallenge(String ip) {
+    }
+
+    /**
+     * The device answered with an HTTP status other than 200.
+     */
+    default void httpError(String ip, int statusCode) {
+    }
+
+    /**
+     * A response was parsed.
+     *
+     * @param nanos time spent parsing in nanoseconds
+     */
+    default void parsed(String ip, long nanos) {
+    }
+
+}
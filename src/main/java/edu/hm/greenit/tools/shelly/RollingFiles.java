@@ -0,0 +1,66 @@
+package edu.hm.greenit.tools.shelly;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Sequence of output files of one sink in one directory. <br>
+ * A new file is started by {@link #roll()} once the current file reached its maximum size,
+ * file names contain the start time of the run and a running number, e.g. <code>shelly-20250729-105347-0001.csv</code>.
+ */
+final class RollingFiles implements AutoCloseable {
+
+    private static final DateTimeFormatter RUN_FORMATTER = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss");
+
+    private final Path directory;
+    private final String prefix;
+    private final String extension;
+    private final long maxBytes;
+    private FileChannel channel;
+    private long written;
+    private int index;
+
+    RollingFiles(Path directory, String prefix, String extension, long maxBytes) {
+        this.directory = directory;
+        this.prefix = prefix + "-" + LocalDateTime.now().format(RUN_FORMATTER) + "-";
+        this.extension = extension;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Closes the current file, if any, and starts the next one.
+     */
+    void roll() throws IOException {
+        close();
+        Files.createDirectories(directory);
+        index++;
+        channel = FileChannel.open(directory.resolve(prefix + String.format("%04d", index) + extension),
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        written = 0;
+    }
+
+    boolean isFull() {
+        return written >= maxBytes;
+    }
+
+    void write(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            written += channel.write(buffer);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+
+}
@@ -1,39 +1,44 @@
 package edu.hm.greenit.tools.shelly;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import io.vertx.core.json.JsonObject;
 import jakarta.annotation.Nonnull;
 import org.jboss.logging.Logger;
 import org.slf4j.helpers.MessageFormatter;
 
 import java.io.IOException;
 import java.net.URI;
-import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
-import java.util.Base64;
+import java.time.Duration;
 import java.util.HashMap;
 import java.util.HexFormat;
 import java.util.Map;
-import java.util.Optional;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import static edu.hm.greenit.tools.shelly.ShellyPowerReader.SHELLY_USER;
 import static jakarta.ws.rs.core.MediaType.APPLICATION_JSON;
 import static org.jboss.logmanager.Level.DEBUG;
+import static org.jboss.resteasy.reactive.RestResponse.StatusCode.NOT_FOUND;
 import static org.jboss.resteasy.reactive.RestResponse.StatusCode.OK;
 import static org.jboss.resteasy.reactive.RestResponse.StatusCode.UNAUTHORIZED;
 
 /**
  * IReader implementation for Shelly devices using Remote Procedure Calls (RPC). <br>
  * This is the standard way of communication for Generation 2+ devices. <br>
- * If the device has a password set, RpcReader uses Digest authentication following <a href="https://datatracker.ietf.org/doc/html/rfc7616">RFC7616</a>.<br>
+ * If the device has a password set, RpcReader uses Digest authentication following <a href="https://datatracker.ietf.org/doc/html/rfc7616">RFC7616</a>.
+ * The challenge of the device is cached, so following requests are sent pre-authorized with an incremented nonce count
+ * and the device is only asked for a new challenge when it rejects the cached nonce.<br>
+ * Every switch, cover, power meter and energy meter phase of the device is read as one channel. <br>
+ * The status is read with the configured {@link RpcStatusMethod}, {@link RpcStatusMethod#AUTO} detects it once per device.<br>
  * For API documentation see: <a href="https://shelly-api-docs.shelly.cloud/gen2/General/RPCProtocol">Shelly Gen 2+ Api Docs</a>
  */
 public class RpcReader implements IReader {
@@ -41,24 +46,13 @@ public class RpcReader implements IReader {
     private static final Logger LOGGER = Logger.getLogger(RpcReader.class);
     private static final String SHELLY_RPC_PATH = "/rpc";
     private static final String SHELLY_RPC_URI = "http://{}" + SHELLY_RPC_PATH;
-    private static final JsonObject RPC_STATUS_BODY = new JsonObject()
-            .put("id", 1)
-            .put("method", "Shelly.GetStatus");
-    private static final HttpClient CLIENT = HttpClient.newHttpClient();
-
-    // fields to parse Json response
-    private static final String JSON_RESULT_NODE = "result";
-    private static final String JSON_SWITCH_NODE = "switch:0";
-    private static final String JSON_TOTAL_ENERGY_NODE = "aenergy";
-    private static final String JSON_POWER_FIELD = "apower";
-    private static final String JSON_TOTAL_ENERGY_FIELD = "total";
-    private static final String JSON_SYSTEM_NODE = "sys";
-    private static final String JSON_UNIXTIME_FIELD = "unixtime";
+    private static final String RPC_DEVICE_INFO_BODY = RpcStatusMethod.requestBody(RpcStatusMethod.DEVICE_INFO_METHOD, true);
+
     // auth fields
     private static final String AUTH_HEADER_REALM_NAME = "realm";
     private static final String AUTH_HEADER_NONCE_NAME = "nonce";
     private static final String AUTH_HEADER_QOP_NAME = "qop";
-    private static final String AUTH_NONCE_COUNT = "00000001";
+    private static final String AUTH_NONCE_COUNT_FORMAT = "%08x";
     private static final String AUTH_HEADER_DIGEST_PREFIX = "Digest ";
     private static final String AUTH_HEADER_FORMAT_STRING =
             AUTH_HEADER_DIGEST_PREFIX + "username=\"" + SHELLY_USER + "\", " + AUTH_HEADER_REALM_NAME + "=\"%s\", " +
@@ -68,113 +62,183 @@ public class RpcReader implements IReader {
     private static final String CONTENT_TYPE = "Content-Type";
     private static final String AUTHORIZATION = "Authorization";
     private static final String SHA_256 = "SHA-256";
+    private static final String HTTP_METHOD_POST = "POST";
+    private static final Pattern AUTH_HEADER_PARAMETER_PATTERN = Pattern.compile("(\\w+)=(?:\"([^\"]*)\"|([^,\\s]*))");
+    private static final SecureRandom SECURE_RANDOM = new SecureRandom();
+    // the digest of method and uri is the same for every request
+    private static final String HA2 = encodeSha256Hex(HTTP_METHOD_POST + ":" + SHELLY_RPC_PATH);
 
     private final String ip;
     private final String password;
-    private final HttpRequest requestWithoutAuthorization;
+    private final URI uri;
+    private final boolean detectStatusMethod;
+    private volatile RpcStatusMethod statusMethod;
+    private volatile DigestSession digestSession;
+    private volatile ReaderMetrics metrics = ReaderMetrics.NONE;
 
     public RpcReader(@Nonnull String ip, String password) {
+        this(ip, password, RpcStatusMethod.STATUS);
+    }
+
+    public RpcReader(@Nonnull String ip, String password, @Nonnull RpcStatusMethod statusMethod) {
         this.ip = ip;
         this.password = password;
-        requestWithoutAuthorization = HttpRequest.newBuilder()
-                .uri(URI.create(MessageFormatter.format(SHELLY_RPC_URI, ip).getMessage()))
-                .header(CONTENT_TYPE, APPLICATION_JSON)
-                .POST(HttpRequest.BodyPublishers.ofString(RPC_STATUS_BODY.encode()))
-                .build();
+        this.uri = URI.create(MessageFormatter.format(SHELLY_RPC_URI, ip).getMessage());
+        this.detectStatusMethod = statusMethod == RpcStatusMethod.AUTO;
+        this.statusMethod = detectStatusMethod ? null : statusMethod;
     }
 
     @Override
-    public Optional<Meter> readPowerConsumption() throws IOException, InterruptedException {
-        // Try request without authentication
-        HttpResponse<String> response = CLIENT.send(requestWithoutAuthorization, HttpResponse.BodyHandlers.ofString());
-
-        return switch (response.statusCode()) {
-            case OK -> Optional.ofNullable(parsePowerConsumption(response.body()));
-            case UNAUTHORIZED -> {
-                HttpResponse<String> authResponse = CLIENT.send(buildDigestAuthorizedRequest(ip, password, response),
-                        HttpResponse.BodyHandlers.ofString());
-                if (authResponse.statusCode() != OK) {
-                    LOGGER.warn("Authorized Data retrieval error. HTTP-Status: " + response.statusCode());
-                    LOGGER.warn("Header:" + authResponse.headers());
-                    LOGGER.warn("Response Body: " + response.body());
-                    yield Optional.empty();
+    public CompletionStage<List<Meter>> readPowerConsumptionAsync(Duration timeout) {
+        RpcStatusMethod method = statusMethod;
+        CompletionStage<RpcStatusMethod> resolvedMethod = method != null
+                ? CompletableFuture.completedFuture(method)
+                : detectStatusMethod(timeout);
+        return resolvedMethod.thenCompose(resolved -> send(resolved.getRequestBody(), timeout)
+                .thenApplyAsync(response -> handleResponse(resolved, response)));
+    }
+
+    @Override
+    public void setMetrics(ReaderMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Sends an RPC request. <br>
+     * Uses the cached digest session if there is one, otherwise tries the request without authentication.
+     * A challenge (first request or rejected nonce) is answered once with a new session.
+     */
+    private CompletionStage<HttpResponse<byte[]>> send(String body, Duration timeout) {
+        DigestSession session = digestSession;
+        HttpRequest request = session == null ? buildRequest(body, timeout) : buildDigestAuthorizedRequest(body, session, timeout);
+        return HttpClients.sendAsync(request, HttpResponse.BodyHandlers.ofByteArray())
+                .thenCompose(response -> {
+                    if (response.statusCode() != UNAUTHORIZED) {
+                        return CompletableFuture.completedFuture(response);
+                    }
+                    metrics.authChallenge(ip);
+                    return HttpClients.sendAsync(buildDigestAuthorizedRequest(body, startDigestSession(response), timeout),
+                            HttpResponse.BodyHandlers.ofByteArray());
+                });
+    }
+
+    private CompletionStage<RpcStatusMethod> detectStatusMethod(Duration timeout) {
+        return send(RPC_DEVICE_INFO_BODY, timeout).thenApplyAsync(response -> {
+            RpcStatusMethod detected = RpcStatusMethod.STATUS;
+            if (response.statusCode() == OK) {
+                try {
+                    detected = RpcStatusMethod.forApp(StatusParser.parseRpcDeviceInfoApp(response.body()));
+                } catch (IOException e) {
+                    LOGGER.warn("Unreadable device info of " + ip + ", using " + detected.getMethod(), e);
                 }
-                yield Optional.ofNullable(parsePowerConsumption(authResponse.body()));
-            }
-            default -> {
-                LOGGER.warn("Data retrieval error. HTTP-Status: " + response.statusCode());
-                LOGGER.warn("Header:" + response.headers());
-                LOGGER.warn("Response Body: " + response.body());
-                yield Optional.empty();
+            } else {
+                LOGGER.warn("Device info error. HTTP-Status: " + response.statusCode() + ", using " + detected.getMethod());
             }
-        };
-    }
-
-    static Meter parsePowerConsumption(final String jsonResponse) throws JsonProcessingException {
-        Meter meter = new Meter();
-        ObjectMapper objectMapper = new ObjectMapper();
-        JsonNode rootNode = objectMapper.readTree(jsonResponse);
-        JsonNode switchNode = rootNode.path(JSON_RESULT_NODE).path(JSON_SWITCH_NODE);
-        JsonNode sysNode = rootNode.path(JSON_RESULT_NODE).path(JSON_SYSTEM_NODE);
-        JsonNode totalEnergyNode = switchNode.path(JSON_TOTAL_ENERGY_NODE);
-
-        if (!sysNode.isMissingNode()) meter.setTimestamp(sysNode.path(JSON_UNIXTIME_FIELD).asLong());
-        if (!switchNode.isMissingNode()) {
-            meter.setPower(switchNode.path(JSON_POWER_FIELD).asDouble());
-            if (!totalEnergyNode.isMissingNode()) {
-                meter.setTotal(totalEnergyNode.path(JSON_TOTAL_ENERGY_FIELD).asDouble());
+            LOGGER.info("Reading " + ip + " with " + detected.getMethod());
+            statusMethod = detected;
+            return detected;
+        });
+    }
+
+    private List<Meter> handleResponse(RpcStatusMethod method, HttpResponse<byte[]> response) {
+        List<Meter> meters = List.of();
+        if (response.statusCode() == OK) {
+            try {
+                long start = System.nanoTime();
+                meters = method.isComponentMethod()
+                        ? parseComponentPowerConsumption(response.body(), method.getFirstChannel())
+                        : parsePowerConsumption(response.body());
+                metrics.parsed(ip, System.nanoTime() - start);
+            } catch (IOException e) {
+                throw new CompletionException(e);
             }
-            return meter;
-        } else {
+        }
+        if (response.statusCode() != OK) {
+            metrics.httpError(ip, response.statusCode());
+            LOGGER.warn("Data retrieval error. HTTP-Status: " + response.statusCode());
+            LOGGER.warn("Header:" + response.headers());
+            LOGGER.warn("Response Body: " + new String(response.body(), StandardCharsets.UTF_8));
+        }
+        if (detectStatusMethod && method.isComponentMethod() && isMissingComponent(response.statusCode(), meters)) {
+            LOGGER.warn(method.getMethod() + " not supported by " + ip + ", falling back to " + RpcStatusMethod.STATUS.getMethod());
+            statusMethod = RpcStatusMethod.STATUS;
+        }
+        return meters;
+    }
+
+    /**
+     * The detected component does not exist on this device if the device answers without it or does not know the method.
+     * Other errors, e.g. of a device that is restarting, keep the method.
+     */
+    private static boolean isMissingComponent(int statusCode, List<Meter> meters) {
+        return statusCode == OK ? meters.isEmpty() : statusCode == NOT_FOUND;
+    }
+
+    static List<Meter> parsePowerConsumption(final String jsonResponse) throws IOException {
+        return parsePowerConsumption(jsonResponse.getBytes(StandardCharsets.UTF_8));
+    }
+
+    static List<Meter> parsePowerConsumption(final byte[] jsonResponse) throws IOException {
+        List<Meter> meters = StatusParser.parseRpcStatus(jsonResponse);
+        if (meters.isEmpty()) {
             LOGGER.warn("No meters found in JSON.");
-            return null;
         }
+        return meters;
     }
 
-    private HttpRequest buildDigestAuthorizedRequest(String ip, String password, HttpResponse<String> unauthorizedResponse) {
-        String header = unauthorizedResponse.headers().firstValue("WWW-Authenticate").orElseThrow();
-        if (!header.startsWith(AUTH_HEADER_DIGEST_PREFIX)) {
-            throw new IllegalArgumentException("Unknown authentication method: " + header);
+    private static List<Meter> parseComponentPowerConsumption(final byte[] jsonResponse, int firstChannel) throws IOException {
+        Meter meter = StatusParser.parseRpcComponentStatus(jsonResponse, firstChannel);
+        if (meter == null) {
+            return List.of();
         }
-        Map<String, String> authHeaderMap = parseDigestAuthHeader(header);
-        String realm = authHeaderMap.get(AUTH_HEADER_REALM_NAME);
-        String nonce = authHeaderMap.get(AUTH_HEADER_NONCE_NAME);
-        String qop = authHeaderMap.get(AUTH_HEADER_QOP_NAME);
-        String nonceCount = AUTH_NONCE_COUNT;
-        String clientNonce = generateCnonce();
-        String ha1 = encodeSha256Hex(String.join(":",
-                SHELLY_USER, realm, password));
-        String ha2 = encodeSha256Hex(String.join(":",
-                unauthorizedResponse.request().method(), SHELLY_RPC_PATH));
-        String response = encodeSha256Hex(String.join(":",
-                ha1, nonce, nonceCount, clientNonce, "auth", ha2));
-        String authHeader = String.format(AUTH_HEADER_FORMAT_STRING, realm, nonce, response, qop, nonceCount, clientNonce);
+        meter.setTimestamp(System.currentTimeMillis() / 1000);
+        return List.of(meter);
+    }
+
+    private DigestSession startDigestSession(HttpResponse<byte[]> unauthorizedResponse) {
+        String header = unauthorizedResponse.headers().firstValue("WWW-Authenticate").orElseThrow();
+        DigestSession session = DigestSession.fromChallenge(header, password);
+        digestSession = session;
+        return session;
+    }
+
+    private HttpRequest buildRequest(String body, Duration timeout) {
+        return HttpRequest.newBuilder()
+                .uri(uri)
+                .timeout(timeout)
+                .header(CONTENT_TYPE, APPLICATION_JSON)
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .build();
+    }
+
+    HttpRequest buildDigestAuthorizedRequest(String body, DigestSession session, Duration timeout) {
+        String authHeader = session.nextAuthorizationHeader();
         LOGGER.debug("Generated auth header: " + authHeader);
         return HttpRequest.newBuilder()
-                .uri(URI.create(MessageFormatter.format(SHELLY_RPC_URI, ip).getMessage()))
+                .uri(uri)
+                .timeout(timeout)
                 .header(CONTENT_TYPE, APPLICATION_JSON)
                 .header(AUTHORIZATION, authHeader)
-                .POST(HttpRequest.BodyPublishers.ofString(RPC_STATUS_BODY.encode()))
+                .POST(HttpRequest.BodyPublishers.ofString(body))
                 .build();
     }
 
-    private String encodeSha256Hex(String input) {
+    private static String encodeSha256Hex(String input) {
         try {
             MessageDigest digest = MessageDigest.getInstance(SHA_256);
-            byte[] hash = digest.digest(input.getBytes());
+            byte[] hash = digest.digest(input.getBytes(StandardCharsets.UTF_8));
             return HexFormat.of().formatHex(hash);
         } catch (NoSuchAlgorithmException e) {
             throw new IllegalStateException(e);
         }
     }
 
-    private Map<String, String> parseDigestAuthHeader(String header) {
+    static Map<String, String> parseDigestAuthHeader(String header) {
         Map<String, String> result = new HashMap<>();
-        String cleanedHeader = header.replaceFirst(AUTH_HEADER_DIGEST_PREFIX, "");
+        String cleanedHeader = header.substring(AUTH_HEADER_DIGEST_PREFIX.length());
 
         // Extract all key-value pairs
-        Pattern pattern = Pattern.compile("(\\w+)=(?:\"([^\"]*)\"|([^,\\s]*))");
-        Matcher matcher = pattern.matcher(cleanedHeader);
+        Matcher matcher = AUTH_HEADER_PARAMETER_PATTERN.matcher(cleanedHeader);
 
         while (matcher.find()) {
             String key = matcher.group(1);
@@ -186,11 +250,46 @@ public class RpcReader implements IReader {
     }
 
     private static String generateCnonce() {
-        SecureRandom secureRandom = new SecureRandom();
         byte[] randomBytes = new byte[16];
-        secureRandom.nextBytes(randomBytes);
-        return Base64.getEncoder().encodeToString(randomBytes)
-                .replaceAll("[^a-zA-Z0-9]", "");
+        SECURE_RANDOM.nextBytes(randomBytes);
+        return HexFormat.of().formatHex(randomBytes);
+    }
+
+    /**
+     * Digest challenge of a device (realm, nonce, qop) together with the cached HA1. <br>
+     * Every authorization header created from a session uses the next nonce count.
+     */
+    static final class DigestSession {
+        private final String realm;
+        private final String nonce;
+        private final String qop;
+        private final String ha1;
+        private final AtomicInteger nonceCount = new AtomicInteger();
+
+        private DigestSession(String realm, String nonce, String qop, String ha1) {
+            this.realm = realm;
+            this.nonce = nonce;
+            this.qop = qop;
+            this.ha1 = ha1;
+        }
+
+        static DigestSession fromChallenge(String wwwAuthenticateHeader, String password) {
+            if (!wwwAuthenticateHeader.startsWith(AUTH_HEADER_DIGEST_PREFIX)) {
+                throw new IllegalArgumentException("Unknown authentication method: " + wwwAuthenticateHeader);
+            }
+            Map<String, String> authHeaderMap = parseDigestAuthHeader(wwwAuthenticateHeader);
+            String realm = authHeaderMap.get(AUTH_HEADER_REALM_NAME);
+            String ha1 = encodeSha256Hex(String.join(":", SHELLY_USER, realm, password));
+            return new DigestSession(realm, authHeaderMap.get(AUTH_HEADER_NONCE_NAME), authHeaderMap.get(AUTH_HEADER_QOP_NAME), ha1);
+        }
+
+        String nextAuthorizationHeader() {
+            String nc = String.format(AUTH_NONCE_COUNT_FORMAT, nonceCount.incrementAndGet());
+            String clientNonce = generateCnonce();
+            String response = encodeSha256Hex(String.join(":",
+                    ha1, nonce, nc, clientNonce, "auth", HA2));
+            return String.format(AUTH_HEADER_FORMAT_STRING, realm, nonce, response, qop, nc, clientNonce);
+        }
     }
 
 }
@@ -0,0 +1,88 @@
+package edu.hm.greenit.tools.shelly;
+
+import io.vertx.core.json.JsonObject;
+
+import java.util.regex.Pattern;
+
+/**
+ * RPC method the {@link RpcReader} uses to read the status of a Gen 2+ device. <br>
+ * <code>Shelly.GetStatus</code> returns the status of every component of the device (WiFi, cloud, MQTT, sys, ...),
+ * the component methods only return the status of the metering component and are much smaller.
+ * For the component methods the device time is not part of the response, the local time is used instead.
+ * For API documentation see: <a href="https://shelly-api-docs.shelly.cloud/gen2/ComponentsAndServices/Switch">Switch</a>,
+ * <a href="https://shelly-api-docs.shelly.cloud/gen2/ComponentsAndServices/PM1">PM1</a>
+ */
+public enum RpcStatusMethod {
+    /**
+     * Detect the method once from <code>Shelly.GetDeviceInfo</code>.
+     */
+    AUTO(null),
+    STATUS("Shelly.GetStatus"),
+    SWITCH("Switch.GetStatus"),
+    PM1("PM1.GetStatus");
+
+    static final String DEVICE_INFO_METHOD = "Shelly.GetDeviceInfo";
+    // power meters without a switch, Plus1PMMini is a switch
+    private static final Pattern PM1_APP_PATTERN = Pattern.compile("PlusPMMini|MiniPMG3");
+    // energy meters and devices with several switches, e.g. Pro3EM, Pro4PM, Plus2PM, Pro3
+    private static final Pattern STATUS_APP_PATTERN = Pattern.compile(".*(EM|2PM|4PM|Pro2|Pro3).*");
+    // devices with a single metered switch, e.g. Plus1PM, Plus1PMMini, Mini1PMG3, PlusPlugS, PlugSG3
+    private static final Pattern SWITCH_APP_PATTERN = Pattern.compile(".*(1PM|Plug).*");
+    private static final int COMPONENT_ID = 0;
+
+    private final String method;
+    private final String requestBody;
+
+    RpcStatusMethod(String method) {
+        this.method = method;
+        this.requestBody = method == null ? null : requestBody(method, method.startsWith("Shelly."));
+    }
+
+    static String requestBody(String method, boolean deviceMethod) {
+        JsonObject body = new JsonObject()
+                .put("id", 1)
+                .put("method", method);
+        if (!deviceMethod) {
+            body.put("params", new JsonObject().put("id", COMPONENT_ID));
+        }
+        return body.encode();
+    }
+
+    /**
+     * Picks the method for a device from the <code>app</code> field of its <code>Shelly.GetDeviceInfo</code> response. <br>
+     * Component methods read a single channel, so devices with several channels keep using <code>Shelly.GetStatus</code>,
+     * as do energy meters (EM), which report power and energy in separate components, and every unknown device.
+     */
+    static RpcStatusMethod forApp(String app) {
+        if (app == null || STATUS_APP_PATTERN.matcher(app).matches()) {
+            return STATUS;
+        }
+        if (PM1_APP_PATTERN.matcher(app).matches()) {
+            return PM1;
+        }
+        if (SWITCH_APP_PATTERN.matcher(app).matches()) {
+            return SWITCH;
+        }
+        return STATUS;
+    }
+
+    String getMethod() {
+        return method;
+    }
+
+    String getRequestBody() {
+        return requestBody;
+    }
+
+    /**
+     * @return the channel of component 0 of a component method, matching the channels of <code>Shelly.GetStatus</code>
+     */
+    int getFirstChannel() {
+        return this == PM1 ? StatusParser.PM1_FIRST_CHANNEL : StatusParser.SWITCH_FIRST_CHANNEL;
+    }
+
+    boolean isComponentMethod() {
+        return this == SWITCH || this == PM1;
+    }
+
+}
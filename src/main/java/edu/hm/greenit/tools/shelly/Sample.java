@@ -0,0 +1,10 @@
+package edu.hm.greenit.tools.shelly;
+
+/**
+ * One {@link Meter} reading of a device on its way to the output.
+ *
+ * @param ip    the ip of the device
+ * @param meter the values of one channel of the device
+ */
+public record Sample(String ip, Meter meter) {
+}
@@ -0,0 +1,101 @@
+package edu.hm.greenit.tools.shelly;
+
+import io.quarkus.runtime.annotations.RegisterForReflection;
+import jakarta.inject.Inject;
+import jakarta.ws.rs.DefaultValue;
+import jakarta.ws.rs.GET;
+import jakarta.ws.rs.NotFoundException;
+import jakarta.ws.rs.Path;
+import jakarta.ws.rs.PathParam;
+import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.QueryParam;
+import jakarta.ws.rs.core.MediaType;
+
+import java.util.List;
+
+/**
+ * REST access to the recent samples kept in the {@link SampleStore}. <br>
+ * Times are receive times in microseconds since the epoch, like the <code>received</code> column of the CSV output.
+ */
+@Path("/series")
+@Produces(MediaType.APPLICATION_JSON)
+public class SampleResource {
+
+    @Inject
+    SampleStore store;
+
+    /**
+     * @return all device channels with samples
+     */
+    @GET
+    public List<SampleStore.SeriesKey> series() {
+        return store.getSeries();
+    }
+
+    /**
+     * @return the latest sample of a device channel
+     */
+    @GET
+    @Path("/{ip}/latest")
+    public LatestSample latest(@PathParam("ip") String ip, @QueryParam("channel") @DefaultValue("0") int channel) {
+        SeriesBuffer.Slice latest = buffer(ip, channel).latest();
+        if (latest == null) {
+            throw new NotFoundException("No samples for " + ip + " channel " + channel);
+        }
+        return new LatestSample(ip, channel, latest.times()[0], latest.powers()[0], latest.energies()[0]);
+    }
+
+    /**
+     * @param from first receive time in microseconds since the epoch, inclusive, default: oldest sample
+     * @param to   last receive time in microseconds since the epoch, inclusive, default: latest sample
+     * @return all samples of a device channel received in the range and the energy used in between
+     */
+    @GET
+    @Path("/{ip}")
+    public SeriesSlice slice(@PathParam("ip") String ip, @QueryParam("channel") @DefaultValue("0") int channel,
+                             @QueryParam("from") @DefaultValue("0") long from,
+                             @QueryParam("to") @DefaultValue("" + Long.MAX_VALUE) long to) {
+        SeriesBuffer.Slice slice = buffer(ip, channel).slice(from, to);
+        return new SeriesSlice(ip, channel, energyUsed(slice), slice.times(), slice.powers(), slice.energies());
+    }
+
+    /**
+     * @return the energy in Wh from the counter differences of the samples, see {@link EnergyIntegrator}
+     */
+    private static double energyUsed(SeriesBuffer.Slice slice) {
+        EnergyIntegrator integrator = new EnergyIntegrator();
+        for (int i = 0; i < slice.times().length; i++) {
+            integrator.add(slice.times()[i], slice.powers()[i], slice.energies()[i]);
+        }
+        return integrator.getCounterEnergy();
+    }
+
+    private SeriesBuffer buffer(String ip, int channel) {
+        SeriesBuffer buffer = store.get(ip, channel);
+        if (buffer == null) {
+            throw new NotFoundException("No samples for " + ip + " channel " + channel);
+        }
+        return buffer;
+    }
+
+    /**
+     * @param time   receive time in microseconds since the epoch
+     * @param power  power in W
+     * @param energy energy counter of the device in Wh
+     */
+    @RegisterForReflection
+    public record LatestSample(String ip, int channel, long time, double power, double energy) {
+    }
+
+    /**
+     * @param energyUsed energy counted by the device between the first and the last sample in Wh,
+     *                   after a counter reset (e.g. by a reboot of the device) its new value is counted
+     * @param times      receive times in microseconds since the epoch
+     * @param powers     power in W
+     * @param energies   energy counter of the device in Wh
+     */
+    @RegisterForReflection
+    public record SeriesSlice(String ip, int channel, double energyUsed, long[] times, double[] powers, double[] energies) {
+    }
+
+}
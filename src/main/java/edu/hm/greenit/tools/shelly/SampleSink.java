@@ -0,0 +1,30 @@
+package edu.hm.greenit.tools.shelly;
+
+import java.io.IOException;
+
+/**
+ * Destination for the samples of all devices, e.g. CSV on stdout or binary files. <br>
+ * All methods of a sink are called by the single writer thread of the {@link SampleWriter},
+ * so sinks need no synchronization and can reuse their buffers.
+ */
+public interface SampleSink extends AutoCloseable {
+
+    /**
+     * Called once before the first sample, e.g. to write a header.
+     */
+    default void open() throws IOException {
+    }
+
+    void write(Sample sample) throws IOException;
+
+    /**
+     * Writes buffered samples to the underlying channel or file.
+     */
+    void flush() throws IOException;
+
+    /**
+     * Flushes and releases the underlying channel or file.
+     */
+    @Override
+    void close() throws IOException;
+}
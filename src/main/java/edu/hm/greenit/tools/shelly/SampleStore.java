@@ -0,0 +1,87 @@
+package edu.hm.greenit.tools.shelly;
+
+import jakarta.enterprise.context.ApplicationScoped;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+
+/**
+ * Keeps the recent samples of every device channel in memory for the {@link SampleResource}. <br>
+ * Every channel has its own {@link SeriesBuffer} of {@link #setCapacity(int) capacity} samples,
+ * so the memory used only depends on the number of channels, not on how long the reader runs.
+ * Used as a {@link SampleSink} of the {@link SampleWriter}, so only the writer thread adds samples.
+ */
+@ApplicationScoped
+public class SampleStore implements SampleSink {
+
+    private static final int DEFAULT_CAPACITY = 3600;
+
+    private final Map<SeriesKey, SeriesBuffer> series = new ConcurrentHashMap<>();
+    private volatile int capacity = DEFAULT_CAPACITY;
+    private volatile BiConsumer<SeriesKey, SeriesBuffer> seriesListener = (key, buffer) -> {
+    };
+
+    /**
+     * @param seriesListener called once for every new channel, e.g. to register metrics
+     */
+    public void setSeriesListener(BiConsumer<SeriesKey, SeriesBuffer> seriesListener) {
+        this.seriesListener = seriesListener;
+    }
+
+    /**
+     * @param capacity number of samples kept per channel, applies to channels seen for the first time
+     */
+    public void setCapacity(int capacity) {
+        this.capacity = capacity;
+    }
+
+    @Override
+    public void write(Sample sample) {
+        Meter meter = sample.meter();
+        series.computeIfAbsent(new SeriesKey(sample.ip(), meter.getChannel()), this::createBuffer)
+                .add(meter.getReceivedAt(), meter.getPower(), meter.getTotal());
+    }
+
+    @Override
+    public void flush() {
+        // samples are visible as soon as they are written
+    }
+
+    @Override
+    public void close() {
+        // the samples stay available until the application stops
+    }
+
+    private SeriesBuffer createBuffer(SeriesKey key) {
+        SeriesBuffer buffer = new SeriesBuffer(capacity);
+        seriesListener.accept(key, buffer);
+        return buffer;
+    }
+
+    /**
+     * @return all channels with samples, ordered by ip and channel
+     */
+    public List<SeriesKey> getSeries() {
+        List<SeriesKey> keys = new ArrayList<>(series.keySet());
+        keys.sort(Comparator.comparing(SeriesKey::ip).thenComparingInt(SeriesKey::channel));
+        return keys;
+    }
+
+    /**
+     * @return the samples of a channel or <code>null</code> if the channel has no samples
+     */
+    SeriesBuffer get(String ip, int channel) {
+        return series.get(new SeriesKey(ip, channel));
+    }
+
+    /**
+     * One channel of a device.
+     */
+    public record SeriesKey(String ip, int channel) {
+    }
+
+}
@@ -0,0 +1,181 @@
+package edu.hm.greenit.tools.shelly;
+
+import org.jboss.logging.Logger;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Output stage for the samples of all devices. <br>
+ * Samples are put into a bounded queue, a single writer thread passes them to every {@link SampleSink},
+ * the sinks buffer them and are flushed once their buffer is full or the flush interval has passed.
+ * Producers never block: if the queue is full the sample is dropped and counted.
+ * As only the writer thread writes, rows of concurrently read devices never interleave.
+ * A failing sink is logged and does not stop the other sinks.
+ */
+public class SampleWriter implements AutoCloseable {
+
+    private static final Logger LOGGER = Logger.getLogger(SampleWriter.class);
+    private static final int DRAIN_BATCH_SIZE = 1024;
+
+    private final BlockingQueue<Sample> queue;
+    private final List<SampleSink> sinks;
+    private final long flushIntervalNanos;
+    private final AtomicLong droppedSamples = new AtomicLong();
+    private final AtomicLong queuedSamples = new AtomicLong();
+    private final AtomicLong writtenSamples = new AtomicLong();
+    private final Object progress = new Object();
+    private final Thread writerThread;
+    private volatile boolean running = true;
+
+    /**
+     * @param sinks         the sinks every sample is written to, e.g. CSV on stdout
+     * @param queueCapacity maximum number of samples waiting for the writer
+     * @param flushInterval maximum time a sample stays in the buffer of a sink
+     */
+    public SampleWriter(List<SampleSink> sinks, int queueCapacity, Duration flushInterval) {
+        this.sinks = List.copyOf(sinks);
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.flushIntervalNanos = flushInterval.toNanos();
+        this.writerThread = Thread.ofPlatform().name("shelly-sample-writer").daemon().unstarted(this::writeLoop);
+    }
+
+    /**
+     * Opens the sinks, e.g. writes the CSV header, and starts the writer thread.
+     *
+     * @throws IOException if a sink cannot be opened
+     */
+    public void start() throws IOException {
+        for (SampleSink sink : sinks) {
+            sink.open();
+        }
+        writerThread.start();
+    }
+
+    /**
+     * Queues a sample for the output.
+     *
+     * @return <code>false</code> if the queue is full and the sample was dropped
+     */
+    public boolean write(String ip, Meter meter) {
+        if (queue.offer(new Sample(ip, meter))) {
+            queuedSamples.incrementAndGet();
+            return true;
+        }
+        long dropped = droppedSamples.incrementAndGet();
+        if (dropped == 1 || dropped % DRAIN_BATCH_SIZE == 0) {
+            LOGGER.warnf("Output queue full, %d samples dropped so far", dropped);
+        }
+        return false;
+    }
+
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    public long getDroppedSamples() {
+        return droppedSamples.get();
+    }
+
+    /**
+     * @return number of samples passed to the sinks so far
+     */
+    public long getWrittenSamples() {
+        return writtenSamples.get();
+    }
+
+    /**
+     * Waits until every sample queued before the call was passed to the sinks.
+     *
+     * @return <code>false</code> if the samples were not written within the timeout or the writer stopped
+     */
+    public boolean awaitWritten(Duration timeout) throws InterruptedException {
+        long target = queuedSamples.get();
+        long deadline = System.nanoTime() + timeout.toNanos();
+        synchronized (progress) {
+            while (writtenSamples.get() < target) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0 || !writerThread.isAlive()) {
+                    return false;
+                }
+                TimeUnit.NANOSECONDS.timedWait(progress, remaining);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Stops the writer thread after all queued samples are written and the sinks are closed.
+     */
+    @Override
+    public void close() throws InterruptedException {
+        running = false;
+        writerThread.join();
+    }
+
+    private void writeLoop() {
+        List<Sample> batch = new ArrayList<>(DRAIN_BATCH_SIZE);
+        long nextFlush = System.nanoTime() + flushIntervalNanos;
+        try {
+            while (running || !queue.isEmpty()) {
+                if (queue.drainTo(batch, DRAIN_BATCH_SIZE) == 0) {
+                    Sample sample = queue.poll(Math.max(0, nextFlush - System.nanoTime()), TimeUnit.NANOSECONDS);
+                    if (sample != null) {
+                        batch.add(sample);
+                    }
+                }
+                for (SampleSink sink : sinks) {
+                    writeBatch(sink, batch);
+                }
+                if (!batch.isEmpty()) {
+                    synchronized (progress) {
+                        writtenSamples.addAndGet(batch.size());
+                        progress.notifyAll();
+                    }
+                    batch.clear();
+                }
+                if (System.nanoTime() - nextFlush >= 0) {
+                    for (SampleSink sink : sinks) {
+                        flush(sink);
+                    }
+                    nextFlush = System.nanoTime() + flushIntervalNanos;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (SampleSink sink : sinks) {
+            try {
+                sink.close();
+            } catch (IOException | RuntimeException e) {
+                LOGGER.error("Closing sample sink failed", e);
+            }
+        }
+    }
+
+    private static void writeBatch(SampleSink sink, List<Sample> batch) {
+        try {
+            for (Sample sample : batch) {
+                sink.write(sample);
+            }
+        } catch (IOException | RuntimeException e) {
+            // a failing sink must not stop the writer thread and with it the other sinks
+            LOGGER.error("Writing samples failed", e);
+        }
+    }
+
+    private static void flush(SampleSink sink) {
+        try {
+            sink.flush();
+        } catch (IOException | RuntimeException e) {
+            LOGGER.error("Writing samples failed", e);
+        }
+    }
+
+}
@@ -0,0 +1,222 @@
+package edu.hm.greenit.tools.shelly;
+
+import org.jboss.logging.Logger;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Function;
+
+/**
+ * Starts the reads of all devices once per interval from a single scheduler thread. <br>
+ * Ticks are aligned to multiples of the interval on the wall clock (e.g. every full second) and computed from the start time,
+ * so delays of one tick do not accumulate. Within a tick the devices are spread over slots of at least one millisecond,
+ * so a large fleet is not requested all at once. <br>
+ * A device misses a tick if its read could not be started, e.g. because the previous read is still running,
+ * or if the scheduler itself fell behind by more than an interval. A tick is late if the read started more than
+ * a tenth of the interval after its slot. Both are counted per device, see {@link ShellyDevice#getMissedTicks()}.
+ * A device that is not due, e.g. in backoff after a failure, is neither missed nor late. <br>
+ * The devices can be replaced while running, e.g. when new devices are discovered, the new slots apply from the next tick on.
+ */
+public class SamplingScheduler implements AutoCloseable {
+
+    private static final Logger LOGGER = Logger.getLogger(SamplingScheduler.class);
+    private static final long MIN_SLOT_NANOS = Duration.ofMillis(1).toNanos();
+    private static final int LATE_FRACTION = 10;
+
+    private final Function<ShellyDevice, ReadStart> read;
+    private final long intervalNanos;
+    private final long lateNanos;
+    private final AtomicLong ticks = new AtomicLong();
+    private final AtomicLong missedTicks = new AtomicLong();
+    private final AtomicLong lateTicks = new AtomicLong();
+    private final AtomicLong startedReads = new AtomicLong();
+    private final AtomicLong totalLagNanos = new AtomicLong();
+    private final AtomicLong maxLagNanos = new AtomicLong();
+    private final Thread schedulerThread;
+    private volatile Slots slots;
+    private volatile boolean running = true;
+
+    /**
+     * @param devices  the devices to read
+     * @param interval time between two reads of a device
+     * @param read     starts the read of a device and tells whether a request was sent
+     */
+    public SamplingScheduler(List<ShellyDevice> devices, Duration interval, Function<ShellyDevice, ReadStart> read) {
+        this.read = read;
+        this.intervalNanos = interval.toNanos();
+        this.lateNanos = intervalNanos / LATE_FRACTION;
+        this.slots = spread(devices);
+        this.schedulerThread = Thread.ofPlatform().name("shelly-sampler").daemon().unstarted(this::scheduleLoop);
+    }
+
+    public void start() {
+        schedulerThread.start();
+    }
+
+    /**
+     * Replaces the devices to read, effective from the next tick on.
+     */
+    public void setDevices(List<ShellyDevice> devices) {
+        slots = spread(devices);
+    }
+
+    /**
+     * @return number of ticks started so far
+     */
+    public long getTicks() {
+        return ticks.get();
+    }
+
+    /**
+     * @return number of missed reads over all devices
+     */
+    public long getMissedTicks() {
+        return missedTicks.get();
+    }
+
+    /**
+     * @return number of late reads over all devices
+     */
+    public long getLateTicks() {
+        return lateTicks.get();
+    }
+
+    /**
+     * @return mean time the reads were started after their slot
+     */
+    public Duration getMeanLag() {
+        long reads = startedReads.get();
+        return Duration.ofNanos(reads == 0 ? 0 : totalLagNanos.get() / reads);
+    }
+
+    /**
+     * @return longest time a read was started after its slot
+     */
+    public Duration getMaxLag() {
+        return Duration.ofNanos(maxLagNanos.get());
+    }
+
+    /**
+     * Stops scheduling, reads already started keep running.
+     */
+    @Override
+    public void close() throws InterruptedException {
+        running = false;
+        schedulerThread.interrupt();
+        schedulerThread.join();
+    }
+
+    private void scheduleLoop() {
+        long intervalMillis = Math.max(1, intervalNanos / 1_000_000);
+        long nowMillis = System.currentTimeMillis();
+        long firstTickMillis = (nowMillis / intervalMillis + 1) * intervalMillis;
+        long start = System.nanoTime() + (firstTickMillis - nowMillis) * 1_000_000;
+        long tick = 0;
+        while (running) {
+            long tickStart = start + tick * intervalNanos;
+            Slots current = slots;
+            for (int slot = 0; slot < current.devices().size() && running; slot++) {
+                long lateness = parkUntil(tickStart + slot * current.slotNanos());
+                for (ShellyDevice device : current.devices().get(slot)) {
+                    startRead(device, lateness);
+                }
+            }
+            ticks.incrementAndGet();
+            tick++;
+            long behind = System.nanoTime() - (start + tick * intervalNanos);
+            if (behind >= intervalNanos) {
+                long skipped = behind / intervalNanos;
+                recordSkippedTicks(skipped);
+                tick += skipped;
+            }
+        }
+    }
+
+    private void startRead(ShellyDevice device, long lateness) {
+        ReadStart result = read.apply(device);
+        if (result == ReadStart.MISSED) {
+            device.recordMissedTicks(1);
+            long missed = missedTicks.incrementAndGet();
+            if (missed == 1 || missed % 1000 == 0) {
+                LOGGER.warnf("%d reads missed their tick so far, last %s", missed, device.getIp());
+            }
+        } else if (result == ReadStart.STARTED) {
+            recordLag(lateness);
+            if (lateness > lateNanos) {
+                device.recordLateTick();
+                lateTicks.incrementAndGet();
+            }
+        }
+    }
+
+    private void recordLag(long lateness) {
+        long lag = Math.max(0, lateness);
+        startedReads.incrementAndGet();
+        totalLagNanos.addAndGet(lag);
+        if (lag > maxLagNanos.get()) {
+            // only the scheduler thread writes
+            maxLagNanos.set(lag);
+        }
+    }
+
+    private void recordSkippedTicks(long skipped) {
+        LOGGER.warnf("Scheduler fell behind, skipping %d ticks", skipped);
+        for (List<ShellyDevice> slot : slots.devices()) {
+            for (ShellyDevice device : slot) {
+                device.recordMissedTicks(skipped);
+                missedTicks.addAndGet(skipped);
+            }
+        }
+    }
+
+    private Slots spread(List<ShellyDevice> devices) {
+        int slotCount = (int) Math.max(1, Math.min(devices.size(), intervalNanos / MIN_SLOT_NANOS));
+        List<List<ShellyDevice>> spread = new ArrayList<>(slotCount);
+        for (int i = 0; i < slotCount; i++) {
+            spread.add(new ArrayList<>());
+        }
+        for (int i = 0; i < devices.size(); i++) {
+            spread.get(i % slotCount).add(devices.get(i));
+        }
+        return new Slots(spread, intervalNanos / slotCount);
+    }
+
+    /**
+     * @return nanoseconds the deadline has passed when returning
+     */
+    private long parkUntil(long deadline) {
+        long remaining;
+        while ((remaining = deadline - System.nanoTime()) > 0 && running) {
+            LockSupport.parkNanos(remaining);
+        }
+        return -remaining;
+    }
+
+    /**
+     * Outcome of starting the read of a device in its slot.
+     */
+    public enum ReadStart {
+        /**
+         * A request was sent.
+         */
+        STARTED,
+        /**
+         * The device is not due, e.g. in backoff after a failure, no request was sent.
+         */
+        NOT_DUE,
+        /**
+         * The read could not be started, e.g. because the previous read is still running.
+         */
+        MISSED
+    }
+
+    /**
+     * The devices of each slot of a tick and the time between two slots, never modified once published.
+     */
+    private record Slots(List<List<ShellyDevice>> devices, long slotNanos) {
+    }
+
+}
@@ -0,0 +1,189 @@
+package edu.hm.greenit.tools.shelly;
+
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * Incremental aggregation of the samples of one device channel in a single pass. <br>
+ * The energy between two samples is taken from an {@link EnergyIntegrator}. <br>
+ * Windows of <code>window</code> length end at every multiple of <code>step</code> on the wall clock: tumbling windows if both
+ * are equal, sliding windows if the step is shorter. A window is emitted once the first sample after its end arrives,
+ * the energy between two samples belongs to the window of the later sample.
+ * Samples are kept in primitive arrays only as long as they belong to a window not emitted yet.
+ */
+final class SeriesAggregator {
+
+    private static final double PERCENTILE = 0.95;
+
+    private final String ip;
+    private final int channel;
+    private final long window;
+    private final long step;
+    // samples of the windows not emitted yet, oldest at head
+    private long[] times = new long[64];
+    private double[] powers = new double[64];
+    private double[] energies = new double[64];
+    private double[] counterEnergies = new double[64];
+    private boolean[] counterResets = new boolean[64];
+    private int head;
+    private int size;
+    private double[] sortBuffer = new double[64];
+    private final EnergyIntegrator integrator = new EnergyIntegrator();
+    private boolean started;
+    private long nextEnd;
+
+    /**
+     * @param window length of a window in microseconds
+     * @param step   time between the ends of two windows in microseconds, at most the window length
+     */
+    SeriesAggregator(String ip, int channel, long window, long step) {
+        if (step <= 0 || step > window) {
+            throw new IllegalArgumentException("Step must be positive and not longer than the window");
+        }
+        this.ip = ip;
+        this.channel = channel;
+        this.window = window;
+        this.step = step;
+    }
+
+    /**
+     * Adds a sample, samples not newer than the previous one are ignored.
+     *
+     * @param time   receive time in microseconds since the epoch
+     * @param power  power in W
+     * @param total  energy counter of the device in Wh
+     * @param output receives the windows completed by this sample
+     */
+    void add(long time, double power, double total, Consumer<Aggregate> output) {
+        if (!integrator.add(time, power, total)) {
+            return;
+        }
+        if (!started) {
+            started = true;
+            nextEnd = Math.floorDiv(time, step) * step + step;
+        }
+        while (time >= nextEnd) {
+            emit(nextEnd, output);
+            nextEnd += step;
+            evict(nextEnd - window);
+            if (size == 0) {
+                nextEnd = Math.max(nextEnd, Math.floorDiv(time, step) * step + step);
+            }
+        }
+        append(time, power, integrator.getSegmentEnergy(), integrator.getSegmentCounterEnergy(), integrator.isSegmentCounterReset());
+    }
+
+    /**
+     * Emits all windows with samples not emitted yet, e.g. when the output is closed.
+     */
+    void flush(Consumer<Aggregate> output) {
+        while (size > 0) {
+            emit(nextEnd, output);
+            nextEnd += step;
+            evict(nextEnd - window);
+        }
+    }
+
+    /**
+     * @return energy integrated from the power since the first sample in Wh
+     */
+    double getTotalEnergy() {
+        return integrator.getEnergy();
+    }
+
+    /**
+     * @return energy from the counter differences since the first sample in Wh
+     */
+    double getTotalCounterEnergy() {
+        return integrator.getCounterEnergy();
+    }
+
+    long getTotalCounterResets() {
+        return integrator.getCounterResets();
+    }
+
+    private void emit(long end, Consumer<Aggregate> output) {
+        long start = end - window;
+        int count = 0;
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        double sum = 0;
+        double energy = 0;
+        double counterEnergy = 0;
+        int resets = 0;
+        for (int i = 0; i < size; i++) {
+            int index = (head + i) % times.length;
+            if (times[index] < start || times[index] >= end) {
+                continue;
+            }
+            double power = powers[index];
+            sortBuffer[count++] = power;
+            min = Math.min(min, power);
+            max = Math.max(max, power);
+            sum += power;
+            energy += energies[index];
+            counterEnergy += counterEnergies[index];
+            if (counterResets[index]) {
+                resets++;
+            }
+        }
+        if (count == 0) {
+            return;
+        }
+        Arrays.sort(sortBuffer, 0, count);
+        double p95 = sortBuffer[(int) Math.ceil(PERCENTILE * count) - 1];
+        output.accept(new Aggregate(ip, channel, start, end, count, min, max, sum / count, p95, energy, counterEnergy, resets));
+    }
+
+    private void evict(long before) {
+        while (size > 0 && times[head] < before) {
+            head = (head + 1) % times.length;
+            size--;
+        }
+    }
+
+    private void append(long time, double power, double energy, double counterEnergy, boolean counterReset) {
+        if (size == times.length) {
+            grow();
+        }
+        int index = (head + size) % times.length;
+        times[index] = time;
+        powers[index] = power;
+        energies[index] = energy;
+        counterEnergies[index] = counterEnergy;
+        counterResets[index] = counterReset;
+        size++;
+    }
+
+    private void grow() {
+        int capacity = times.length * 2;
+        times = unwrap(times, capacity);
+        powers = unwrap(powers, capacity);
+        energies = unwrap(energies, capacity);
+        counterEnergies = unwrap(counterEnergies, capacity);
+        boolean[] resets = new boolean[capacity];
+        for (int i = 0; i < size; i++) {
+            resets[i] = counterResets[(head + i) % counterResets.length];
+        }
+        counterResets = resets;
+        sortBuffer = new double[capacity];
+        head = 0;
+    }
+
+    private long[] unwrap(long[] values, int capacity) {
+        long[] result = new long[capacity];
+        for (int i = 0; i < size; i++) {
+            result[i] = values[(head + i) % values.length];
+        }
+        return result;
+    }
+
+    private double[] unwrap(double[] values, int capacity) {
+        double[] result = new double[capacity];
+        for (int i = 0; i < size; i++) {
+            result[i] = values[(head + i) % values.length];
+        }
+        return result;
+    }
+
+}
@@ -0,0 +1,103 @@
+package edu.hm.greenit.tools.shelly;
+
+/**
+ * The most recent samples of one device channel in a fixed-size ring of primitive arrays. <br>
+ * Once the buffer is full every sample overwrites the oldest one, so the memory used is fixed at construction.
+ * Written by the single writer thread of the {@link SampleWriter}, read concurrently by the REST resources.
+ */
+final class SeriesBuffer {
+
+    private final long[] times;
+    private final double[] powers;
+    private final double[] energies;
+    private int next;
+    private int size;
+
+    /**
+     * @param capacity number of samples kept
+     */
+    SeriesBuffer(int capacity) {
+        this.times = new long[capacity];
+        this.powers = new double[capacity];
+        this.energies = new double[capacity];
+    }
+
+    /**
+     * @param time   receive time in microseconds since the epoch
+     * @param power  power in W
+     * @param energy energy counter of the device in Wh
+     */
+    synchronized void add(long time, double power, double energy) {
+        times[next] = time;
+        powers[next] = power;
+        energies[next] = energy;
+        next = (next + 1) % times.length;
+        if (size < times.length) {
+            size++;
+        }
+    }
+
+    synchronized int size() {
+        return size;
+    }
+
+    /**
+     * @return the latest power in W or <code>NaN</code> if the buffer is empty
+     */
+    synchronized double latestPower() {
+        return size == 0 ? Double.NaN : powers[(next - 1 + times.length) % times.length];
+    }
+
+    /**
+     * @return the latest energy counter in Wh or <code>NaN</code> if the buffer is empty
+     */
+    synchronized double latestEnergy() {
+        return size == 0 ? Double.NaN : energies[(next - 1 + times.length) % times.length];
+    }
+
+    /**
+     * @return the latest sample or <code>null</code> if the buffer is empty
+     */
+    synchronized Slice latest() {
+        if (size == 0) {
+            return null;
+        }
+        int last = (next - 1 + times.length) % times.length;
+        return new Slice(new long[]{times[last]}, new double[]{powers[last]}, new double[]{energies[last]});
+    }
+
+    /**
+     * @param from first receive time in microseconds since the epoch, inclusive
+     * @param to   last receive time in microseconds since the epoch, inclusive
+     * @return all samples received in the range, oldest first
+     */
+    synchronized Slice slice(long from, long to) {
+        int first = next - size + times.length;
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            long time = times[(first + i) % times.length];
+            if (time >= from && time <= to) {
+                count++;
+            }
+        }
+        Slice slice = new Slice(new long[count], new double[count], new double[count]);
+        int j = 0;
+        for (int i = 0; i < size && j < count; i++) {
+            int index = (first + i) % times.length;
+            if (times[index] >= from && times[index] <= to) {
+                slice.times()[j] = times[index];
+                slice.powers()[j] = powers[index];
+                slice.energies()[j] = energies[index];
+                j++;
+            }
+        }
+        return slice;
+    }
+
+    /**
+     * Copy of a range of samples as parallel arrays.
+     */
+    record Slice(long[] times, double[] powers, double[] energies) {
+    }
+
+}
@@ -0,0 +1,238 @@
+package edu.hm.greenit.tools.shelly;
+
+import io.quarkus.runtime.annotations.RegisterForReflection;
+import jakarta.enterprise.context.ApplicationScoped;
+import org.jboss.logging.Logger;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+/**
+ * Named measurement sessions over one or more devices, controlled by the {@link SessionResource}. <br>
+ * While a session is running, every sample of its devices is added to an {@link EnergyIntegrator} per device channel.
+ * The energy before the first sample of a session is interpolated from the last sample before the start,
+ * the energy after the last sample holds the last power until the stop, so the result covers exactly the session.
+ * Used as a {@link SampleSink} of the {@link SampleWriter}, so only the writer thread adds samples.
+ * Samples received before the stop of a session may still wait in the queue of the writer,
+ * so a stopped session keeps counting samples received up to its end and the stop waits for the writer to pass them.
+ */
+@ApplicationScoped
+public class SessionManager implements SampleSink {
+
+    private static final Logger LOGGER = Logger.getLogger(SessionManager.class);
+    private static final int MAX_SESSIONS = 1000;
+    private static final double MICROS_PER_SECOND = 1_000_000.0;
+    private static final double SECONDS_PER_HOUR = 3600.0;
+    private static final Duration DRAIN_TIMEOUT = Duration.ofSeconds(5);
+
+    private final Map<SampleStore.SeriesKey, LastSample> lastSamples = new HashMap<>();
+    private final Map<String, Session> sessions = new LinkedHashMap<>();
+    // replaced in tests
+    LongSupplier clock = MonotonicClock::currentTimeMicros;
+    private volatile SampleWriter writer;
+
+    @Override
+    public synchronized void write(Sample sample) {
+        Meter meter = sample.meter();
+        SampleStore.SeriesKey key = new SampleStore.SeriesKey(sample.ip(), meter.getChannel());
+        lastSamples.computeIfAbsent(key, k -> new LastSample()).set(meter);
+        for (Session session : sessions.values()) {
+            if (session.accepts(meter.getReceivedAt()) && session.includes(sample.ip())) {
+                session.integrator(key).add(meter.getReceivedAt(), meter.getPower(), meter.getTotal());
+            }
+        }
+    }
+
+    /**
+     * @param writer the writer this manager is a sink of, waited for when a session stops
+     */
+    public void setWriter(SampleWriter writer) {
+        this.writer = writer;
+    }
+
+    @Override
+    public void flush() {
+        // results are computed on request
+    }
+
+    @Override
+    public void close() {
+        // finished sessions stay available until the application stops
+    }
+
+    /**
+     * Starts a session, a finished session of the same name is replaced.
+     *
+     * @param ips the devices of the session, all devices if empty
+     * @throws IllegalStateException if a session of the same name is running
+     */
+    public synchronized SessionResult start(String name, List<String> ips) {
+        Session existing = sessions.get(name);
+        if (existing != null && existing.isRunning()) {
+            throw new IllegalStateException("Session " + name + " is already running");
+        }
+        sessions.remove(name);
+        Session session = new Session(name, List.copyOf(ips), clock.getAsLong());
+        for (Map.Entry<SampleStore.SeriesKey, LastSample> last : lastSamples.entrySet()) {
+            if (session.includes(last.getKey().ip())) {
+                LastSample sample = last.getValue();
+                session.integrator(last.getKey()).add(sample.time, sample.power, sample.total);
+            }
+        }
+        sessions.put(name, session);
+        evictFinishedSessions();
+        return session.result(session.start);
+    }
+
+    /**
+     * Stops a session once the samples received before the stop are written.
+     *
+     * @return the result of the finished session or <code>null</code> if there is no session of that name
+     * @throws IllegalStateException if the session is already finished
+     */
+    public SessionResult stop(String name) {
+        Session session;
+        synchronized (this) {
+            session = sessions.get(name);
+            if (session == null) {
+                return null;
+            }
+            if (!session.isRunning()) {
+                throw new IllegalStateException("Session " + name + " is already finished");
+            }
+            session.end = clock.getAsLong();
+            session.finished = true;
+        }
+        awaitWriter();
+        synchronized (this) {
+            return session.result(session.end);
+        }
+    }
+
+    private void awaitWriter() {
+        SampleWriter sampleWriter = writer;
+        if (sampleWriter == null) {
+            return;
+        }
+        try {
+            if (!sampleWriter.awaitWritten(DRAIN_TIMEOUT)) {
+                LOGGER.warn("Output queue not written in time, the session result may miss samples");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return the result of the session, up to now for a running session, or <code>null</code> if there is no session of that name
+     */
+    public synchronized SessionResult get(String name) {
+        Session session = sessions.get(name);
+        return session == null ? null : session.result(session.isRunning() ? clock.getAsLong() : session.end);
+    }
+
+    public synchronized List<SessionResult> getAll() {
+        long now = clock.getAsLong();
+        List<SessionResult> results = new ArrayList<>(sessions.size());
+        for (Session session : sessions.values()) {
+            results.add(session.result(session.isRunning() ? now : session.end));
+        }
+        return results;
+    }
+
+    private void evictFinishedSessions() {
+        Iterator<Session> iterator = sessions.values().iterator();
+        while (sessions.size() > MAX_SESSIONS && iterator.hasNext()) {
+            if (!iterator.next().isRunning()) {
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Result of a session.
+     *
+     * @param name          the name of the session
+     * @param ips           the devices of the session, all devices if empty
+     * @param start         start in microseconds since the epoch
+     * @param end           end in microseconds since the epoch, <code>null</code> while the session is running
+     * @param duration      duration in seconds, up to now while the session is running
+     * @param energy        energy of all channels of the devices in Wh, integrated from the power
+     * @param averagePower  average power in W
+     * @param counterEnergy energy in Wh from the energy counters of the devices, as a cross-check
+     * @param samples       number of samples received during the session
+     */
+    @RegisterForReflection
+    public record SessionResult(String name, List<String> ips, long start, Long end, double duration,
+                                double energy, double averagePower, double counterEnergy, int samples) {
+    }
+
+    private static final class LastSample {
+        private long time;
+        private double power;
+        private double total;
+
+        private void set(Meter meter) {
+            time = meter.getReceivedAt();
+            power = meter.getPower();
+            total = meter.getTotal();
+        }
+    }
+
+    private static final class Session {
+        private final String name;
+        private final List<String> ips;
+        private final long start;
+        private final Map<SampleStore.SeriesKey, EnergyIntegrator> integrators = new HashMap<>();
+        private long end;
+        private boolean finished;
+
+        private Session(String name, List<String> ips, long start) {
+            this.name = name;
+            this.ips = ips;
+            this.start = start;
+        }
+
+        private boolean isRunning() {
+            return !finished;
+        }
+
+        private boolean accepts(long receivedAt) {
+            return !finished || receivedAt <= end;
+        }
+
+        private boolean includes(String ip) {
+            return ips.isEmpty() || ips.contains(ip);
+        }
+
+        private EnergyIntegrator integrator(SampleStore.SeriesKey key) {
+            return integrators.computeIfAbsent(key, k -> {
+                EnergyIntegrator integrator = new EnergyIntegrator();
+                integrator.clipBefore(start);
+                return integrator;
+            });
+        }
+
+        private SessionResult result(long until) {
+            double energy = 0;
+            double counterEnergy = 0;
+            int samples = 0;
+            for (EnergyIntegrator integrator : integrators.values()) {
+                energy += integrator.getEnergyUntil(until);
+                counterEnergy += integrator.getCounterEnergy();
+                samples += integrator.getSamples();
+            }
+            double duration = (until - start) / MICROS_PER_SECOND;
+            double averagePower = duration > 0 ? energy * SECONDS_PER_HOUR / duration : 0;
+            return new SessionResult(name, ips, start, isRunning() ? null : end, duration, energy, averagePower,
+                    counterEnergy, samples);
+        }
+    }
+
+}
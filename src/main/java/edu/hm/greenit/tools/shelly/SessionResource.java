@@ -0,0 +1,77 @@
+package edu.hm.greenit.tools.shelly;
+
+import jakarta.inject.Inject;
+import jakarta.ws.rs.ClientErrorException;
+import jakarta.ws.rs.GET;
+import jakarta.ws.rs.NotFoundException;
+import jakarta.ws.rs.POST;
+import jakarta.ws.rs.Path;
+import jakarta.ws.rs.PathParam;
+import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.QueryParam;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
+
+import java.util.List;
+
+/**
+ * REST control of the measurement sessions of the {@link SessionManager}, e.g. from a CI benchmark job:
+ * <code>POST /sessions/run-42/start?ip=192.168.1.20</code>, run the benchmark, <code>POST /sessions/run-42/stop</code>.
+ */
+@Path("/sessions")
+@Produces(MediaType.APPLICATION_JSON)
+public class SessionResource {
+
+    @Inject
+    SessionManager sessions;
+
+    @GET
+    public List<SessionManager.SessionResult> list() {
+        return sessions.getAll();
+    }
+
+    /**
+     * @return the result of a session, up to now if the session is running
+     */
+    @GET
+    @Path("/{name}")
+    public SessionManager.SessionResult get(@PathParam("name") String name) {
+        SessionManager.SessionResult result = sessions.get(name);
+        if (result == null) {
+            throw new NotFoundException("No session " + name);
+        }
+        return result;
+    }
+
+    /**
+     * @param ips the devices of the session, all devices if not set
+     */
+    @POST
+    @Path("/{name}/start")
+    public SessionManager.SessionResult start(@PathParam("name") String name, @QueryParam("ip") List<String> ips) {
+        try {
+            return sessions.start(name, ips == null ? List.of() : ips);
+        } catch (IllegalStateException e) {
+            throw new ClientErrorException(e.getMessage(), Response.Status.CONFLICT);
+        }
+    }
+
+    /**
+     * @return the result of the session
+     */
+    @POST
+    @Path("/{name}/stop")
+    public SessionManager.SessionResult stop(@PathParam("name") String name) {
+        SessionManager.SessionResult result;
+        try {
+            result = sessions.stop(name);
+        } catch (IllegalStateException e) {
+            throw new ClientErrorException(e.getMessage(), Response.Status.CONFLICT);
+        }
+        if (result == null) {
+            throw new NotFoundException("No session " + name);
+        }
+        return result;
+    }
+
+}
@@ -0,0 +1,177 @@
+package edu.hm.greenit.tools.shelly;
+
+import jakarta.annotation.Nonnull;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static io.quarkus.runtime.util.StringUtil.isNullOrEmpty;
+
+/**
+ * A single Shelly device of the metered fleet. <br>
+ * Holds the configuration of the device (ip, generation and password) together with the {@link IReader} used to poll it.
+ * A device is read by at most one request at a time, see {@link #tryStartRead()}.
+ */
+public class ShellyDevice {
+
+    static final String SHELLY_GEN1_ARG = "1";
+    static final String SHELLY_GEN2PLUS_ARG = "2+";
+    private static final String DEVICE_FILE_SEPARATOR = ",";
+    private static final String DEVICE_FILE_COMMENT = "#";
+
+    private final String ip;
+    private final String generation;
+    private final IReader reader;
+    private final AtomicBoolean reading = new AtomicBoolean();
+    private final AtomicLong missedTicks = new AtomicLong();
+    private final AtomicLong lateTicks = new AtomicLong();
+    private final AtomicLong completedReads = new AtomicLong();
+    private final AtomicLong failedReads = new AtomicLong();
+    private final AtomicLong samples = new AtomicLong();
+    private volatile DeviceHealth health = new DeviceHealth(DeviceHealth.Settings.DEFAULT);
+
+    public ShellyDevice(@Nonnull String ip, @Nonnull String generation, String password) {
+        this(ip, generation, password, RpcStatusMethod.STATUS);
+    }
+
+    public ShellyDevice(@Nonnull String ip, @Nonnull String generation, String password, @Nonnull RpcStatusMethod rpcStatusMethod) {
+        this.ip = ip;
+        this.generation = generation;
+        this.reader = switch (generation) {
+            case SHELLY_GEN1_ARG -> new HttpApiReader(ip, password);
+            case SHELLY_GEN2PLUS_ARG -> new RpcReader(ip, password, rpcStatusMethod);
+            default -> throw new IllegalArgumentException("Unrecognized shelly generation: " + generation);
+        };
+    }
+
+    /**
+     * Parses one line of a device file. <br>
+     * Format: <code>ip[,generation[,password]]</code>, missing values are taken from the given defaults.
+     *
+     * @return the device or <code>null</code> if the line is blank or a comment
+     */
+    static ShellyDevice parse(String line, String defaultGeneration, String defaultPassword) {
+        return parse(line, defaultGeneration, defaultPassword, RpcStatusMethod.STATUS);
+    }
+
+    static ShellyDevice parse(String line, String defaultGeneration, String defaultPassword, RpcStatusMethod rpcStatusMethod) {
+        String trimmed = line.strip();
+        if (trimmed.isEmpty() || trimmed.startsWith(DEVICE_FILE_COMMENT)) {
+            return null;
+        }
+        String[] parts = trimmed.split(DEVICE_FILE_SEPARATOR, 3);
+        String ip = parts[0].strip();
+        String generation = parts.length > 1 && !isNullOrEmpty(parts[1].strip()) ? parts[1].strip() : defaultGeneration;
+        String password = parts.length > 2 && !isNullOrEmpty(parts[2]) ? parts[2] : defaultPassword;
+        return new ShellyDevice(ip, generation, password, rpcStatusMethod);
+    }
+
+    /**
+     * Reads all devices from a device file, one device per line, see {@link #parse(String, String, String)}.
+     */
+    static List<ShellyDevice> readDeviceFile(Path deviceFile, String defaultGeneration, String defaultPassword,
+                                             RpcStatusMethod rpcStatusMethod) throws IOException {
+        List<ShellyDevice> devices = new ArrayList<>();
+        for (String line : Files.readAllLines(deviceFile)) {
+            ShellyDevice device = parse(line, defaultGeneration, defaultPassword, rpcStatusMethod);
+            if (device != null) {
+                devices.add(device);
+            }
+        }
+        return devices;
+    }
+
+    /**
+     * Marks the device as being read.
+     *
+     * @return <code>false</code> if the previous read of this device is still running
+     */
+    boolean tryStartRead() {
+        return reading.compareAndSet(false, true);
+    }
+
+    void finishRead() {
+        reading.set(false);
+    }
+
+    void recordMissedTicks(long count) {
+        missedTicks.addAndGet(count);
+    }
+
+    void recordLateTick() {
+        lateTicks.incrementAndGet();
+    }
+
+    void recordReadCompleted(int sampleCount) {
+        completedReads.incrementAndGet();
+        samples.addAndGet(sampleCount);
+    }
+
+    void recordReadFailed() {
+        failedReads.incrementAndGet();
+    }
+
+    /**
+     * @return number of successful reads
+     */
+    public long getCompletedReads() {
+        return completedReads.get();
+    }
+
+    /**
+     * @return number of reads that failed, e.g. because of a timeout
+     */
+    public long getFailedReads() {
+        return failedReads.get();
+    }
+
+    /**
+     * @return number of samples read, one per channel and read
+     */
+    public long getSamples() {
+        return samples.get();
+    }
+
+    /**
+     * @return number of ticks of the {@link SamplingScheduler} this device was not read in
+     */
+    public long getMissedTicks() {
+        return missedTicks.get();
+    }
+
+    /**
+     * @return number of reads the {@link SamplingScheduler} started late
+     */
+    public long getLateTicks() {
+        return lateTicks.get();
+    }
+
+    /**
+     * Replaces the timeout, backoff and circuit breaker state of the device.
+     */
+    void setHealthSettings(DeviceHealth.Settings settings) {
+        health = new DeviceHealth(settings);
+    }
+
+    public DeviceHealth getHealth() {
+        return health;
+    }
+
+    public String getIp() {
+        return ip;
+    }
+
+    public String getGeneration() {
+        return generation;
+    }
+
+    public IReader getReader() {
+        return reader;
+    }
+
+}
@@ -0,0 +1,178 @@
+package edu.hm.greenit.tools.shelly;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Micrometer metrics of the readers, the sampling scheduler and the output, scraped from <code>/q/metrics</code>. <br>
+ * Meters of a device are tagged with its ip (<code>device</code>), meters of a device channel also with the <code>channel</code>.
+ * Meters used on every read are looked up once per device and cached.
+ */
+@ApplicationScoped
+public class ShellyMetrics implements ReaderMetrics {
+
+    static final String DEVICE_TAG = "device";
+    static final String CHANNEL_TAG = "channel";
+    // a few fixed buckets per device instead of a percentile histogram, which has about 70 per device
+    static final Duration[] LATENCY_BUCKETS = {Duration.ofMillis(10), Duration.ofMillis(25), Duration.ofMillis(50),
+            Duration.ofMillis(100), Duration.ofMillis(250), Duration.ofMillis(500), Duration.ofSeconds(1),
+            Duration.ofMillis(2500)};
+
+    private final MeterRegistry registry;
+    private final Map<String, DeviceMeters> devices = new ConcurrentHashMap<>();
+
+    @Inject
+    public ShellyMetrics(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    @Override
+    public void authChallenge(String ip) {
+        device(ip).authChallenges.increment();
+    }
+
+    @Override
+    public void httpError(String ip, int statusCode) {
+        Counter.builder("shelly.request.errors")
+                .description("Responses with an HTTP status other than 200")
+                .tag(DEVICE_TAG, ip)
+                .tag("status", Integer.toString(statusCode))
+                .register(registry)
+                .increment();
+    }
+
+    @Override
+    public void parsed(String ip, long nanos) {
+        device(ip).parseTime.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Records a finished read of a device.
+     *
+     * @param nanos  time from sending the request until the parsed response in nanoseconds
+     * @param failed <code>true</code> if the request failed, e.g. by a timeout or a refused connection
+     */
+    public void readCompleted(String ip, long nanos, boolean failed) {
+        DeviceMeters meters = device(ip);
+        if (failed) {
+            meters.failures.increment();
+        } else {
+            meters.latency.record(nanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Registers the missed and late ticks of the devices, see {@link SamplingScheduler}.
+     */
+    public void bindDevices(List<ShellyDevice> shellyDevices) {
+        for (ShellyDevice device : shellyDevices) {
+            FunctionCounter.builder("shelly.scheduler.ticks.missed", device, ShellyDevice::getMissedTicks)
+                    .description("Ticks the device was not read in, e.g. because the previous read was still running")
+                    .tag(DEVICE_TAG, device.getIp())
+                    .register(registry);
+            FunctionCounter.builder("shelly.scheduler.ticks.late", device, ShellyDevice::getLateTicks)
+                    .description("Reads started more than a tenth of the interval after their slot")
+                    .tag(DEVICE_TAG, device.getIp())
+                    .register(registry);
+            Gauge.builder("shelly.device.circuit.open", device, d -> d.getHealth().isOpen() ? 1 : 0)
+                    .description("1 while the device is unreachable and only probed, see --probe-interval")
+                    .tag(DEVICE_TAG, device.getIp())
+                    .register(registry);
+            Gauge.builder("shelly.request.timeout", device, d -> d.getHealth().getTimeout().toNanos() / 1e9)
+                    .description("Current adaptive request timeout")
+                    .baseUnit("seconds")
+                    .tag(DEVICE_TAG, device.getIp())
+                    .register(registry);
+        }
+    }
+
+    /**
+     * Registers the queue depth and the dropped samples of the output.
+     */
+    public void bindWriter(SampleWriter writer) {
+        Gauge.builder("shelly.output.queue.depth", writer, SampleWriter::getQueueDepth)
+                .description("Samples waiting to be written")
+                .register(registry);
+        FunctionCounter.builder("shelly.output.dropped", writer, SampleWriter::getDroppedSamples)
+                .description("Samples dropped because the output queue was full")
+                .register(registry);
+        FunctionCounter.builder("shelly.output.samples", writer, SampleWriter::getWrittenSamples)
+                .description("Samples written to the output")
+                .register(registry);
+    }
+
+    /**
+     * Registers the ticks and the lag of the reads started by the scheduler.
+     */
+    public void bindScheduler(SamplingScheduler scheduler) {
+        FunctionCounter.builder("shelly.scheduler.ticks", scheduler, SamplingScheduler::getTicks)
+                .description("Ticks started by the scheduler")
+                .register(registry);
+        Gauge.builder("shelly.scheduler.lag.mean", scheduler, s -> s.getMeanLag().toNanos() / 1e9)
+                .description("Mean time reads were started after their slot")
+                .baseUnit("seconds")
+                .register(registry);
+        Gauge.builder("shelly.scheduler.lag.max", scheduler, s -> s.getMaxLag().toNanos() / 1e9)
+                .description("Longest time a read was started after its slot")
+                .baseUnit("seconds")
+                .register(registry);
+    }
+
+    /**
+     * Registers the current power and energy of a device channel, called once per channel by the {@link SampleStore}.
+     */
+    public void bindSeries(SampleStore.SeriesKey key, SeriesBuffer buffer) {
+        Gauge.builder("shelly.power", buffer, SeriesBuffer::latestPower)
+                .description("Current power")
+                .baseUnit("watts")
+                .tag(DEVICE_TAG, key.ip())
+                .tag(CHANNEL_TAG, Integer.toString(key.channel()))
+                .register(registry);
+        Gauge.builder("shelly.energy", buffer, SeriesBuffer::latestEnergy)
+                .description("Energy counter of the device")
+                .baseUnit("watt-hours")
+                .tag(DEVICE_TAG, key.ip())
+                .tag(CHANNEL_TAG, Integer.toString(key.channel()))
+                .register(registry);
+    }
+
+    private DeviceMeters device(String ip) {
+        return devices.computeIfAbsent(ip, this::createDeviceMeters);
+    }
+
+    private DeviceMeters createDeviceMeters(String ip) {
+        return new DeviceMeters(
+                Timer.builder("shelly.request.latency")
+                        .description("Time from sending the request until the parsed response")
+                        .tag(DEVICE_TAG, ip)
+                        .serviceLevelObjectives(LATENCY_BUCKETS)
+                        .register(registry),
+                Timer.builder("shelly.response.parse")
+                        .description("Time spent parsing responses")
+                        .tag(DEVICE_TAG, ip)
+                        .register(registry),
+                Counter.builder("shelly.request.auth.challenges")
+                        .description("Authentication challenges (HTTP 401), e.g. digest re-challenges")
+                        .tag(DEVICE_TAG, ip)
+                        .register(registry),
+                Counter.builder("shelly.request.failures")
+                        .description("Requests failed without a response, e.g. by a timeout or a refused connection")
+                        .tag(DEVICE_TAG, ip)
+                        .register(registry));
+    }
+
+    private record DeviceMeters(Timer latency, Timer parseTime, Counter authChallenges, Counter failures) {
+    }
+
+}
@@ -2,33 +2,255 @@ package edu.hm.greenit.tools.shelly;
 
 import io.quarkus.runtime.Quarkus;
 import io.quarkus.runtime.QuarkusApplication;
+import io.quarkus.runtime.ShutdownEvent;
 import io.quarkus.runtime.annotations.QuarkusMain;
-import io.quarkus.scheduler.Scheduled;
-import io.smallrye.common.annotation.RunOnVirtualThread;
+import io.quarkus.runtime.annotations.RegisterForReflection;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.mqtt.MqttClientOptions;
 import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
 import org.jboss.logging.Logger;
 import picocli.CommandLine;
 
+import java.io.BufferedInputStream;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.util.Optional;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.http.HttpTimeoutException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
-import static io.quarkus.scheduler.Scheduled.ConcurrentExecution.SKIP;
+import static edu.hm.greenit.tools.shelly.ShellyDevice.SHELLY_GEN1_ARG;
+import static edu.hm.greenit.tools.shelly.ShellyDevice.SHELLY_GEN2PLUS_ARG;
 
 @ApplicationScoped
 @CommandLine.Command(name = "shelly-power-reader",
         description = "Read power values from Shelly devices")
 @QuarkusMain
+// picocli creates the converters and lists the constants of the enum options reflectively, also in a native image
+@RegisterForReflection(targets = {DurationConverter.class, OutputFormat.class, RpcStatusMethod.class})
 public class ShellyPowerReader implements QuarkusApplication {
     public static final String SHELLY_USER = "admin"; //always admin, see: https://shelly-api-docs.shelly.cloud/gen2/General/Authentication
-    private static final String SHELLY_GEN1_ARG = "1";
-    private static final String SHELLY_GEN2PLUS_ARG = "2+";
     private static final Logger LOGGER = Logger.getLogger(ShellyPowerReader.class);
-    private static boolean initialized = false;
+    private static final Duration MIN_INTERVAL = Duration.ofMillis(100);
+    // holds the headers and several rows of every output format
+    private static final int MIN_OUTPUT_BUFFER_SIZE = 1024;
+    private static final String DEFAULT_INVENTORY_FILE = "shelly-inventory.csv";
 
-    private IReader reader;
+    @Inject
+    Vertx vertx;
 
-    @CommandLine.Option(names = {"--ip", "-i"}, description = "IP address of the shelly device", required = true)
-    private String shellyIp;
+    @Inject
+    SampleStore sampleStore;
+
+    @Inject
+    SessionManager sessionManager;
+
+    @Inject
+    ShellyMetrics metrics;
+
+    private volatile List<ShellyDevice> devices;
+    private final Object devicesLock = new Object();
+    private DeviceHealth.Settings healthSettings;
+    private SampleWriter writer;
+    private Semaphore inFlightRequests;
+    private SamplingScheduler sampler;
+    private WebSocketPushServer pushServer;
+    private MqttSubscriber mqttSubscriber;
+    private DeviceDiscovery discovery;
+    private volatile boolean stopped;
+    private final AtomicBoolean firstSample = new AtomicBoolean();
+    private long meteringStart;
+
+    @CommandLine.Option(names = {"--ip", "-i"}, description = "IP address of a shelly device, can be repeated to read several devices")
+    private List<String> shellyIps = new ArrayList<>();
+
+    @CommandLine.Option(names = {"--device-file", "-f"},
+            description = "File with one device per line: ip[,generation[,password]]. Missing values default to --generation and --password")
+    private Path deviceFile;
+
+    @CommandLine.Option(names = {"--discover"},
+            description = "Address range to search for shelly devices, as CIDR block (e.g. 192.168.1.0/24) or single address, "
+                    + "can be repeated. Generation and RPC method are detected per device")
+    private List<String> discoveryRanges = new ArrayList<>();
+
+    @CommandLine.Option(names = {"--inventory"},
+            description = "File the discovered devices are kept in, its devices are read on start, "
+                    + "default: " + DEFAULT_INVENTORY_FILE + " with --discover")
+    private Path inventoryFile;
+
+    @CommandLine.Option(names = {"--discovery-interval"},
+            description = "Time between two scans of the --discover ranges while metering, 0 to scan only on start, "
+                    + "default: ${DEFAULT-VALUE}",
+            defaultValue = "10m", converter = DurationConverter.class)
+    private Duration discoveryInterval;
+
+    @CommandLine.Option(names = {"--discovery-timeout"},
+            description = "Maximum time to wait for a device to identify itself, default: ${DEFAULT-VALUE}",
+            defaultValue = "1s", converter = DurationConverter.class)
+    private Duration discoveryTimeout;
+
+    @CommandLine.Option(names = {"--interval"},
+            description = "Sampling interval, e.g. 100ms, 500ms or 1s, at least 100ms, default: ${DEFAULT-VALUE}",
+            defaultValue = "1s", converter = DurationConverter.class)
+    private Duration interval;
+
+    @CommandLine.Option(names = {"--rpc-method"},
+            description = "RPC method to read Gen 2+ devices, one of: ${COMPLETION-CANDIDATES}. "
+                    + "AUTO detects Switch.GetStatus or PM1.GetStatus once per device, default: ${DEFAULT-VALUE}",
+            defaultValue = "STATUS")
+    private RpcStatusMethod rpcStatusMethod;
+    // discovered devices are detected unless --rpc-method is given
+    private RpcStatusMethod discoveredRpcStatusMethod = RpcStatusMethod.AUTO;
+
+    @CommandLine.Option(names = {"--max-in-flight"},
+            description = "Maximum number of requests in flight over all devices, default: ${DEFAULT-VALUE}",
+            defaultValue = "1024")
+    private int maxInFlight;
+
+    @CommandLine.Option(names = {"--connect-timeout"},
+            description = "Maximum time to connect to a device, default: ${DEFAULT-VALUE}",
+            defaultValue = "2s", converter = DurationConverter.class)
+    private Duration connectTimeout;
+
+    @CommandLine.Option(names = {"--keep-alive"},
+            description = "Time an idle connection to a device is kept open, default: ${DEFAULT-VALUE}",
+            defaultValue = "30s", converter = DurationConverter.class)
+    private Duration keepAlive;
+
+    @CommandLine.Option(names = {"--http-threads"},
+            description = "Number of threads of the HTTP client shared by all devices, default: number of CPUs")
+    private int httpThreads = HttpClients.DEFAULT_THREADS;
+
+    @CommandLine.Option(names = {"--request-timeout"},
+            description = "Maximum time to wait for a response. The timeout of each device adapts to its latency "
+                    + "between --min-request-timeout and this value, default: ${DEFAULT-VALUE}",
+            defaultValue = "5s", converter = DurationConverter.class)
+    private Duration requestTimeout;
+
+    @CommandLine.Option(names = {"--min-request-timeout"},
+            description = "Lower limit of the adaptive request timeout, default: ${DEFAULT-VALUE}",
+            defaultValue = "200ms", converter = DurationConverter.class)
+    private Duration minRequestTimeout;
+
+    @CommandLine.Option(names = {"--failure-threshold"},
+            description = "Failed reads in a row after which a device is only probed every --probe-interval, default: ${DEFAULT-VALUE}",
+            defaultValue = "5")
+    private int failureThreshold;
+
+    @CommandLine.Option(names = {"--probe-interval"},
+            description = "Time between two reads of an unreachable device, default: ${DEFAULT-VALUE}",
+            defaultValue = "30s", converter = DurationConverter.class)
+    private Duration probeInterval;
+
+    @CommandLine.Option(names = {"--shutdown-timeout"},
+            description = "Maximum time to wait for running reads when stopping, default: ${DEFAULT-VALUE}",
+            defaultValue = "5s", converter = DurationConverter.class)
+    private Duration shutdownTimeout;
+
+    @CommandLine.Option(names = {"--push-port"},
+            description = "Port for Gen 2+ devices pushing their status over their outbound WebSocket, disabled if not set")
+    private Integer pushPort;
+
+    @CommandLine.Option(names = {"--mqtt-broker"},
+            description = "MQTT broker (host[:port]) to subscribe to the status topics of Gen 1 and Gen 2+ devices, "
+                    + "disabled if not set")
+    private String mqttBroker;
+
+    @CommandLine.Option(names = {"--mqtt-user"}, description = "User name for the MQTT broker")
+    private String mqttUser;
+
+    @CommandLine.Option(names = {"--mqtt-password"}, description = "Password for the MQTT broker")
+    private String mqttPassword;
+
+    @CommandLine.Option(names = {"--mqtt-client-id"},
+            description = "Client id at the MQTT broker, unique per reader, default: random id")
+    private String mqttClientId;
+
+    @CommandLine.Option(names = {"--output", "-o"},
+            description = "Output format, can be repeated to write several formats at once, one of: ${COMPLETION-CANDIDATES}, "
+                    + "default: CSV on stdout")
+    private List<OutputFormat> outputFormats = new ArrayList<>();
+
+    @CommandLine.Option(names = {"--output-dir"},
+            description = "Directory of the CSV_FILE and BINARY output files, default: ${DEFAULT-VALUE}",
+            defaultValue = ".")
+    private Path outputDirectory;
+
+    @CommandLine.Option(names = {"--output-roll-size"},
+            description = "Size in MB after which a new output file is started, default: ${DEFAULT-VALUE}",
+            defaultValue = "100")
+    private long outputRollSizeMb;
+
+    @CommandLine.Option(names = {"--decode"},
+            description = "Print the samples of a BINARY output file as CSV and exit")
+    private Path decodeFile;
+
+    @CommandLine.Option(names = {"--aggregate"},
+            description = "Write aggregates of windows of this length instead of the samples, e.g. 10s or 1m",
+            converter = DurationConverter.class)
+    private Duration aggregateWindow;
+
+    @CommandLine.Option(names = {"--aggregate-step"},
+            description = "Time between the ends of two aggregated windows, shorter than --aggregate for sliding windows, "
+                    + "default: --aggregate (tumbling windows)",
+            converter = DurationConverter.class)
+    private Duration aggregateStep;
+
+    @CommandLine.Option(names = {"--deadband"},
+            description = "Only write a sample if its power differs by more than this many W from the last written sample "
+                    + "of the channel or its energy counter changed, at least every --heartbeat")
+    private Double deadband;
+
+    @CommandLine.Option(names = {"--deadband-relative"},
+            description = "Like --deadband, as fraction of the last written power, e.g. 0.05 for 5%%. "
+                    + "With both options the larger deadband applies")
+    private Double relativeDeadband;
+
+    @CommandLine.Option(names = {"--heartbeat"},
+            description = "Maximum time between two written samples of a channel with --deadband, default: ${DEFAULT-VALUE}",
+            defaultValue = "1m", converter = DurationConverter.class)
+    private Duration heartbeat;
+
+    @CommandLine.Option(names = {"--history-size"},
+            description = "Number of recent samples per device channel kept in memory for the REST API, at least 1, "
+                    + "default: ${DEFAULT-VALUE}",
+            defaultValue = "3600")
+    private int historySize;
+
+    @CommandLine.Option(names = {"--output-queue-size"},
+            description = "Maximum number of samples waiting to be written, default: ${DEFAULT-VALUE}",
+            defaultValue = "65536")
+    private int outputQueueSize;
+
+    @CommandLine.Option(names = {"--output-buffer-size"},
+            description = "Size of the output buffer of each output format in bytes, at least 1024, default: ${DEFAULT-VALUE}",
+            defaultValue = "65536")
+    private int outputBufferSize;
+
+    @CommandLine.Option(names = {"--output-flush-interval"},
+            description = "Maximum time a sample stays in the output buffer, e.g. 500ms or 1s, must be positive, "
+                    + "default: ${DEFAULT-VALUE}",
+            defaultValue = "1s", converter = DurationConverter.class)
+    private Duration outputFlushInterval;
 
     @CommandLine.Option(names = {"--password", "-p"}, description = "Password of the shelly device")
     private String shellyPassword;
@@ -39,72 +261,410 @@ public class ShellyPowerReader implements QuarkusApplication {
     private String shellyGeneration;
 
     /**
-     * @param args ip address, password (if set) and generation of the Shelly device (1 or 2+).
+     * @param args ip addresses or a device file, password (if set) and generation of the Shelly devices (1 or 2+).
      *             The Generation determines the protocol that is used. Gen1 uses Http API, Gen2+ uses RPC. Default is Gen2+.
      * @return - status of the execution
      */
     @Override
     public int run(String... args) throws InterruptedException {
-        CommandLine commandLine = new CommandLine(this);
+        int status = start(args);
+        if (status == 0 && writer != null) {
+            // metering until Quarkus is asked to exit, e.g. on SIGTERM or Ctrl+C
+            Quarkus.waitForExit();
+        }
+        shutdown();
+        return status;
+    }
+
+    /**
+     * Parses the arguments, opens the output and starts reading the devices once everything is ready.
+     *
+     * @return status of the execution, the reader is only metering if it is 0 and the output was opened
+     */
+    int start(String... args) throws InterruptedException {
+        CommandLine commandLine = new CommandLine(this).setCaseInsensitiveEnumValuesAllowed(true);
         try {
             CommandLine.ParseResult parseResult = commandLine.parseArgs(args);
             if (parseResult.isUsageHelpRequested()) {
                 LOGGER.info(commandLine.getUsageMessage());
                 return 0;
             }
+            if (decodeFile != null) {
+                return decode(decodeFile);
+            }
+            if (parseResult.hasMatchedOption("--rpc-method")) {
+                discoveredRpcStatusMethod = rpcStatusMethod;
+            }
+            HttpClients.configure(connectTimeout, keepAlive, httpThreads);
+            List<ShellyDevice> configured = createDevices();
+            configured.addAll(createInventoryDevices(configured));
+            devices = configured;
         } catch (CommandLine.ParameterException e) {
             LOGGER.error("Error parsing command line arguments", e);
             LOGGER.info(commandLine.getUsageMessage());
             return 1;
+        } catch (IOException | IllegalArgumentException e) {
+            LOGGER.error("Error reading device configuration", e);
+            return 1;
+        }
+        if (interval.compareTo(MIN_INTERVAL) < 0) {
+            LOGGER.errorf("Sampling interval %s is below the minimum of %s", interval, MIN_INTERVAL);
+            return 1;
+        }
+        if (devices.isEmpty() && pushPort == null && mqttBroker == null && discovery == null) {
+            LOGGER.error("No shelly device configured, use --ip, --device-file, --discover, --push-port or --mqtt-broker");
+            LOGGER.info(commandLine.getUsageMessage());
+            return 1;
+        }
+        // failed reads are retried after the sampling interval at the earliest
+        healthSettings = new DeviceHealth.Settings(minRequestTimeout, requestTimeout, interval, failureThreshold, probeInterval);
+        prepareDevices(devices);
+        sampleStore.setSeriesListener(metrics::bindSeries);
+        inFlightRequests = new Semaphore(maxInFlight);
+        try {
+            writer = new SampleWriter(createSinks(), outputQueueSize, outputFlushInterval);
+        } catch (IllegalArgumentException e) {
+            LOGGER.error("Error configuring output: " + e.getMessage());
+            return 1;
+        }
+        try {
+            writer.start();
+        } catch (IOException e) {
+            LOGGER.error("Error opening output", e);
+            return 1;
+        }
+        metrics.bindWriter(writer);
+        sessionManager.setWriter(writer);
+        if (pushPort != null) {
+            try {
+                pushServer = new WebSocketPushServer(this::onPushedSample);
+                pushServer.start(vertx, pushPort).toCompletionStage().toCompletableFuture().get();
+            } catch (ExecutionException e) {
+                LOGGER.error("Error starting push server on port " + pushPort, e.getCause());
+                return 1;
+            }
+        }
+        if (mqttBroker != null) {
+            int separator = mqttBroker.lastIndexOf(':');
+            String host = separator < 0 ? mqttBroker : mqttBroker.substring(0, separator);
+            try {
+                int port = separator < 0
+                        ? MqttClientOptions.DEFAULT_PORT
+                        : Integer.parseInt(mqttBroker.substring(separator + 1));
+                mqttSubscriber = new MqttSubscriber(this::onPushedSample, mqttClientId, mqttUser, mqttPassword);
+                mqttSubscriber.start(vertx, host, port).toCompletionStage().toCompletableFuture().get();
+            } catch (NumberFormatException e) {
+                LOGGER.error("Invalid MQTT broker: " + mqttBroker);
+                return 1;
+            } catch (ExecutionException e) {
+                LOGGER.error("Error subscribing to MQTT broker " + mqttBroker, e.getCause());
+                return 1;
+            }
         }
+        meteringStart = System.nanoTime();
+        LOGGER.infof("Metering started %d ms after process start", millisSinceProcessStart());
+        if (!devices.isEmpty() || discovery != null) {
+            sampler = new SamplingScheduler(devices, interval, this::startRead);
+            metrics.bindScheduler(sampler);
+            sampler.start();
+        }
+        if (discovery != null) {
+            // the first scan runs in the background, the devices of the inventory are read meanwhile
+            discovery.startRefresh(discoveryInterval, this::addDiscoveredDevices);
+        }
+        return 0;
+    }
 
-        reader = switch (shellyGeneration) {
-            case SHELLY_GEN1_ARG -> new HttpApiReader(shellyIp, shellyPassword);
-            case SHELLY_GEN2PLUS_ARG -> new RpcReader(shellyIp, shellyPassword);
-            default -> throw new IllegalStateException("Unrecognized shelly generation: " + shellyGeneration);
-        };
-        initialized = true;
+    void onShutdown(@Observes ShutdownEvent event) {
+        shutdown();
+    }
 
-        // print header
-        System.out.print("ip");
-        System.out.print(",");
-        System.out.print("timestamp");
-        System.out.print(",");
-        System.out.print("power");
-        System.out.print(",");
-        System.out.println("energy");
+    /**
+     * Stops metering without losing samples: no further reads are started, the push server and the MQTT subscriber
+     * are closed and reads in flight get up to <code>--shutdown-timeout</code> to finish,
+     * then every queued sample is written and the output is closed.
+     * Finally the counters of every device are logged. <br>
+     * Called when Quarkus is asked to exit, further calls return at once.
+     */
+    synchronized void shutdown() {
+        if (stopped || writer == null) {
+            return;
+        }
+        // a discovery listener running now finishes adding its devices before the sampler is stopped
+        synchronized (devicesLock) {
+            stopped = true;
+        }
+        try {
+            if (discovery != null) {
+                discovery.close();
+            }
+            if (sampler != null) {
+                sampler.close();
+            }
+            List<Future<Void>> stops = new ArrayList<>();
+            if (pushServer != null) {
+                stops.add(pushServer.stop());
+            }
+            if (mqttSubscriber != null) {
+                stops.add(mqttSubscriber.stop());
+            }
+            awaitStopped(stops);
+            if (!inFlightRequests.tryAcquire(maxInFlight, shutdownTimeout.toNanos(), TimeUnit.NANOSECONDS)) {
+                LOGGER.warnf("%d reads still running after %s, their samples are lost",
+                        maxInFlight - inFlightRequests.availablePermits(), shutdownTimeout);
+            }
+            writer.close();
+        } catch (InterruptedException e) {
+            LOGGER.warn("Interrupted while stopping, queued samples may be lost");
+            Thread.currentThread().interrupt();
+        }
+        logSummary();
+    }
 
-        while (true) {
-            // keep application up;
-            Thread.sleep(60000);
+    /**
+     * Waits up to <code>--shutdown-timeout</code> for the push server and the MQTT subscriber to close,
+     * so no pushed sample is offered to the writer after it was closed.
+     */
+    private void awaitStopped(List<Future<Void>> stops) throws InterruptedException {
+        if (stops.isEmpty()) {
+            return;
+        }
+        try {
+            Future.join(stops).toCompletionStage().toCompletableFuture()
+                    .get(shutdownTimeout.toNanos(), TimeUnit.NANOSECONDS);
+        } catch (ExecutionException e) {
+            LOGGER.warn("Error closing push connections: " + e.getCause().getMessage());
+        } catch (TimeoutException e) {
+            LOGGER.warnf("Push connections still open after %s, their samples may be lost", shutdownTimeout);
         }
+    }
 
+    private void logSummary() {
+        for (ShellyDevice device : devices) {
+            LOGGER.infof("%s: %d reads, %d failed, %d samples, %d missed and %d late ticks", device.getIp(),
+                    device.getCompletedReads(), device.getFailedReads(), device.getSamples(),
+                    device.getMissedTicks(), device.getLateTicks());
+        }
+        if (mqttSubscriber != null) {
+            LOGGER.infof("%d MQTT messages received", mqttSubscriber.getMessages());
+        }
+        LOGGER.infof("%d samples written, %d dropped", writer.getWrittenSamples(), writer.getDroppedSamples());
     }
 
     public static void main(String[] args) {
         Quarkus.run(ShellyPowerReader.class, args);
     }
 
-    @RunOnVirtualThread
-    @Scheduled(every = "1s", concurrentExecution = SKIP)
-    void readShellyDataAndPrintResults() throws IOException, InterruptedException {
-        if (!initialized) {
-            LOGGER.debug("Running scheduler, reader not initialized");
-            return;
+    /**
+     * Time since the start of the process, so the JVM and a native image compare including their boot time.
+     *
+     * @return milliseconds, <code>-1</code> if the platform does not report the start of the process
+     */
+    private static long millisSinceProcessStart() {
+        return ProcessHandle.current().info().startInstant()
+                .map(start -> Duration.between(start, Instant.now()).toMillis())
+                .orElse(-1L);
+    }
+
+    private List<ShellyDevice> createDevices() throws IOException {
+        List<ShellyDevice> result = new ArrayList<>();
+        for (String ip : shellyIps) {
+            result.add(new ShellyDevice(ip, shellyGeneration, shellyPassword, rpcStatusMethod));
+        }
+        if (deviceFile != null) {
+            result.addAll(ShellyDevice.readDeviceFile(deviceFile, shellyGeneration, shellyPassword, rpcStatusMethod));
         }
+        return result;
+    }
 
-        Optional<Meter> meter = reader.readPowerConsumption();
-        meter.ifPresent(this::printPowerConsumption);
+    /**
+     * Reads the inventory and prepares the scans of the <code>--discover</code> ranges, which start with metering.
+     *
+     * @return the devices of the inventory not configured with --ip or --device-file
+     */
+    private List<ShellyDevice> createInventoryDevices(List<ShellyDevice> configured) throws IOException {
+        Path file = inventoryFile != null || discoveryRanges.isEmpty() ? inventoryFile : Path.of(DEFAULT_INVENTORY_FILE);
+        if (file == null) {
+            return List.of();
+        }
+        DeviceInventory inventory = DeviceInventory.read(file);
+        if (!discoveryRanges.isEmpty()) {
+            discovery = new DeviceDiscovery(discoveryRanges, discoveryTimeout, inventory, file);
+        }
+        return unknownDevices(configured, inventory.getEntries());
+    }
+
+    private List<ShellyDevice> unknownDevices(List<ShellyDevice> known, List<DeviceInventory.Entry> entries) {
+        Set<String> ips = new HashSet<>();
+        for (ShellyDevice device : known) {
+            ips.add(device.getIp());
+        }
+        List<ShellyDevice> result = new ArrayList<>();
+        for (DeviceInventory.Entry entry : entries) {
+            if (ips.add(entry.ip())) {
+                result.add(entry.toDevice(shellyPassword, discoveredRpcStatusMethod));
+            }
+        }
+        return result;
     }
 
-    void printPowerConsumption(final Meter meter) {
-        System.out.print(shellyIp);
-        System.out.print(",");
-        System.out.print(meter.getTimestamp());
-        System.out.print(",");
-        System.out.print(meter.getPower());
-        System.out.print(",");
-        System.out.println(meter.getTotal());
+    private void prepareDevices(List<ShellyDevice> prepared) {
+        for (ShellyDevice device : prepared) {
+            device.getReader().setMetrics(metrics);
+            device.setHealthSettings(healthSettings);
+        }
+        metrics.bindDevices(prepared);
+    }
+
+    /**
+     * Starts reading the devices found by the background discovery, the devices already read are not interrupted.
+     * Holds the devices lock, which {@link #shutdown()} takes to stop, so no device is added to a stopped sampler.
+     */
+    private void addDiscoveredDevices(List<DeviceInventory.Entry> entries) {
+        synchronized (devicesLock) {
+            List<ShellyDevice> added = unknownDevices(devices, entries);
+            if (added.isEmpty() || stopped) {
+                return;
+            }
+            prepareDevices(added);
+            List<ShellyDevice> all = new ArrayList<>(devices);
+            all.addAll(added);
+            devices = all;
+            sampler.setDevices(all);
+            LOGGER.infof("Found %d new shelly devices, reading %d devices", added.size(), all.size());
+        }
+    }
+
+    private List<SampleSink> createSinks() {
+        List<OutputFormat> formats = outputFormats.isEmpty() ? List.of(OutputFormat.CSV) : outputFormats;
+        boolean filtered = deadband != null || relativeDeadband != null;
+        if (filtered && aggregateWindow != null) {
+            throw new IllegalArgumentException("--deadband cannot be combined with --aggregate");
+        }
+        if (outputBufferSize < MIN_OUTPUT_BUFFER_SIZE) {
+            throw new IllegalArgumentException("--output-buffer-size must be at least " + MIN_OUTPUT_BUFFER_SIZE + " bytes");
+        }
+        if (outputFlushInterval.isNegative() || outputFlushInterval.isZero()) {
+            throw new IllegalArgumentException("--output-flush-interval must be positive");
+        }
+        if (historySize < 1) {
+            throw new IllegalArgumentException("--history-size must be at least 1");
+        }
+        List<SampleSink> sinks = new ArrayList<>();
+        for (OutputFormat format : formats) {
+            long maxFileSize = outputRollSizeMb * 1024 * 1024;
+            if (aggregateWindow != null) {
+                Duration step = aggregateStep == null ? aggregateWindow : aggregateStep;
+                sinks.add(format.createAggregateSink(outputDirectory, maxFileSize, outputBufferSize, aggregateWindow, step));
+            } else if (filtered) {
+                sinks.add(new DeadbandSink(format.createSink(outputDirectory, maxFileSize, outputBufferSize),
+                        deadband == null ? 0 : deadband, relativeDeadband == null ? 0 : relativeDeadband, heartbeat));
+            } else {
+                sinks.add(format.createSink(outputDirectory, maxFileSize, outputBufferSize));
+            }
+        }
+        sampleStore.setCapacity(historySize);
+        sinks.add(sampleStore);
+        sinks.add(sessionManager);
+        return sinks;
+    }
+
+    private int decode(Path file) {
+        try (CsvSink csv = new CsvSink(new FileOutputStream(FileDescriptor.out).getChannel(), outputBufferSize);
+             InputStream input = new BufferedInputStream(Files.newInputStream(file))) {
+            csv.open();
+            BinarySampleDecoder.decode(input, sample -> {
+                try {
+                    csv.write(sample);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (IOException | UncheckedIOException e) {
+            LOGGER.error("Error decoding " + file, e);
+            return 1;
+        }
+        return 0;
+    }
+
+    /**
+     * Starts an asynchronous read of a device, so a slow or unreachable device cannot delay the others.
+     * Called by the {@link SamplingScheduler} once per tick and device.
+     * A device in backoff after a failure or with an open circuit is skipped until its next read is due, see {@link DeviceHealth}.
+     *
+     * @return {@link SamplingScheduler.ReadStart#MISSED} if the previous read of the device is still running
+     * or the limit of requests in flight is reached
+     */
+    SamplingScheduler.ReadStart startRead(ShellyDevice device) {
+        if (!device.getHealth().isReadDue(System.nanoTime())) {
+            return SamplingScheduler.ReadStart.NOT_DUE;
+        }
+        if (!device.tryStartRead()) {
+            LOGGER.debugf("Skipping %s, previous read still running", device.getIp());
+            return SamplingScheduler.ReadStart.MISSED;
+        }
+        if (!inFlightRequests.tryAcquire()) {
+            device.finishRead();
+            LOGGER.debugf("Skipping %s, %d requests in flight", device.getIp(), maxInFlight);
+            return SamplingScheduler.ReadStart.MISSED;
+        }
+        read(device);
+        return SamplingScheduler.ReadStart.STARTED;
+    }
+
+    private void read(ShellyDevice device) {
+        long start = System.nanoTime();
+        DeviceHealth health = device.getHealth();
+        CompletionStage<List<Meter>> result;
+        try {
+            result = device.getReader().readPowerConsumptionAsync(health.getTimeout());
+        } catch (RuntimeException e) {
+            result = CompletableFuture.failedFuture(e);
+        }
+        result.whenComplete((meters, failure) -> {
+            try {
+                metrics.readCompleted(device.getIp(), System.nanoTime() - start, failure != null);
+                if (failure != null) {
+                    device.recordReadFailed();
+                    Throwable cause = failure instanceof CompletionException ? failure.getCause() : failure;
+                    if (health.recordFailure(System.nanoTime(), cause instanceof HttpTimeoutException)) {
+                        LOGGER.warnf("Reading %s failed %d times in a row, probing every %s: %s", device.getIp(),
+                                health.getConsecutiveFailures(), probeInterval, cause.toString());
+                    } else {
+                        LOGGER.debugf("Reading %s failed: %s", device.getIp(), cause.toString());
+                    }
+                } else {
+                    long received = System.nanoTime();
+                    if (health.recordSuccess(received - start)) {
+                        LOGGER.infof("%s is reachable again", device.getIp());
+                    }
+                    long receivedAt = MonotonicClock.toEpochMicros(received);
+                    long latency = (received - start) / 1000;
+                    device.recordReadCompleted(meters.size());
+                    for (Meter meter : meters) {
+                        meter.setReceivedAt(receivedAt);
+                        meter.setLatency(latency);
+                        printPowerConsumption(device.getIp(), meter);
+                    }
+                }
+            } finally {
+                inFlightRequests.release();
+                device.finishRead();
+            }
+        });
+    }
+
+    private void onPushedSample(String ip, Meter meter) {
+        meter.setReceivedAt(MonotonicClock.currentTimeMicros());
+        printPowerConsumption(ip, meter);
+    }
+
+    void printPowerConsumption(final String ip, final Meter meter) {
+        if (!firstSample.get() && firstSample.compareAndSet(false, true)) {
+            LOGGER.infof("First sample after %d ms, %d ms after metering started", millisSinceProcessStart(),
+                    (System.nanoTime() - meteringStart) / 1_000_000);
+        }
+        writer.write(ip, meter);
     }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,541 @@
+package edu.hm.greenit.tools.shelly;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.util.JsonRecyclerPools;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Streaming parser for the status responses of Shelly devices. <br>
+ * Instead of building a tree of the whole response, the parsers read the tokens of the response
+ * and skip everything that is not needed. Every switch, meter and phase of a response becomes one {@link Meter} channel,
+ * so all channels of a device are read in one pass over one response.
+ * All parsers share one thread-safe {@link JsonFactory} whose buffers are pooled across threads,
+ * so parsing allocates little more than the resulting meters.
+ */
+final class StatusParser {
+
+    static final JsonFactory JSON_FACTORY = JsonFactory.builder()
+            .recyclerPool(JsonRecyclerPools.sharedConcurrentDequePool())
+            .build();
+    /**
+     * Number of channels of an <code>em</code> component, one per phase.
+     */
+    static final int EM_PHASES = 3;
+    /*
+     * First channel of each Gen 2+ component type, so components of different types never share a channel,
+     * e.g. switch:0 and em1:0 of a Pro EM. Switches keep their id as channel.
+     */
+    static final int SWITCH_FIRST_CHANNEL = 0;
+    static final int COVER_FIRST_CHANNEL = 100;
+    static final int PM1_FIRST_CHANNEL = 200;
+    static final int EM1_FIRST_CHANNEL = 300;
+    static final int EM_FIRST_CHANNEL = 400;
+    private static final Comparator<Meter> BY_CHANNEL = Comparator.comparingInt(Meter::getChannel);
+
+    // Gen 1 (HTTP API) fields
+    private static final String GEN1_METERS_FIELD = "meters";
+    private static final String GEN1_EMETERS_FIELD = "emeters";
+    private static final String GEN1_UNIXTIME_FIELD = "unixtime";
+    private static final String GEN1_POWER_FIELD = "power";
+    private static final String GEN1_VALID_FIELD = "is_valid";
+    private static final String GEN1_TIMESTAMP_FIELD = "timestamp";
+    private static final String GEN1_COUNTERS_FIELD = "counters";
+    private static final String GEN1_TOTAL_FIELD = "total";
+    // the total of meters is in watt-minutes, the total of emeters in Wh
+    static final double GEN1_WATT_MINUTES_PER_WH = 60.0;
+    // Gen 2+ (RPC) fields
+    private static final String RPC_RESULT_FIELD = "result";
+    private static final String RPC_PARAMS_FIELD = "params";
+    private static final String RPC_TIMESTAMP_FIELD = "ts";
+    private static final String RPC_ID_FIELD = "id";
+    private static final String RPC_SYSTEM_FIELD = "sys";
+    private static final String RPC_UNIXTIME_FIELD = "unixtime";
+    private static final String RPC_APP_FIELD = "app";
+    // Gen 2+ components with apower and aenergy
+    private static final String RPC_SWITCH_PREFIX = "switch:";
+    private static final String RPC_COVER_PREFIX = "cover:";
+    private static final String RPC_PM1_PREFIX = "pm1:";
+    private static final String RPC_POWER_FIELD = "apower";
+    private static final String RPC_TOTAL_ENERGY_FIELD = "aenergy";
+    private static final String RPC_TOTAL_FIELD = "total";
+    // Gen 2+ single phase energy meters, power in em1 and energy in em1data
+    private static final String RPC_EM1_PREFIX = "em1:";
+    private static final String RPC_EM1_DATA_PREFIX = "em1data:";
+    private static final String RPC_ACT_POWER_FIELD = "act_power";
+    private static final String RPC_TOTAL_ACT_ENERGY_FIELD = "total_act_energy";
+    // Gen 2+ three phase energy meters, power in em and energy in emdata, fields prefixed with the phase (a_, b_, c_)
+    private static final String RPC_EM_PREFIX = "em:";
+    private static final String RPC_EM_DATA_PREFIX = "emdata:";
+    private static final int RPC_PHASE_PREFIX_LENGTH = 2;
+    // device identification (/shelly), type and auth for Gen 1, gen, model and auth_en for Gen 2+
+    private static final String INFO_GEN_FIELD = "gen";
+    private static final String INFO_MAC_FIELD = "mac";
+    private static final String INFO_TYPE_FIELD = "type";
+    private static final String INFO_MODEL_FIELD = "model";
+    private static final String INFO_AUTH_FIELD = "auth";
+    private static final String INFO_AUTH_ENABLED_FIELD = "auth_en";
+    private static final int INFO_FIRST_RPC_GEN = 2;
+
+    private StatusParser() {
+    }
+
+    /**
+     * Parses all meters and energy meters of a <code>/status</code> response of a Gen 1 device. <br>
+     * Channels are numbered in order of the <code>meters</code> followed by the <code>emeters</code>.
+     * Energy meters have no timestamp of their own, they get the <code>unixtime</code> of the device.
+     * The <code>total</code> of meters is counted in watt-minutes, the one of energy meters in Wh, both are returned in Wh.
+     *
+     * @return the meters, empty if the response contains no meters
+     */
+    static List<Meter> parseHttpApiStatus(byte[] json) throws IOException {
+        try (JsonParser parser = JSON_FACTORY.createParser(json)) {
+            return parseHttpApiStatus(parser);
+        }
+    }
+
+    static List<Meter> parseHttpApiStatus(JsonParser parser) throws IOException {
+        List<Meter> meters = new ArrayList<>();
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+            return meters;
+        }
+        List<Meter> emeters = List.of();
+        long unixtime = 0;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            JsonToken value = parser.nextToken();
+            if (GEN1_METERS_FIELD.equals(field) && value == JsonToken.START_ARRAY) {
+                readHttpApiMeters(parser, meters, GEN1_WATT_MINUTES_PER_WH);
+            } else if (GEN1_EMETERS_FIELD.equals(field) && value == JsonToken.START_ARRAY) {
+                emeters = new ArrayList<>();
+                readHttpApiMeters(parser, emeters, 1);
+            } else if (GEN1_UNIXTIME_FIELD.equals(field)) {
+                unixtime = parser.getValueAsLong();
+            } else {
+                parser.skipChildren();
+            }
+        }
+        meters.addAll(emeters);
+        for (int channel = 0; channel < meters.size(); channel++) {
+            Meter meter = meters.get(channel);
+            meter.setChannel(channel);
+            if (meter.getTimestamp() == 0) {
+                meter.setTimestamp(unixtime);
+            }
+        }
+        return meters;
+    }
+
+    private static void readHttpApiMeters(JsonParser parser, List<Meter> meters, double totalPerWh) throws IOException {
+        while (parser.nextToken() == JsonToken.START_OBJECT) {
+            meters.add(readHttpApiMeter(parser, totalPerWh));
+        }
+    }
+
+    /**
+     * @param totalPerWh unit of the <code>total</code> of the meter per Wh, the total of the returned meter is in Wh
+     */
+    private static Meter readHttpApiMeter(JsonParser parser, double totalPerWh) throws IOException {
+        Meter meter = new Meter();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            JsonToken value = parser.nextToken();
+            switch (field) {
+                case GEN1_POWER_FIELD -> meter.setPower(parser.getValueAsDouble());
+                case GEN1_VALID_FIELD -> meter.setIs_valid(parser.getValueAsBoolean());
+                case GEN1_TIMESTAMP_FIELD -> meter.setTimestamp(parser.getValueAsLong());
+                case GEN1_TOTAL_FIELD -> meter.setTotal(parser.getValueAsDouble() / totalPerWh);
+                case GEN1_COUNTERS_FIELD -> {
+                    if (value == JsonToken.START_ARRAY) {
+                        meter.setCounters(readDoubleArray(parser));
+                    } else {
+                        parser.skipChildren();
+                    }
+                }
+                default -> parser.skipChildren();
+            }
+        }
+        return meter;
+    }
+
+    private static double[] readDoubleArray(JsonParser parser) throws IOException {
+        double[] values = new double[EM_PHASES];
+        int size = 0;
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = parser.getValueAsDouble();
+        }
+        return size == values.length ? values : Arrays.copyOf(values, size);
+    }
+
+    /**
+     * Parses all switches, covers, power meters and energy meter phases of a <code>Shelly.GetStatus</code> response,
+     * together with the device time from <code>sys.unixtime</code>. <br>
+     * Every component type has its own range of channels: switches use their component id as channel,
+     * covers, power meters and single phase energy meters their id after the first channel of their type
+     * ({@link #COVER_FIRST_CHANNEL}, {@link #PM1_FIRST_CHANNEL}, {@link #EM1_FIRST_CHANNEL}),
+     * phases of three phase energy meters (<code>em:N</code>) use <code>{@link #EM_FIRST_CHANNEL} + N * 3 + phase</code>.
+     *
+     * @return the meters ordered by channel, empty if the response contains no metering component
+     */
+    static List<Meter> parseRpcStatus(byte[] json) throws IOException {
+        try (JsonParser parser = JSON_FACTORY.createParser(json)) {
+            return parseRpcStatus(parser);
+        }
+    }
+
+    static List<Meter> parseRpcStatus(JsonParser parser) throws IOException {
+        List<Meter> channels = new ArrayList<>();
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+            return channels;
+        }
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            JsonToken value = parser.nextToken();
+            if (RPC_RESULT_FIELD.equals(field) && value == JsonToken.START_OBJECT) {
+                long unixtime = readRpcComponents(parser, channels, channels);
+                for (Meter channel : channels) {
+                    channel.setTimestamp(unixtime);
+                }
+                channels.sort(BY_CHANNEL);
+                return channels;
+            }
+            parser.skipChildren();
+        }
+        return channels;
+    }
+
+    /**
+     * Parses power and energy of a component status response, e.g. <code>Switch.GetStatus</code> or <code>PM1.GetStatus</code>.
+     * The response contains no device time.
+     *
+     * @param firstChannel first channel of the component type, e.g. {@link #PM1_FIRST_CHANNEL}
+     * @return the meter or <code>null</code> if the response contains no result, e.g. an error
+     */
+    static Meter parseRpcComponentStatus(byte[] json, int firstChannel) throws IOException {
+        try (JsonParser parser = JSON_FACTORY.createParser(json)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return null;
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                JsonToken value = parser.nextToken();
+                if (RPC_RESULT_FIELD.equals(field) && value == JsonToken.START_OBJECT) {
+                    Meter meter = new Meter();
+                    meter.setChannel(firstChannel);
+                    readRpcSwitch(parser, meter, firstChannel);
+                    return meter;
+                }
+                parser.skipChildren();
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Parses power and energy of a component status without RPC envelope, e.g. the payload of the MQTT topic
+     * <code>&lt;id&gt;/status/switch:0</code>. The status contains no device time.
+     *
+     * @param component the component, e.g. <code>switch:0</code> or <code>pm1:0</code>
+     * @return the meter or <code>null</code> if the payload is no JSON object
+     */
+    static Meter parseRpcComponent(byte[] json, String component) throws IOException {
+        int firstChannel = component.startsWith(RPC_PM1_PREFIX) ? PM1_FIRST_CHANNEL
+                : component.startsWith(RPC_COVER_PREFIX) ? COVER_FIRST_CHANNEL
+                : SWITCH_FIRST_CHANNEL;
+        try (JsonParser parser = JSON_FACTORY.createParser(json)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return null;
+            }
+            Meter meter = new Meter();
+            meter.setChannel(firstChannel + Integer.parseInt(component, component.indexOf(':') + 1, component.length(), 10));
+            readRpcSwitch(parser, meter, firstChannel);
+            return meter;
+        }
+    }
+
+    /**
+     * Reads the <code>app</code> (device family, e.g. <code>PlusPlugS</code>) of a <code>Shelly.GetDeviceInfo</code> response.
+     */
+    static String parseRpcDeviceInfoApp(byte[] json) throws IOException {
+        try (JsonParser parser = JSON_FACTORY.createParser(json)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return null;
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                JsonToken value = parser.nextToken();
+                if (RPC_RESULT_FIELD.equals(field) && value == JsonToken.START_OBJECT) {
+                    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                        String resultField = parser.currentName();
+                        parser.nextToken();
+                        if (RPC_APP_FIELD.equals(resultField)) {
+                            return parser.getValueAsString();
+                        }
+                        parser.skipChildren();
+                    }
+                    return null;
+                }
+                parser.skipChildren();
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Parses the identification <code>/shelly</code> that devices of all generations serve without authentication. <br>
+     * Gen 2+ devices report their generation in <code>gen</code> and their family in <code>app</code>,
+     * Gen 1 devices have no <code>gen</code> but a <code>type</code>, e.g. <code>SHPLG-S</code>.
+     *
+     * @param ip address the response was received from
+     * @return the device or <code>null</code> if the response does not identify a Shelly device
+     */
+    static DeviceInventory.Entry parseShellyInfo(String ip, byte[] json) throws IOException {
+        try (JsonParser parser = JSON_FACTORY.createParser(json)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return null;
+            }
+            int gen = 1;
+            String mac = null;
+            String model = null;
+            String app = null;
+            boolean auth = false;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                JsonToken value = parser.nextToken();
+                switch (field) {
+                    case INFO_GEN_FIELD -> gen = parser.getValueAsInt(1);
+                    case INFO_MAC_FIELD -> mac = parser.getValueAsString();
+                    case INFO_TYPE_FIELD, INFO_MODEL_FIELD -> model = parser.getValueAsString();
+                    case RPC_APP_FIELD -> app = parser.getValueAsString();
+                    case INFO_AUTH_FIELD, INFO_AUTH_ENABLED_FIELD -> auth = value == JsonToken.VALUE_TRUE;
+                    default -> parser.skipChildren();
+                }
+            }
+            if (mac == null || model == null) {
+                return null;
+            }
+            String generation = gen >= INFO_FIRST_RPC_GEN ? ShellyDevice.SHELLY_GEN2PLUS_ARG : ShellyDevice.SHELLY_GEN1_ARG;
+            return new DeviceInventory.Entry(ip, generation, mac, model, app, auth);
+        }
+    }
+
+    /**
+     * Applies a <code>NotifyStatus</code> or <code>NotifyFullStatus</code> notification of a Gen 2+ device to the last known channels. <br>
+     * Notifications only contain the values that changed, so power and energy of a channel are only overwritten if present.
+     * The device time of the changed channels is taken from the <code>ts</code> of the notification.
+     *
+     * @param channels last known channels of the device, new channels are added
+     * @return the channels changed by the notification, empty if no metering component changed
+     */
+    static List<Meter> applyRpcNotification(byte[] json, List<Meter> channels) throws IOException {
+        List<Meter> changed = new ArrayList<>();
+        try (JsonParser parser = JSON_FACTORY.createParser(json)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return changed;
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                JsonToken value = parser.nextToken();
+                if (RPC_PARAMS_FIELD.equals(field) && value == JsonToken.START_OBJECT) {
+                    long timestamp = readRpcComponents(parser, channels, changed);
+                    for (Meter channel : changed) {
+                        channel.setTimestamp(timestamp);
+                    }
+                    changed.sort(BY_CHANNEL);
+                    return changed;
+                }
+                parser.skipChildren();
+            }
+            return changed;
+        }
+    }
+
+    /**
+     * Reads all metering components of an RPC status object (<code>result</code> or notification <code>params</code>).
+     *
+     * @param channels known channels, channels of new components are added
+     * @param changed  receives every channel power or energy was read for
+     * @return the device time, <code>ts</code> of a notification or <code>sys.unixtime</code>
+     */
+    private static long readRpcComponents(JsonParser parser, List<Meter> channels, List<Meter> changed) throws IOException {
+        long notificationTime = 0;
+        long unixtime = 0;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            JsonToken value = parser.nextToken();
+            if (RPC_TIMESTAMP_FIELD.equals(field)) {
+                notificationTime = (long) parser.getValueAsDouble();
+            } else if (value != JsonToken.START_OBJECT) {
+                parser.skipChildren();
+            } else if (RPC_SYSTEM_FIELD.equals(field)) {
+                unixtime = readRpcUnixtime(parser);
+            } else if (field.startsWith(RPC_SWITCH_PREFIX)) {
+                Meter meter = channel(channels, SWITCH_FIRST_CHANNEL + componentId(field, RPC_SWITCH_PREFIX));
+                markChanged(channels, changed, meter, readRpcSwitch(parser, meter, SWITCH_FIRST_CHANNEL));
+            } else if (field.startsWith(RPC_COVER_PREFIX)) {
+                Meter meter = channel(channels, COVER_FIRST_CHANNEL + componentId(field, RPC_COVER_PREFIX));
+                markChanged(channels, changed, meter, readRpcSwitch(parser, meter, COVER_FIRST_CHANNEL));
+            } else if (field.startsWith(RPC_PM1_PREFIX)) {
+                Meter meter = channel(channels, PM1_FIRST_CHANNEL + componentId(field, RPC_PM1_PREFIX));
+                markChanged(channels, changed, meter, readRpcSwitch(parser, meter, PM1_FIRST_CHANNEL));
+            } else if (field.startsWith(RPC_EM1_PREFIX)) {
+                Meter meter = channel(channels, EM1_FIRST_CHANNEL + componentId(field, RPC_EM1_PREFIX));
+                markChanged(channels, changed, meter, readRpcEm1(parser, meter));
+            } else if (field.startsWith(RPC_EM1_DATA_PREFIX)) {
+                Meter meter = channel(channels, EM1_FIRST_CHANNEL + componentId(field, RPC_EM1_DATA_PREFIX));
+                markChanged(channels, changed, meter, readRpcEm1(parser, meter));
+            } else if (field.startsWith(RPC_EM_PREFIX)) {
+                readRpcEm(parser, channels, changed, componentId(field, RPC_EM_PREFIX));
+            } else if (field.startsWith(RPC_EM_DATA_PREFIX)) {
+                readRpcEm(parser, channels, changed, componentId(field, RPC_EM_DATA_PREFIX));
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return notificationTime != 0 ? notificationTime : unixtime;
+    }
+
+    private static int componentId(String field, String prefix) {
+        return Integer.parseInt(field, prefix.length(), field.length(), 10);
+    }
+
+    private static Meter channel(List<Meter> channels, int channel) {
+        Meter meter = null;
+        for (Meter known : channels) {
+            if (known.getChannel() == channel) {
+                meter = known;
+                break;
+            }
+        }
+        if (meter == null) {
+            meter = new Meter();
+            meter.setChannel(channel);
+            channels.add(meter);
+        }
+        return meter;
+    }
+
+    /**
+     * Adds a channel to the changed channels of a notification if power or energy was read for it,
+     * a notification of e.g. only the <code>output</code> or <code>temperature</code> of a switch changes no channel.
+     */
+    private static void markChanged(List<Meter> channels, List<Meter> changed, Meter meter, boolean metered) {
+        if (metered && changed != channels && !changed.contains(meter)) {
+            changed.add(meter);
+        }
+    }
+
+    /**
+     * @return whether power or energy was read
+     */
+    private static boolean readRpcSwitch(JsonParser parser, Meter meter, int firstChannel) throws IOException {
+        boolean metered = false;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            JsonToken value = parser.nextToken();
+            if (RPC_POWER_FIELD.equals(field)) {
+                meter.setPower(parser.getValueAsDouble());
+                metered = true;
+            } else if (RPC_ID_FIELD.equals(field)) {
+                meter.setChannel(firstChannel + parser.getValueAsInt());
+            } else if (RPC_TOTAL_ENERGY_FIELD.equals(field) && value == JsonToken.START_OBJECT) {
+                metered |= readRpcTotalEnergy(parser, meter);
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return metered;
+    }
+
+    private static boolean readRpcTotalEnergy(JsonParser parser, Meter meter) throws IOException {
+        boolean metered = false;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            parser.nextToken();
+            if (RPC_TOTAL_FIELD.equals(field)) {
+                meter.setTotal(parser.getValueAsDouble());
+                metered = true;
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return metered;
+    }
+
+    private static boolean readRpcEm1(JsonParser parser, Meter meter) throws IOException {
+        boolean metered = false;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            parser.nextToken();
+            if (RPC_ACT_POWER_FIELD.equals(field)) {
+                meter.setPower(parser.getValueAsDouble());
+                metered = true;
+            } else if (RPC_TOTAL_ACT_ENERGY_FIELD.equals(field)) {
+                meter.setTotal(parser.getValueAsDouble());
+                metered = true;
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return metered;
+    }
+
+    private static void readRpcEm(JsonParser parser, List<Meter> channels, List<Meter> changed, int id) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            parser.nextToken();
+            int phase = phase(field);
+            int channel = EM_FIRST_CHANNEL + id * EM_PHASES + phase;
+            if (phase >= 0 && isPhaseField(field, RPC_ACT_POWER_FIELD)) {
+                Meter meter = channel(channels, channel);
+                meter.setPower(parser.getValueAsDouble());
+                markChanged(channels, changed, meter, true);
+            } else if (phase >= 0 && isPhaseField(field, RPC_TOTAL_ACT_ENERGY_FIELD)) {
+                Meter meter = channel(channels, channel);
+                meter.setTotal(parser.getValueAsDouble());
+                markChanged(channels, changed, meter, true);
+            } else {
+                parser.skipChildren();
+            }
+        }
+    }
+
+    /**
+     * @return the phase (0 to 2) of a field prefixed with <code>a_</code>, <code>b_</code> or <code>c_</code>, otherwise -1
+     */
+    private static int phase(String field) {
+        if (field.length() <= RPC_PHASE_PREFIX_LENGTH || field.charAt(1) != '_') {
+            return -1;
+        }
+        int phase = field.charAt(0) - 'a';
+        return phase >= 0 && phase < EM_PHASES ? phase : -1;
+    }
+
+    private static boolean isPhaseField(String field, String name) {
+        return field.length() == RPC_PHASE_PREFIX_LENGTH + name.length() && field.endsWith(name);
+    }
+
+    private static long readRpcUnixtime(JsonParser parser) throws IOException {
+        long unixtime = 0;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            parser.nextToken();
+            if (RPC_UNIXTIME_FIELD.equals(field)) {
+                unixtime = parser.getValueAsLong();
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return unixtime;
+    }
+
+}
@@ -0,0 +1,76 @@
+package edu.hm.greenit.tools.shelly;
+
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpServer;
+import io.vertx.core.http.ServerWebSocket;
+import org.jboss.logging.Logger;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BiConsumer;
+
+/**
+ * Push source for Gen 2+ devices using the outbound WebSocket of the device. <br>
+ * Devices configured with <code>ws://&lt;host&gt;:&lt;port&gt;/</code> as outbound WebSocket server connect to this server
+ * and send <code>NotifyFullStatus</code> on connect and <code>NotifyStatus</code> whenever a value changes.
+ * Every channel changed by a notification is emitted as a {@link Meter}, so the time resolution is given by the
+ * device and no requests are sent while the load is idle.
+ * All connections are served by the Vert.x event loops, one connection only holds the last known {@link Meter} per channel.
+ * For API documentation see: <a href="https://shelly-api-docs.shelly.cloud/gen2/ComponentsAndServices/WS">Outbound WebSocket</a>
+ */
+public class WebSocketPushServer {
+
+    private static final Logger LOGGER = Logger.getLogger(WebSocketPushServer.class);
+
+    private final BiConsumer<String, Meter> meterConsumer;
+    private HttpServer server;
+
+    /**
+     * @param meterConsumer receives the ip of the device and the current {@link Meter} of every channel changed by a notification
+     */
+    public WebSocketPushServer(BiConsumer<String, Meter> meterConsumer) {
+        this.meterConsumer = meterConsumer;
+    }
+
+    public Future<HttpServer> start(Vertx vertx, int port) {
+        return vertx.createHttpServer()
+                .webSocketHandler(this::handleConnection)
+                .listen(port)
+                .onSuccess(started -> {
+                    server = started;
+                    LOGGER.info("Waiting for shelly devices on ws://0.0.0.0:" + started.actualPort());
+                });
+    }
+
+    public Future<Void> stop() {
+        return server == null ? Future.succeededFuture() : server.close();
+    }
+
+    private void handleConnection(ServerWebSocket webSocket) {
+        String ip = webSocket.remoteAddress().hostAddress();
+        List<Meter> channels = new ArrayList<>();
+        LOGGER.debug("Shelly device connected: " + ip);
+        webSocket.textMessageHandler(message -> handleNotification(ip, channels, message));
+        webSocket.closeHandler(closed -> LOGGER.debug("Shelly device disconnected: " + ip));
+        webSocket.exceptionHandler(e -> LOGGER.warn("Connection to " + ip + " failed: " + e.getMessage()));
+    }
+
+    private void handleNotification(String ip, List<Meter> channels, String message) {
+        try {
+            for (Meter changed : StatusParser.applyRpcNotification(message.getBytes(StandardCharsets.UTF_8), channels)) {
+                Meter meter = new Meter();
+                meter.setChannel(changed.getChannel());
+                meter.setPower(changed.getPower());
+                meter.setTotal(changed.getTotal());
+                meter.setTimestamp(changed.getTimestamp());
+                meterConsumer.accept(ip, meter);
+            }
+        } catch (IOException e) {
+            LOGGER.warn("Unreadable notification of " + ip + ": " + message);
+        }
+    }
+
+}
@@ -0,0 +1,148 @@
+package edu.hm.greenit.tools.shelly;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static edu.hm.greenit.tools.shelly.SampleWriterTest.meter;
+
+public class DeadbandSinkTest {
+
+    private static final String IP = "192.168.1.20";
+
+    private final CollectingSink collected = new CollectingSink();
+
+    @Test
+    public void testSamplesWithinTheDeadbandAreSuppressed() throws IOException {
+        DeadbandSink sink = new DeadbandSink(collected, 1.0, 0, Duration.ofMinutes(1));
+        sink.write(sample(0, 10.0, 5.0));
+        sink.write(sample(1, 10.5, 5.0));
+        sink.write(sample(2, 9.2, 5.0));
+        sink.write(sample(3, 25.0, 5.0));
+        sink.write(sample(4, 25.0, 5.0));
+
+        // 9.2 is written as the last power before the step to 25
+        Assertions.assertEquals(List.of(10.0, 9.2, 25.0), collected.powers());
+        Assertions.assertEquals(1, sink.getSuppressedSamples());
+        sink.close();
+        Assertions.assertEquals(List.of(10.0, 9.2, 25.0, 25.0), collected.powers());
+        Assertions.assertTrue(collected.closed);
+    }
+
+    @Test
+    public void testEveryEnergyCounterChangeIsWritten() throws IOException {
+        DeadbandSink sink = new DeadbandSink(collected, 5.0, 0, Duration.ofMinutes(1));
+        Set<Double> totals = new TreeSet<>();
+        for (int i = 0; i < 600; i++) {
+            // an idle device, the counter increases every 100 seconds
+            double total = 100.0 + i / 100;
+            totals.add(total);
+            sink.write(sample(i, 0.4 + (i % 3) * 0.1, total));
+        }
+        sink.close();
+
+        Assertions.assertEquals(totals, new TreeSet<>(collected.totals()));
+        Assertions.assertTrue(collected.samples.size() * 10 < 600, "written: " + collected.samples.size());
+    }
+
+    @Test
+    public void testRelativeDeadbandAndHeartbeat() throws IOException {
+        DeadbandSink sink = new DeadbandSink(collected, 0, 0.1, Duration.ofSeconds(10));
+        sink.write(sample(0, 1000.0, 1.0));
+        sink.write(sample(1, 1090.0, 1.0));
+        sink.write(sample(2, 1110.0, 1.0));
+        for (int i = 3; i <= 13; i++) {
+            sink.write(sample(i, 1110.0, 1.0));
+        }
+
+        // 1090 is within 10% of 1000 but written before 1110, the heartbeat writes the sample of second 12
+        Assertions.assertEquals(List.of(0L, 1L, 2L, 12L), collected.times());
+    }
+
+    @Test
+    public void testChannelsAreFilteredIndependently() throws IOException {
+        DeadbandSink sink = new DeadbandSink(collected, 1.0, 0, Duration.ofMinutes(1));
+        sink.write(new Sample(IP, timed(0, meter(0, 10.0, 1.0, 0))));
+        sink.write(new Sample(IP, timed(0, meter(0, 10.0, 1.0, 7))));
+        sink.write(new Sample("192.168.1.21", timed(0, meter(0, 10.0, 1.0, 0))));
+        sink.write(new Sample(IP, timed(1, meter(1, 10.0, 1.0, 7))));
+        // energy meter phases
+        for (int phase = 0; phase < 3; phase++) {
+            sink.write(new Sample(IP, timed(1, meter(1, 10.0, 1.0, StatusParser.EM_FIRST_CHANNEL + phase))));
+            sink.write(new Sample(IP, timed(2, meter(2, 10.0, 1.0, StatusParser.EM_FIRST_CHANNEL + phase))));
+        }
+
+        Assertions.assertEquals(6, collected.samples.size());
+    }
+
+    @Test
+    public void testFilteringDoesNotAllocate() throws IOException {
+        DeadbandSink sink = new DeadbandSink(collected, 1.0, 0, Duration.ofDays(1));
+        Sample[] samples = new Sample[1000];
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = sample(i, 10.0, 5.0);
+        }
+        for (int round = 0; round < 20; round++) {
+            for (Sample sample : samples) {
+                sink.write(sample);
+            }
+        }
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long before = threads.getCurrentThreadAllocatedBytes();
+        for (Sample sample : samples) {
+            sink.write(sample);
+        }
+        long allocated = threads.getCurrentThreadAllocatedBytes() - before;
+
+        Assertions.assertTrue(allocated < 1024, "allocated " + allocated + " bytes");
+        Assertions.assertEquals(1, collected.samples.size());
+    }
+
+    private static Sample sample(long second, double power, double total) {
+        return new Sample(IP, timed(second, meter(second, power, total, 0)));
+    }
+
+    private static Meter timed(long second, Meter meter) {
+        meter.setReceivedAt(second * 1_000_000);
+        return meter;
+    }
+
+    private static final class CollectingSink implements SampleSink {
+        private final List<Sample> samples = new ArrayList<>();
+        private boolean closed;
+
+        @Override
+        public void write(Sample sample) {
+            samples.add(sample);
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+
+        List<Double> powers() {
+            return samples.stream().map(sample -> sample.meter().getPower()).toList();
+        }
+
+        List<Double> totals() {
+            return samples.stream().map(sample -> sample.meter().getTotal()).toList();
+        }
+
+        List<Long> times() {
+            return samples.stream().map(sample -> sample.meter().getTimestamp()).toList();
+        }
+    }
+
+}
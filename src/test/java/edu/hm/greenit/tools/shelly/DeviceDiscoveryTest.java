@@ -0,0 +1,133 @@
+package edu.hm.greenit.tools.shelly;
+
+import io.vertx.core.Vertx;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+public class DeviceDiscoveryTest {
+
+    private static final String PASSWORD = "secret";
+    private static final int DEVICES = 4;
+
+    @TempDir
+    Path directory;
+
+    private Vertx vertx;
+    private ShellySimulator simulator;
+
+    @BeforeEach
+    public void startSimulator() throws Exception {
+        vertx = Vertx.vertx();
+        simulator = new ShellySimulator(vertx, new ShellySimulator.Settings(0.5, Duration.ZERO, Duration.ZERO, 0, 0,
+                PASSWORD, Duration.ofMinutes(1), ShellySimulator.Waveform.CONSTANT, 100, Duration.ofMinutes(1)));
+        simulator.start(DEVICES).toCompletionStage().toCompletableFuture().get(5, TimeUnit.SECONDS);
+    }
+
+    @AfterEach
+    public void stopSimulator() throws Exception {
+        vertx.close().toCompletionStage().toCompletableFuture().get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testExpandAddressRanges() {
+        List<String> subnet = DeviceDiscovery.expand("192.168.1.0/24");
+        Assertions.assertEquals(254, subnet.size());
+        Assertions.assertEquals("192.168.1.1", subnet.getFirst());
+        Assertions.assertEquals("192.168.1.254", subnet.getLast());
+        // host bits are ignored, network and broadcast address are skipped
+        Assertions.assertEquals(List.of("10.0.0.5", "10.0.0.6"), DeviceDiscovery.expand("10.0.0.6/30"));
+        Assertions.assertEquals(List.of("10.0.0.7"), DeviceDiscovery.expand("10.0.0.7/32"));
+        Assertions.assertEquals(List.of("shelly.local:8080"), DeviceDiscovery.expand(" shelly.local:8080 "));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> DeviceDiscovery.expand("10.0.0.0/8"));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> DeviceDiscovery.expand("10.0.0.0/x"));
+    }
+
+    @Test
+    public void testDevicesArePickedByGenerationAndPersisted() throws Exception {
+        List<String> addresses = new ArrayList<>();
+        for (int i = 0; i < DEVICES; i++) {
+            addresses.add(simulator.getIp(i));
+        }
+        addresses.add(ShellySimulator.HOST + ":" + closedPort());
+        Path inventoryFile = directory.resolve("inventory.csv");
+        DeviceInventory inventory = DeviceInventory.read(inventoryFile);
+
+        List<DeviceInventory.Entry> found;
+        try (DeviceDiscovery discovery = new DeviceDiscovery(addresses, Duration.ofSeconds(2), inventory, inventoryFile)) {
+            found = discovery.discover();
+            Assertions.assertEquals(List.of(), discovery.discover(), "devices are only new once");
+        }
+
+        Assertions.assertEquals(DEVICES, found.size());
+        for (DeviceInventory.Entry entry : found) {
+            Assertions.assertTrue(entry.auth());
+            ShellyDevice device = entry.toDevice(PASSWORD, RpcStatusMethod.AUTO);
+            if (entry.generation().equals(ShellyDevice.SHELLY_GEN1_ARG)) {
+                Assertions.assertEquals("SHPLG-S", entry.model());
+                Assertions.assertInstanceOf(HttpApiReader.class, device.getReader());
+            } else {
+                Assertions.assertEquals("PlusPlugS", entry.app());
+                Assertions.assertInstanceOf(RpcReader.class, device.getReader());
+            }
+            Assertions.assertEquals(100.0, device.getReader().readPowerConsumption().getFirst().getPower());
+        }
+        Assertions.assertEquals(2, found.stream().filter(entry -> entry.generation().equals(ShellyDevice.SHELLY_GEN1_ARG)).count());
+        Assertions.assertEquals(found, DeviceInventory.read(inventoryFile).getEntries());
+        Assertions.assertTrue(Files.readAllLines(inventoryFile).getFirst().startsWith("#"));
+    }
+
+    @Test
+    public void testRefreshReportsOnlyNewDevices() throws Exception {
+        List<String> addresses = new ArrayList<>();
+        for (int i = 0; i < DEVICES; i++) {
+            addresses.add(simulator.getIp(i));
+        }
+        Path inventoryFile = directory.resolve("inventory.csv");
+        DeviceInventory inventory = new DeviceInventory();
+        try (DeviceDiscovery first = new DeviceDiscovery(addresses.subList(0, 1), Duration.ofSeconds(2), inventory,
+                inventoryFile)) {
+            Assertions.assertEquals(1, first.discover().size());
+        }
+
+        BlockingQueue<List<DeviceInventory.Entry>> refreshes = new LinkedBlockingQueue<>();
+        try (DeviceDiscovery discovery = new DeviceDiscovery(addresses, Duration.ofSeconds(2), inventory, inventoryFile)) {
+            discovery.startRefresh(Duration.ofMillis(50), refreshes::add);
+            List<DeviceInventory.Entry> added = refreshes.poll(5, TimeUnit.SECONDS);
+            Assertions.assertNotNull(added);
+            Assertions.assertEquals(addresses.subList(1, DEVICES), added.stream().map(DeviceInventory.Entry::ip).toList());
+        }
+        Assertions.assertEquals(DEVICES, DeviceInventory.read(inventoryFile).getEntries().size());
+    }
+
+    @Test
+    public void testOtherHttpServersAreNoShellyDevices() throws Exception {
+        Assertions.assertNull(StatusParser.parseShellyInfo("10.0.0.1", "{\"status\": \"ok\"}".getBytes()));
+        DeviceInventory.Entry gen3 = StatusParser.parseShellyInfo("10.0.0.2", """
+                {"name": "desk", "id": "shelly1pmminig3-54320464a1b2", "mac": "54320464A1B2", "slot": 0,
+                 "model": "S3SW-001P8EU", "gen": 3, "fw_id": "20240819-074343/1.4.2-gc2639da", "ver": "1.4.2",
+                 "app": "Mini1PMG3", "auth_en": false, "auth_domain": null}
+                """.getBytes());
+        Assertions.assertEquals(new DeviceInventory.Entry("10.0.0.2", ShellyDevice.SHELLY_GEN2PLUS_ARG, "54320464A1B2",
+                "S3SW-001P8EU", "Mini1PMG3", false), gen3);
+    }
+
+    private static int closedPort() throws Exception {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+}
@@ -0,0 +1,75 @@
+package edu.hm.greenit.tools.shelly;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+public class DeviceHealthTest {
+
+    private static final long MS = 1_000_000;
+    private static final DeviceHealth.Settings SETTINGS = new DeviceHealth.Settings(Duration.ofMillis(100), Duration.ofSeconds(5),
+            Duration.ofSeconds(1), 3, Duration.ofSeconds(30));
+
+    @Test
+    public void testTimeoutAdaptsToLatency() {
+        DeviceHealth health = new DeviceHealth(SETTINGS);
+        Assertions.assertEquals(Duration.ofSeconds(5), health.getTimeout());
+
+        for (int i = 0; i < 50; i++) {
+            health.recordSuccess(40 * MS);
+        }
+        // stable latency: variation decays, the minimum applies
+        Assertions.assertEquals(Duration.ofMillis(100), health.getTimeout());
+
+        health.recordSuccess(400 * MS);
+        Assertions.assertTrue(health.getTimeout().compareTo(Duration.ofMillis(400)) > 0, health.getTimeout().toString());
+    }
+
+    @Test
+    public void testTimeoutDoublesAfterTimeouts() {
+        DeviceHealth health = new DeviceHealth(SETTINGS);
+        for (int i = 0; i < 50; i++) {
+            health.recordSuccess(40 * MS);
+        }
+        health.recordFailure(0, true);
+        Assertions.assertEquals(Duration.ofMillis(200), health.getTimeout());
+        health.recordFailure(0, true);
+        Assertions.assertEquals(Duration.ofMillis(400), health.getTimeout());
+        health.recordSuccess(40 * MS);
+        Assertions.assertEquals(Duration.ofMillis(100), health.getTimeout());
+    }
+
+    @Test
+    public void testBackoffAndCircuitBreaker() {
+        DeviceHealth health = new DeviceHealth(SETTINGS);
+        long now = 0;
+        Assertions.assertTrue(health.isReadDue(now));
+
+        Assertions.assertFalse(health.recordFailure(now, false));
+        Assertions.assertFalse(health.isReadDue(now + 999 * MS));
+        Assertions.assertTrue(health.isReadDue(now + 1000 * MS));
+
+        now += 1000 * MS;
+        Assertions.assertFalse(health.recordFailure(now, false));
+        // second failure: twice the backoff
+        Assertions.assertFalse(health.isReadDue(now + 1999 * MS));
+        Assertions.assertTrue(health.isReadDue(now + 2000 * MS));
+
+        now += 2000 * MS;
+        Assertions.assertTrue(health.recordFailure(now, false));
+        Assertions.assertTrue(health.isOpen());
+        Assertions.assertFalse(health.isReadDue(now + 29_999 * MS));
+        Assertions.assertTrue(health.isReadDue(now + 30_000 * MS));
+
+        // failed probe keeps the circuit open
+        now += 30_000 * MS;
+        Assertions.assertFalse(health.recordFailure(now, false));
+        Assertions.assertTrue(health.isOpen());
+
+        Assertions.assertTrue(health.recordSuccess(10 * MS));
+        Assertions.assertFalse(health.isOpen());
+        Assertions.assertTrue(health.isReadDue(now));
+    }
+
+}
@@ -1,9 +1,11 @@
 package edu.hm.greenit.tools.shelly;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 
+import java.io.IOException;
+import java.util.List;
+
 public class HttpApiReaderTest {
 
     private String testResponse = """
@@ -67,9 +69,62 @@ public class HttpApiReaderTest {
             """;
 
     @Test
-    public void testParseResponse() throws JsonProcessingException {
-        Meter value = HttpApiReader.parsePowerConsumption(testResponse);
+    public void testParseResponse() throws IOException {
+        Meter value = HttpApiReader.parsePowerConsumption(testResponse).get(0);
         Assertions.assertEquals(70.24d, value.getPower());
     }
 
+    @Test
+    public void testParseResponseReadsEnergyAndTimestamp() throws IOException {
+        Meter value = HttpApiReader.parsePowerConsumption(testResponse).get(0);
+        // 18013 watt-minutes
+        Assertions.assertEquals(18013d / 60, value.getTotal());
+        Assertions.assertEquals(1739294619L, value.getTimestamp());
+    }
+
+    @Test
+    public void testParseAllMetersAndEnergyMeters() throws IOException {
+        List<Meter> values = HttpApiReader.parsePowerConsumption("""
+                {
+                	"meters": [
+                		{"power": 12.5, "is_valid": true, "timestamp": 1739294619, "counters": [1.0, 2.0, 3.0], "total": 100},
+                		{"power": 30.0, "is_valid": true, "timestamp": 1739294619, "counters": [4.0, 5.0, 6.0], "total": 200}
+                	],
+                	"emeters": [
+                		{"power": 230.1, "reactive": 0.0, "voltage": 231.2, "is_valid": true, "total": 5000.5, "total_returned": 0.0}
+                	],
+                	"unixtime": 1739294620
+                }
+                """);
+        Assertions.assertEquals(3, values.size());
+        Assertions.assertEquals(1, values.get(1).getChannel());
+        Assertions.assertEquals(30.0d, values.get(1).getPower());
+        Assertions.assertArrayEquals(new double[]{4.0, 5.0, 6.0}, values.get(1).getCounters());
+        Assertions.assertEquals(2, values.get(2).getChannel());
+        Assertions.assertEquals(200d / 60, values.get(1).getTotal());
+        Assertions.assertEquals(5000.5d, values.get(2).getTotal());
+        Assertions.assertEquals(1739294620L, values.get(2).getTimestamp());
+    }
+
+    @Test
+    public void testCounterEnergyMatchesPowerIntegral() throws IOException {
+        EnergyIntegrator integrator = new EnergyIntegrator();
+        // 60 W for one minute, the counter of the plug advances by 60 watt-minutes
+        for (int minute = 0; minute <= 1; minute++) {
+            Meter meter = HttpApiReader.parsePowerConsumption(("""
+                    {"meters": [{"power": 60.0, "is_valid": true, "timestamp": %d, "total": %d}]}
+                    """).formatted(1739294619 + minute * 60, 18013 + minute * 60).getBytes()).get(0);
+            integrator.add(minute * 60_000_000L, meter.getPower(), meter.getTotal());
+        }
+
+        Assertions.assertEquals(1.0, integrator.getEnergy(), 1e-9);
+        Assertions.assertEquals(integrator.getEnergy(), integrator.getCounterEnergy(), 1e-9);
+    }
+
+    @Test
+    public void testBasicAuthorizationHeader() {
+        // admin:secret
+        Assertions.assertEquals("Basic YWRtaW46c2VjcmV0", HttpApiReader.basicAuthorization("secret"));
+    }
+
 }
@@ -0,0 +1,70 @@
+package edu.hm.greenit.tools.shelly;
+
+import io.vertx.core.Vertx;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class HttpClientsTest {
+
+    private static final int REQUESTS = 8;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+    private final Set<Object> connections = ConcurrentHashMap.newKeySet();
+    private Vertx vertx;
+    private int port;
+
+    @BeforeEach
+    public void startDevice() throws Exception {
+        vertx = Vertx.vertx();
+        // stand-in for a slow device, answers every request after 20 ms
+        port = vertx.createHttpServer()
+                .requestHandler(request -> {
+                    connections.add(request.connection());
+                    maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+                    vertx.setTimer(20, timer -> {
+                        inFlight.decrementAndGet();
+                        request.response().end("{}");
+                    });
+                })
+                .listen(0).toCompletionStage().toCompletableFuture().get(5, TimeUnit.SECONDS).actualPort();
+    }
+
+    @AfterEach
+    public void stopDevice() throws Exception {
+        vertx.close().toCompletionStage().toCompletableFuture().get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testConcurrentRequestsToOneHostShareOneConnection() throws Exception {
+        HttpRequest request = HttpRequest.newBuilder(URI.create("http://127.0.0.1:" + port + "/status"))
+                .timeout(Duration.ofSeconds(5))
+                .GET()
+                .build();
+        List<CompletableFuture<HttpResponse<byte[]>>> responses = new ArrayList<>();
+        for (int i = 0; i < REQUESTS; i++) {
+            responses.add(HttpClients.sendAsync(request, HttpResponse.BodyHandlers.ofByteArray()));
+        }
+        for (CompletableFuture<HttpResponse<byte[]>> response : responses) {
+            Assertions.assertEquals(200, response.get(5, TimeUnit.SECONDS).statusCode());
+        }
+
+        Assertions.assertEquals(1, maxInFlight.get());
+        Assertions.assertEquals(1, connections.size());
+    }
+
+}
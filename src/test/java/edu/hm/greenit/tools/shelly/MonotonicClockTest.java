@@ -0,0 +1,20 @@
+package edu.hm.greenit.tools.shelly;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class MonotonicClockTest {
+
+    @Test
+    public void testCloseToWallClockAndNeverBackwards() {
+        long first = MonotonicClock.currentTimeMicros();
+        Assertions.assertTrue(Math.abs(first - System.currentTimeMillis() * 1000) < 1_000_000, "more than 1s off the wall clock");
+        long previous = first;
+        for (int i = 0; i < 10_000; i++) {
+            long now = MonotonicClock.currentTimeMicros();
+            Assertions.assertTrue(now >= previous);
+            previous = now;
+        }
+    }
+
+}
@@ -0,0 +1,201 @@
+package edu.hm.greenit.tools.shelly;
+
+import io.netty.handler.codec.mqtt.MqttQoS;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.mqtt.MqttClient;
+import io.vertx.mqtt.MqttEndpoint;
+import io.vertx.mqtt.MqttServer;
+import io.vertx.mqtt.MqttServerOptions;
+import io.vertx.mqtt.MqttTopicSubscription;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class MqttSubscriberTest {
+
+    private static final String GEN1_ID = "shellyplug-s-C45BBE6A1B2C";
+    private static final String GEN2_ID = "shellyplusplugs-e465b8a1b2c3";
+    private static final String SWITCH_STATUS = """
+            {"id": 0, "source": "init", "output": true, "apower": 9.5, "voltage": 231.4, "current": 0.062,
+             "aenergy": {"total": 11009.330, "by_minute": [158.123, 160.004, 159.871], "minute_ts": 1743801600},
+             "temperature": {"tC": 33.1, "tF": 91.6}}
+            """;
+
+    private final BlockingQueue<Map.Entry<String, Meter>> meters = new LinkedBlockingQueue<>();
+    private final Map<MqttEndpoint, List<String>> subscriptions = new ConcurrentHashMap<>();
+    private final AtomicInteger connections = new AtomicInteger();
+    private final Set<String> rejectedFilters = ConcurrentHashMap.newKeySet();
+    private int brokerPort;
+    private Vertx vertx;
+    private MqttSubscriber subscriber;
+    private MqttClient device;
+
+    @BeforeEach
+    public void startBroker() throws Exception {
+        vertx = Vertx.vertx();
+        brokerPort = startEmbeddedBroker();
+        subscriber = new MqttSubscriber((id, meter) -> meters.add(Map.entry(id, meter)), null, null, null);
+        subscriber.start(vertx, "127.0.0.1", brokerPort).toCompletionStage().toCompletableFuture().get(5, TimeUnit.SECONDS);
+        // stand-in for the shelly devices publishing to the broker
+        device = MqttClient.create(vertx);
+        device.connect(brokerPort, "127.0.0.1").toCompletionStage().toCompletableFuture().get(5, TimeUnit.SECONDS);
+    }
+
+    @AfterEach
+    public void stopBroker() throws Exception {
+        subscriber.stop();
+        vertx.close().toCompletionStage().toCompletableFuture().get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testGen1RelayTopicsAreEmittedAsMeters() throws Exception {
+        publish("shellies/" + GEN1_ID + "/relay/0/energy", "18013");
+        publish("shellies/" + GEN1_ID + "/relay/0/power", "70.24");
+        publish("shellies/" + GEN1_ID + "/relay/0", "on");
+        publish("shellies/" + GEN1_ID + "/relay/0/power", "81.5");
+        publish("shellies/" + GEN1_ID + "/relay/0/energy", "18014");
+
+        // the energy counter alone is not emitted, power needs to be known as well
+        Meter first = next(GEN1_ID);
+        Assertions.assertEquals(70.24d, first.getPower());
+        // watt-minutes are converted to Wh
+        Assertions.assertEquals(18013d / 60, first.getTotal());
+        Assertions.assertEquals(0, first.getChannel());
+        Assertions.assertTrue(first.getTimestamp() > 0);
+        Meter second = next(GEN1_ID);
+        Assertions.assertEquals(81.5d, second.getPower());
+        Assertions.assertEquals(18013d / 60, second.getTotal());
+        Meter third = next(GEN1_ID);
+        Assertions.assertEquals(81.5d, third.getPower());
+        Assertions.assertEquals(18014d / 60, third.getTotal());
+        Assertions.assertTrue(meters.isEmpty());
+    }
+
+    @Test
+    public void testGen2SwitchStatusIsEmittedAsMeter() throws Exception {
+        publish(GEN2_ID + "/status/sys", "{\"unixtime\": 1743801611}");
+        publish(GEN2_ID + "/status/switch:1", "not json");
+        publish(GEN2_ID + "/status/switch:0", SWITCH_STATUS);
+
+        Meter meter = next(GEN2_ID);
+        Assertions.assertEquals(9.5d, meter.getPower());
+        Assertions.assertEquals(11009.330d, meter.getTotal());
+        Assertions.assertEquals(0, meter.getChannel());
+        Assertions.assertTrue(meters.isEmpty());
+        Assertions.assertEquals(3, subscriber.getMessages());
+
+        publish(GEN2_ID + "/status/pm1:0", "{\"id\": 0, \"apower\": 7.0, \"aenergy\": {\"total\": 70.0}}");
+        Assertions.assertEquals(StatusParser.PM1_FIRST_CHANNEL, next(GEN2_ID).getChannel());
+    }
+
+    @Test
+    public void testLostConnectionIsReestablishedOnce() throws Exception {
+        subscriber.reconnectDelayMillis = 50;
+        // only the subscriber subscribes, the device just publishes
+        for (MqttEndpoint endpoint : subscriptions.keySet()) {
+            endpoint.close();
+        }
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while ((connections.get() < 3 || subscriptions.isEmpty()) && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        // a second reconnect loop would open another connection
+        Thread.sleep(300);
+        Assertions.assertEquals(1, subscriptions.size());
+        Assertions.assertEquals(3, connections.get());
+
+        publish(GEN2_ID + "/status/switch:0", SWITCH_STATUS);
+        Assertions.assertEquals(9.5d, next(GEN2_ID).getPower());
+    }
+
+    @Test
+    public void testRejectedSubscriptionsAreDetected() throws Exception {
+        rejectedFilters.add(MqttSubscriber.GEN1_POWER_TOPIC);
+        rejectedFilters.add(MqttSubscriber.GEN1_ENERGY_TOPIC);
+        rejectedFilters.add(MqttSubscriber.GEN2_STATUS_TOPIC);
+        MqttSubscriber rejected = new MqttSubscriber((id, meter) -> meters.add(Map.entry(id, meter)), null, null, null);
+        ExecutionException failure = Assertions.assertThrows(ExecutionException.class, () -> rejected.start(vertx, "127.0.0.1",
+                brokerPort).toCompletionStage().toCompletableFuture().get(5, TimeUnit.SECONDS));
+        Assertions.assertInstanceOf(IllegalStateException.class, failure.getCause());
+        rejected.stop();
+
+        // Gen 2+ devices are still metered if only the Gen 1 topics are rejected
+        rejectedFilters.remove(MqttSubscriber.GEN2_STATUS_TOPIC);
+        MqttSubscriber partly = new MqttSubscriber((id, meter) -> meters.add(Map.entry(id, meter)), null, null, null);
+        partly.start(vertx, "127.0.0.1", brokerPort).toCompletionStage().toCompletableFuture().get(5, TimeUnit.SECONDS);
+        partly.stop();
+    }
+
+    private void publish(String topic, String payload) throws Exception {
+        device.publish(topic, Buffer.buffer(payload), MqttQoS.AT_MOST_ONCE, false, false)
+                .toCompletionStage().toCompletableFuture().get(5, TimeUnit.SECONDS);
+    }
+
+    private Meter next(String id) throws InterruptedException {
+        Map.Entry<String, Meter> next = meters.poll(5, TimeUnit.SECONDS);
+        Assertions.assertNotNull(next);
+        Assertions.assertEquals(id, next.getKey());
+        return next.getValue();
+    }
+
+    /**
+     * Starts a minimal broker forwarding every published message to the clients subscribed to a matching topic filter.
+     *
+     * @return the port of the broker
+     */
+    private int startEmbeddedBroker() throws Exception {
+        MqttServer broker = MqttServer.create(vertx, new MqttServerOptions().setHost("127.0.0.1").setPort(0));
+        broker.endpointHandler(endpoint -> {
+            endpoint.subscribeHandler(subscribe -> {
+                List<MqttQoS> granted = new ArrayList<>();
+                for (MqttTopicSubscription subscription : subscribe.topicSubscriptions()) {
+                    if (rejectedFilters.contains(subscription.topicName())) {
+                        granted.add(MqttQoS.FAILURE);
+                    } else {
+                        subscriptions.computeIfAbsent(endpoint, key -> new ArrayList<>()).add(subscription.topicName());
+                        granted.add(MqttQoS.AT_MOST_ONCE);
+                    }
+                }
+                endpoint.subscribeAcknowledge(subscribe.messageId(), granted);
+            });
+            endpoint.publishHandler(message -> subscriptions.forEach((subscriber, filters) -> {
+                if (filters.stream().anyMatch(filter -> matches(filter, message.topicName()))) {
+                    subscriber.publish(message.topicName(), message.payload(), MqttQoS.AT_MOST_ONCE, false, false);
+                }
+            }));
+            endpoint.disconnectHandler(disconnected -> subscriptions.remove(endpoint));
+            endpoint.closeHandler(closed -> subscriptions.remove(endpoint));
+            connections.incrementAndGet();
+            endpoint.accept(false);
+        });
+        return broker.listen().toCompletionStage().toCompletableFuture().get(5, TimeUnit.SECONDS).actualPort();
+    }
+
+    private static boolean matches(String filter, String topic) {
+        String[] filterLevels = filter.split("/");
+        String[] topicLevels = topic.split("/");
+        if (filterLevels.length != topicLevels.length) {
+            return false;
+        }
+        for (int i = 0; i < filterLevels.length; i++) {
+            if (!filterLevels[i].equals("+") && !filterLevels[i].equals(topicLevels[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+}
@@ -1,9 +1,17 @@
 package edu.hm.greenit.tools.shelly;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
 public class RpcReaderTest {
 
     private static final String testResponse = """
@@ -82,9 +90,166 @@ public class RpcReaderTest {
             """;
 
     @Test
-    public void testParseResponse() throws JsonProcessingException {
-        Meter value = RpcReader.parsePowerConsumption(testResponse);
+    public void testParseResponse() throws IOException {
+        Meter value = RpcReader.parsePowerConsumption(testResponse).get(0);
+        Assertions.assertEquals(9.5d, value.getPower());
+    }
+
+    @Test
+    public void testParseResponseReadsEnergyAndDeviceTime() throws IOException {
+        Meter value = RpcReader.parsePowerConsumption(testResponse).get(0);
+        Assertions.assertEquals(11009.330d, value.getTotal());
+        Assertions.assertEquals(1743801611L, value.getTimestamp());
+    }
+
+    @Test
+    public void testParseResponseWithoutSwitch() throws IOException {
+        Assertions.assertTrue(RpcReader.parsePowerConsumption("{\"id\": 1, \"result\": {\"sys\": {\"unixtime\": 1743801611}}}").isEmpty());
+    }
+
+    @Test
+    public void testDigestSessionIncrementsNonceCount() {
+        RpcReader.DigestSession session = RpcReader.DigestSession.fromChallenge(
+                "Digest qop=\"auth\", realm=\"shellyplugsg3-123456\", nonce=\"60dc59c6\", algorithm=SHA-256", "secret");
+        String firstHeader = session.nextAuthorizationHeader();
+        String secondHeader = session.nextAuthorizationHeader();
+        Assertions.assertTrue(firstHeader.contains("nonce=\"60dc59c6\""));
+        Assertions.assertTrue(firstHeader.contains("realm=\"shellyplugsg3-123456\""));
+        Assertions.assertTrue(firstHeader.contains("nc=00000001"));
+        Assertions.assertTrue(secondHeader.contains("nc=00000002"));
+    }
+
+    @Test
+    public void testDigestSessionRejectsOtherAuthMethods() {
+        Assertions.assertThrows(IllegalArgumentException.class,
+                () -> RpcReader.DigestSession.fromChallenge("Basic realm=\"shelly\"", "secret"));
+    }
+
+    @Test
+    public void testParseComponentStatus() throws IOException {
+        Meter value = StatusParser.parseRpcComponentStatus("""
+                {"id": 1, "src": "shellyplugsg3", "result": {"id": 0, "source": "WS_in", "output": true,
+                 "apower": 9.5, "voltage": 237.0, "aenergy": {"total": 11009.330, "by_minute": [212.395, 0.000, 212.395]}}}
+                """.getBytes(StandardCharsets.UTF_8), RpcStatusMethod.SWITCH.getFirstChannel());
+        Assertions.assertEquals(0, value.getChannel());
         Assertions.assertEquals(9.5d, value.getPower());
+        Assertions.assertEquals(11009.330d, value.getTotal());
+    }
+
+    @Test
+    public void testDetectStatusMethodFromDeviceInfo() throws IOException {
+        String app = StatusParser.parseRpcDeviceInfoApp("""
+                {"id": 1, "src": "shellyplugsg3", "result": {"name": null, "id": "shellyplugsg3-123456", "mac": "123456",
+                 "slot": 0, "model": "S3PL-00112EU", "gen": 3, "fw_id": "20250313-104515/1.5.1-g01dcd7f", "app": "PlugSG3"}}
+                """.getBytes(StandardCharsets.UTF_8));
+        Assertions.assertEquals("PlugSG3", app);
+        Assertions.assertEquals(RpcStatusMethod.SWITCH, RpcStatusMethod.forApp(app));
+        Assertions.assertEquals(RpcStatusMethod.PM1, RpcStatusMethod.forApp("PlusPMMini"));
+        Assertions.assertEquals(RpcStatusMethod.PM1, RpcStatusMethod.forApp("MiniPMG3"));
+        Assertions.assertEquals(RpcStatusMethod.SWITCH, RpcStatusMethod.forApp("Mini1PMG3"));
+        Assertions.assertEquals(RpcStatusMethod.SWITCH, RpcStatusMethod.forApp("Plus1PMMini"));
+        Assertions.assertEquals(RpcStatusMethod.STATUS, RpcStatusMethod.forApp("PlusHT"));
+        Assertions.assertEquals(RpcStatusMethod.STATUS, RpcStatusMethod.forApp("PlusWallDimmer"));
+        Assertions.assertEquals(RpcStatusMethod.STATUS, RpcStatusMethod.forApp("Pro3EM"));
+    }
+
+    @Test
+    public void testParseAllSwitches() throws IOException {
+        List<Meter> values = RpcReader.parsePowerConsumption("""
+                {"id": 1, "src": "shellypro4pm-123456", "result": {
+                  "switch:2": {"id": 2, "apower": 20.0, "aenergy": {"total": 2000.0}},
+                  "switch:0": {"id": 0, "apower": 0.0, "aenergy": {"total": 0.0}},
+                  "sys": {"unixtime": 1743801611},
+                  "switch:1": {"id": 1, "apower": 10.0, "aenergy": {"total": 1000.0}},
+                  "switch:3": {"id": 3, "apower": 30.0, "aenergy": {"total": 3000.0}}}}
+                """);
+        Assertions.assertEquals(4, values.size());
+        for (int channel = 0; channel < values.size(); channel++) {
+            Assertions.assertEquals(channel, values.get(channel).getChannel());
+            Assertions.assertEquals(channel * 10.0d, values.get(channel).getPower());
+            Assertions.assertEquals(channel * 1000.0d, values.get(channel).getTotal());
+            Assertions.assertEquals(1743801611L, values.get(channel).getTimestamp());
+        }
+    }
+
+    @Test
+    public void testMixedComponentsGetDistinctChannels() throws IOException {
+        // Pro EM: a switch and two single phase energy meters, all with id 0 and 1
+        List<Meter> values = RpcReader.parsePowerConsumption("""
+                {"id": 1, "src": "shellyproem50-123456", "result": {
+                  "switch:0": {"id": 0, "output": true, "apower": 5.0, "aenergy": {"total": 50.0}},
+                  "em1:0": {"id": 0, "current": 0.5, "voltage": 230.1, "act_power": 100.5},
+                  "em1:1": {"id": 1, "current": 1.5, "voltage": 230.1, "act_power": 300.5},
+                  "em1data:0": {"id": 0, "total_act_energy": 1000.0, "total_act_ret_energy": 0.0},
+                  "em1data:1": {"id": 1, "total_act_energy": 3000.0, "total_act_ret_energy": 0.0},
+                  "pm1:0": {"id": 0, "apower": 7.0, "aenergy": {"total": 70.0}},
+                  "cover:0": {"id": 0, "apower": 9.0, "aenergy": {"total": 90.0}},
+                  "sys": {"unixtime": 1743801611}}}
+                """);
+        Assertions.assertEquals(List.of(0, StatusParser.COVER_FIRST_CHANNEL, StatusParser.PM1_FIRST_CHANNEL,
+                        StatusParser.EM1_FIRST_CHANNEL, StatusParser.EM1_FIRST_CHANNEL + 1),
+                values.stream().map(Meter::getChannel).toList());
+        Assertions.assertEquals(List.of(5.0, 9.0, 7.0, 100.5, 300.5), values.stream().map(Meter::getPower).toList());
+        Assertions.assertEquals(List.of(50.0, 90.0, 70.0, 1000.0, 3000.0), values.stream().map(Meter::getTotal).toList());
+
+        // a power meter read with PM1.GetStatus has the same channel as in Shelly.GetStatus
+        Meter pm1 = StatusParser.parseRpcComponentStatus("""
+                {"id": 1, "src": "shellypmminig3", "result": {"id": 0, "apower": 7.0, "aenergy": {"total": 70.0}}}
+                """.getBytes(StandardCharsets.UTF_8), RpcStatusMethod.PM1.getFirstChannel());
+        Assertions.assertEquals(StatusParser.PM1_FIRST_CHANNEL, pm1.getChannel());
+    }
+
+    @Test
+    public void testParseThreePhaseEnergyMeter() throws IOException {
+        List<Meter> values = RpcReader.parsePowerConsumption("""
+                {"id": 1, "src": "shellypro3em-123456", "result": {
+                  "em:0": {"id": 0, "a_current": 0.5, "a_voltage": 230.1, "a_act_power": 100.5, "a_aprt_power": 110.0,
+                           "b_act_power": 200.5, "c_act_power": 300.5, "total_act_power": 601.5},
+                  "emdata:0": {"id": 0, "a_total_act_energy": 1000.0, "a_total_act_ret_energy": 0.0,
+                               "b_total_act_energy": 2000.0, "c_total_act_energy": 3000.0, "total_act": 6000.0},
+                  "sys": {"unixtime": 1743801611}}}
+                """);
+        Assertions.assertEquals(3, values.size());
+        Assertions.assertEquals(StatusParser.EM_FIRST_CHANNEL, values.get(0).getChannel());
+        Assertions.assertEquals(100.5d, values.get(0).getPower());
+        Assertions.assertEquals(1000.0d, values.get(0).getTotal());
+        Assertions.assertEquals(300.5d, values.get(2).getPower());
+        Assertions.assertEquals(3000.0d, values.get(2).getTotal());
+    }
+
+    @Test
+    public void testDetectedMethodOnlyFallsBackIfTheComponentIsMissing() throws Exception {
+        Vertx vertx = Vertx.vertx();
+        List<String> methods = new CopyOnWriteArrayList<>();
+        try {
+            // a PM Mini that fails once with 500, then does not know PM1.GetStatus
+            int port = vertx.createHttpServer()
+                    .requestHandler(request -> request.body().onSuccess(body -> {
+                        String method = new JsonObject(body.toString()).getString("method");
+                        methods.add(method);
+                        switch (method) {
+                            case "Shelly.GetDeviceInfo" -> request.response()
+                                    .end("{\"id\": 1, \"result\": {\"app\": \"PlusPMMini\"}}");
+                            case "PM1.GetStatus" -> request.response().setStatusCode(methods.size() == 2 ? 500 : 404).end();
+                            default -> request.response().end("""
+                                    {"id": 1, "result": {"pm1:0": {"id": 0, "apower": 7.0, "aenergy": {"total": 70.0}},
+                                     "sys": {"unixtime": 1743801611}}}
+                                    """);
+                        }
+                    }))
+                    .listen(0).toCompletionStage().toCompletableFuture().get(5, TimeUnit.SECONDS).actualPort();
+            RpcReader reader = new RpcReader("127.0.0.1:" + port, null, RpcStatusMethod.AUTO);
+            Duration timeout = Duration.ofSeconds(5);
+
+            Assertions.assertEquals(List.of(), reader.readPowerConsumptionAsync(timeout).toCompletableFuture().get());
+            Assertions.assertEquals(List.of(), reader.readPowerConsumptionAsync(timeout).toCompletableFuture().get());
+            List<Meter> values = reader.readPowerConsumptionAsync(timeout).toCompletableFuture().get();
+
+            Assertions.assertEquals(List.of("Shelly.GetDeviceInfo", "PM1.GetStatus", "PM1.GetStatus", "Shelly.GetStatus"), methods);
+            Assertions.assertEquals(7.0d, values.getFirst().getPower());
+        } finally {
+            vertx.close().toCompletionStage().toCompletableFuture().get(5, TimeUnit.SECONDS);
+        }
     }
 
 }
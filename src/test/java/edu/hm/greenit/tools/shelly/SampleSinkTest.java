@@ -0,0 +1,147 @@
+package edu.hm.greenit.tools.shelly;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static edu.hm.greenit.tools.shelly.SampleWriterTest.meter;
+
+public class SampleSinkTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    public void testBinaryRoundTrip() throws IOException {
+        Meter polled = meter(1753786429L, 2300.123, 12.0, 2);
+        polled.setReceivedAt(1753786429123456L);
+        polled.setLatency(12345);
+        List<Sample> samples = List.of(
+                new Sample("192.168.1.20", meter(1753786427L, 10.8, 37156.946, 0)),
+                new Sample("192.168.1.21", meter(1753786427L, 0.0, 12.5, 2)),
+                new Sample("192.168.1.20", meter(1753786428L, 9.25, 37156.949, 0)),
+                new Sample("192.168.1.20", meter(1753786428L, 1.5, 3.0, 1)),
+                new Sample("192.168.1.21", polled));
+        try (BinarySink sink = new BinarySink(directory, 1024 * 1024, 1024)) {
+            sink.open();
+            for (Sample sample : samples) {
+                sink.write(sample);
+            }
+        }
+
+        List<Path> files = files();
+        Assertions.assertEquals(1, files.size());
+        Assertions.assertEquals(samples.stream().map(SampleSinkTest::format).toList(), decode(files.get(0)));
+    }
+
+    @Test
+    public void testBinaryValuesAreRoundedToDeviceResolution() throws IOException {
+        // a Gen 1 total converted from watt-minutes and an energy meter phase channel
+        double gen1Total = 2227417 / StatusParser.GEN1_WATT_MINUTES_PER_WH;
+        int phaseChannel = StatusParser.EM_FIRST_CHANNEL + 2;
+        try (BinarySink sink = new BinarySink(directory, 1024 * 1024, 1024)) {
+            sink.open();
+            sink.write(new Sample("192.168.1.20", meter(1753786427L, 10.8, gen1Total, 0)));
+            sink.write(new Sample("192.168.1.21", meter(1753786427L, 300.5, 3000.0, phaseChannel)));
+        }
+
+        List<Sample> decoded = new ArrayList<>();
+        try (InputStream input = Files.newInputStream(files().get(0))) {
+            BinarySampleDecoder.decode(input, decoded::add);
+        }
+        Assertions.assertEquals(2, decoded.size());
+        Assertions.assertEquals(gen1Total, decoded.get(0).meter().getTotal(), 0.0005);
+        Assertions.assertEquals(phaseChannel, decoded.get(1).meter().getChannel());
+        Assertions.assertEquals(3000.0, decoded.get(1).meter().getTotal());
+    }
+
+    @Test
+    public void testBinaryFilesRollAndStaySelfContained() throws IOException {
+        List<String> expected = new ArrayList<>();
+        try (BinarySink sink = new BinarySink(directory, 64, 32)) {
+            sink.open();
+            for (int i = 0; i < 100; i++) {
+                Sample sample = new Sample("10.0.0.1", meter(1753786427L + i, i * 0.5, 1000.0 + i, 0));
+                sink.write(sample);
+                sink.flush();
+                expected.add(format(sample));
+            }
+        }
+
+        List<Path> files = files();
+        Assertions.assertTrue(files.size() > 1, "expected several files, got " + files);
+        List<String> decoded = new ArrayList<>();
+        for (Path file : files) {
+            decoded.addAll(decode(file));
+        }
+        Assertions.assertEquals(expected, decoded);
+    }
+
+    @Test
+    public void testCsvFilesRollWithHeader() throws IOException {
+        try (CsvSink sink = new CsvSink(directory, 64, 64)) {
+            sink.open();
+            for (int i = 0; i < 10; i++) {
+                sink.write(new Sample("10.0.0.1", meter(1753786427L + i, 1.0, 2.0, 0)));
+                sink.flush();
+            }
+        }
+
+        List<Path> files = files();
+        Assertions.assertTrue(files.size() > 1, "expected several files, got " + files);
+        int rows = 0;
+        for (Path file : files) {
+            List<String> lines = Files.readAllLines(file);
+            Assertions.assertEquals(CsvSink.CSV_HEADER, lines.get(0));
+            rows += lines.size() - 1;
+        }
+        Assertions.assertEquals(10, rows);
+    }
+
+    @Test
+    public void testCsvRowLongerThanBufferIsWrittenWhole() throws IOException {
+        String host = "shelly-plug-in-the-server-room-next-to-the-rack.example.org";
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (CsvSink sink = new CsvSink(Channels.newChannel(output), 64)) {
+            sink.open();
+            sink.write(new Sample(host, meter(1753786427L, 10.8, 37156.946, 0)));
+            sink.write(new Sample(host, meter(1753786428L, 10.7, 37156.946, 0)));
+        }
+
+        Assertions.assertEquals(CsvSink.CSV_HEADER + "\n"
+                + host + ",1753786427,10.8,37156.946,0,0,\n"
+                + host + ",1753786428,10.7,37156.946,0,0,\n", output.toString(StandardCharsets.US_ASCII));
+    }
+
+    private List<Path> files() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.sorted().toList();
+        }
+    }
+
+    private static List<String> decode(Path file) throws IOException {
+        List<String> samples = new ArrayList<>();
+        try (InputStream input = Files.newInputStream(file)) {
+            BinarySampleDecoder.decode(input, sample -> samples.add(format(sample)));
+        }
+        return samples;
+    }
+
+    private static String format(Sample sample) {
+        Meter meter = sample.meter();
+        return sample.ip() + "," + meter.getTimestamp() + "," + meter.getPower() + "," + meter.getTotal() + "," + meter.getChannel()
+                + "," + meter.getReceivedAt() + "," + meter.getLatency();
+    }
+
+}
@@ -0,0 +1,71 @@
+package edu.hm.greenit.tools.shelly;
+
+import jakarta.ws.rs.NotFoundException;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static edu.hm.greenit.tools.shelly.SampleWriterTest.meter;
+
+public class SampleStoreTest {
+
+    @Test
+    public void testKeepsOnlyTheLatestSamples() {
+        SampleStore store = new SampleStore();
+        store.setCapacity(3);
+        for (int i = 1; i <= 5; i++) {
+            store.write(sample("192.168.1.20", i * 1000L, i * 10.0, 100.0 + i, 0));
+        }
+
+        SeriesBuffer.Slice slice = store.get("192.168.1.20", 0).slice(0, Long.MAX_VALUE);
+        Assertions.assertArrayEquals(new long[]{3000, 4000, 5000}, slice.times());
+        Assertions.assertArrayEquals(new double[]{30.0, 40.0, 50.0}, slice.powers());
+        Assertions.assertArrayEquals(new double[]{103.0, 104.0, 105.0}, slice.energies());
+        Assertions.assertEquals(3, store.get("192.168.1.20", 0).size());
+    }
+
+    @Test
+    public void testResourceReturnsLatestAndRange() {
+        SampleStore store = new SampleStore();
+        for (int i = 1; i <= 5; i++) {
+            store.write(sample("192.168.1.20", i * 1000L, i * 10.0, 100.0 + i, 0));
+            store.write(sample("192.168.1.20", i * 1000L, 1.0, 7.0, 1));
+        }
+        SampleResource resource = new SampleResource();
+        resource.store = store;
+
+        Assertions.assertEquals(List.of(new SampleStore.SeriesKey("192.168.1.20", 0), new SampleStore.SeriesKey("192.168.1.20", 1)),
+                resource.series());
+        Assertions.assertEquals(new SampleResource.LatestSample("192.168.1.20", 0, 5000, 50.0, 105.0),
+                resource.latest("192.168.1.20", 0));
+
+        SampleResource.SeriesSlice slice = resource.slice("192.168.1.20", 0, 2000, 4000);
+        Assertions.assertArrayEquals(new long[]{2000, 3000, 4000}, slice.times());
+        Assertions.assertArrayEquals(new double[]{20.0, 30.0, 40.0}, slice.powers());
+        Assertions.assertEquals(2.0, slice.energyUsed(), 1e-9);
+
+        Assertions.assertThrows(NotFoundException.class, () -> resource.latest("192.168.1.21", 0));
+    }
+
+    @Test
+    public void testEnergyUsedCountsCounterResets() {
+        SampleStore store = new SampleStore();
+        store.write(sample("192.168.1.20", 1000, 10.0, 100.0, 0));
+        store.write(sample("192.168.1.20", 2000, 10.0, 102.0, 0));
+        // rebooted, the counter starts again
+        store.write(sample("192.168.1.20", 3000, 10.0, 1.5, 0));
+        store.write(sample("192.168.1.20", 4000, 10.0, 2.5, 0));
+        SampleResource resource = new SampleResource();
+        resource.store = store;
+
+        Assertions.assertEquals(2.0 + 1.5 + 1.0, resource.slice("192.168.1.20", 0, 0, Long.MAX_VALUE).energyUsed(), 1e-9);
+    }
+
+    private static Sample sample(String ip, long receivedAt, double power, double total, int channel) {
+        Meter meter = meter(receivedAt / 1000, power, total, channel);
+        meter.setReceivedAt(receivedAt);
+        return new Sample(ip, meter);
+    }
+
+}
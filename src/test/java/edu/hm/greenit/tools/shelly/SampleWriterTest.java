@@ -0,0 +1,145 @@
+package edu.hm.greenit.tools.shelly;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+public class SampleWriterTest {
+
+    @Test
+    public void testWritesHeaderAndRows() throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        SampleWriter writer = new SampleWriter(List.of(new CsvSink(Channels.newChannel(output), 1024)), 16, Duration.ofSeconds(10));
+        writer.start();
+        Meter polled = meter(1753786427L, 10.8, 37156.946, 0);
+        polled.setReceivedAt(1753786427512345L);
+        polled.setLatency(8250);
+        writer.write("192.168.1.20", polled);
+        Meter pushed = meter(1753786427L, 3.5, 100.0, 1);
+        pushed.setReceivedAt(1753786427612345L);
+        writer.write("192.168.1.20", pushed);
+        writer.close();
+
+        Assertions.assertEquals("""
+                ip,timestamp,power,energy,channel,received,latency
+                192.168.1.20,1753786427,10.8,37156.946,0,1753786427512345,8250
+                192.168.1.20,1753786427,3.5,100.0,1,1753786427612345,
+                """, output.toString(StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    public void testConcurrentRowsDoNotInterleave() throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        SampleWriter writer = new SampleWriter(List.of(new CsvSink(Channels.newChannel(output), 256)), 100_000, Duration.ofMillis(1));
+        writer.start();
+        List<Thread> producers = new ArrayList<>();
+        for (int device = 0; device < 8; device++) {
+            String ip = "10.0.0." + device;
+            producers.add(Thread.ofVirtual().start(() -> {
+                for (int i = 0; i < 1000; i++) {
+                    writer.write(ip, meter(i, i * 0.5, i, 0));
+                }
+            }));
+        }
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        writer.close();
+
+        String[] lines = output.toString(StandardCharsets.US_ASCII).split("\n");
+        Assertions.assertEquals(8 * 1000 + 1, lines.length);
+        Assertions.assertEquals(8 * 1000, writer.getWrittenSamples());
+        for (int i = 1; i < lines.length; i++) {
+            Assertions.assertTrue(lines[i].matches("10\\.0\\.0\\.\\d,\\d+,[0-9.]+,[0-9.]+,0,0,"), lines[i]);
+        }
+    }
+
+    @Test
+    public void testFullQueueDropsSamples() {
+        SampleWriter writer = new SampleWriter(List.of(new CsvSink(Channels.newChannel(new ByteArrayOutputStream()), 1024)), 1, Duration.ofSeconds(1));
+        // writer thread not started, nothing is taken from the queue
+        Assertions.assertTrue(writer.write("192.168.1.20", meter(1L, 1.0, 1.0, 0)));
+        Assertions.assertFalse(writer.write("192.168.1.20", meter(2L, 1.0, 1.0, 0)));
+        Assertions.assertEquals(1, writer.getDroppedSamples());
+        Assertions.assertEquals(1, writer.getQueueDepth());
+    }
+
+    @Test
+    public void testFailingSinkDoesNotStopOtherSinks() throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        SampleSink failing = new SampleSink() {
+            @Override
+            public void write(Sample sample) throws IOException {
+                throw new IOException("disk full");
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        SampleWriter writer = new SampleWriter(List.of(failing, new CsvSink(Channels.newChannel(output), 1024)), 16, Duration.ofSeconds(10));
+        writer.start();
+        writer.write("192.168.1.20", meter(1753786427L, 10.8, 37156.946, 0));
+        writer.close();
+
+        Assertions.assertEquals("""
+                ip,timestamp,power,energy,channel,received,latency
+                192.168.1.20,1753786427,10.8,37156.946,0,0,
+                """, output.toString(StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    public void testSinkThrowingRuntimeExceptionDoesNotStopWriter() throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        SampleSink broken = new SampleSink() {
+            @Override
+            public void write(Sample sample) {
+                throw new IllegalStateException("bug in sink");
+            }
+
+            @Override
+            public void flush() {
+                throw new IllegalStateException("bug in sink");
+            }
+
+            @Override
+            public void close() {
+                throw new IllegalStateException("bug in sink");
+            }
+        };
+        SampleWriter writer = new SampleWriter(List.of(broken, new CsvSink(Channels.newChannel(output), 1024)), 16, Duration.ofMillis(1));
+        writer.start();
+        writer.write("192.168.1.20", meter(1753786427L, 10.8, 37156.946, 0));
+        Assertions.assertTrue(writer.awaitWritten(Duration.ofSeconds(5)));
+        writer.write("192.168.1.20", meter(1753786428L, 10.7, 37156.946, 0));
+        writer.close();
+
+        Assertions.assertEquals(2, writer.getWrittenSamples());
+        Assertions.assertEquals("""
+                ip,timestamp,power,energy,channel,received,latency
+                192.168.1.20,1753786427,10.8,37156.946,0,0,
+                192.168.1.20,1753786428,10.7,37156.946,0,0,
+                """, output.toString(StandardCharsets.US_ASCII));
+    }
+
+    static Meter meter(long timestamp, double power, double total, int channel) {
+        Meter meter = new Meter();
+        meter.setTimestamp(timestamp);
+        meter.setPower(power);
+        meter.setTotal(total);
+        meter.setChannel(channel);
+        return meter;
+    }
+
+}
@@ -0,0 +1,135 @@
+package edu.hm.greenit.tools.shelly;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.LockSupport;
+
+public class SamplingSchedulerTest {
+
+    private static final Duration INTERVAL = Duration.ofMillis(100);
+
+    @Test
+    public void testTicksAreAlignedAndStaggered() throws InterruptedException {
+        List<ShellyDevice> devices = devices(4);
+        Map<ShellyDevice, List<Long>> reads = new ConcurrentHashMap<>();
+        SamplingScheduler scheduler = new SamplingScheduler(devices, INTERVAL, device -> {
+            reads.computeIfAbsent(device, d -> new CopyOnWriteArrayList<>()).add(System.currentTimeMillis());
+            return SamplingScheduler.ReadStart.STARTED;
+        });
+        scheduler.start();
+        Thread.sleep(650);
+        scheduler.close();
+
+        Assertions.assertTrue(scheduler.getTicks() >= 4, "ticks: " + scheduler.getTicks());
+        for (int i = 0; i < devices.size(); i++) {
+            List<Long> times = reads.get(devices.get(i));
+            Assertions.assertNotNull(times);
+            Assertions.assertTrue(times.size() >= 4, "reads: " + times.size());
+            // device i is read in slot i of 4 slots of 25ms each, the slot of the first device starts on a full 100ms
+            // the median is used, as single reads can be delayed by a loaded machine
+            long expectedOffset = i * 25L;
+            List<Long> distances = new ArrayList<>();
+            for (long time : times) {
+                long offset = Math.floorMod(time - expectedOffset, INTERVAL.toMillis());
+                distances.add(Math.min(offset, INTERVAL.toMillis() - offset));
+            }
+            distances.sort(null);
+            long median = distances.get(distances.size() / 2);
+            Assertions.assertTrue(median < 10, "device " + i + " read " + median + "ms off its slot");
+        }
+        Assertions.assertEquals(0, scheduler.getMissedTicks());
+        Assertions.assertTrue(scheduler.getMeanLag().compareTo(scheduler.getMaxLag()) <= 0);
+    }
+
+    @Test
+    public void testMissedTicksAreCountedPerDevice() throws InterruptedException {
+        List<ShellyDevice> devices = devices(2);
+        ShellyDevice busy = devices.get(1);
+        SamplingScheduler scheduler = new SamplingScheduler(devices, INTERVAL, device -> device != busy
+                ? SamplingScheduler.ReadStart.STARTED
+                : SamplingScheduler.ReadStart.MISSED);
+        scheduler.start();
+        Thread.sleep(450);
+        scheduler.close();
+
+        Assertions.assertEquals(0, devices.get(0).getMissedTicks());
+        Assertions.assertTrue(busy.getMissedTicks() >= 3, "missed: " + busy.getMissedTicks());
+        Assertions.assertEquals(busy.getMissedTicks(), scheduler.getMissedTicks());
+    }
+
+    @Test
+    public void testOnlyStartedReadsAreLate() throws InterruptedException {
+        List<ShellyDevice> devices = devices(3);
+        ShellyDevice notDue = devices.get(1);
+        ShellyDevice started = devices.get(2);
+        // the first device holds the scheduler thread, the others start long after their slots at 33 and 66 ms
+        SamplingScheduler scheduler = new SamplingScheduler(devices, INTERVAL, device -> {
+            if (device == devices.get(0)) {
+                LockSupport.parkNanos(Duration.ofMillis(90).toNanos());
+                return SamplingScheduler.ReadStart.NOT_DUE;
+            }
+            return device == notDue ? SamplingScheduler.ReadStart.NOT_DUE : SamplingScheduler.ReadStart.STARTED;
+        });
+        scheduler.start();
+        Thread.sleep(450);
+        scheduler.close();
+
+        Assertions.assertEquals(0, notDue.getLateTicks());
+        Assertions.assertEquals(0, notDue.getMissedTicks());
+        Assertions.assertTrue(started.getLateTicks() >= 2, "late: " + started.getLateTicks());
+        Assertions.assertEquals(started.getLateTicks(), scheduler.getLateTicks());
+    }
+
+    @Test
+    public void testLagIsOnlyRecordedForStartedReads() throws InterruptedException {
+        List<ShellyDevice> devices = devices(2);
+        // the second device is never due and starts long after its slot at 50 ms
+        SamplingScheduler scheduler = new SamplingScheduler(devices, INTERVAL, device -> {
+            if (device == devices.get(0)) {
+                LockSupport.parkNanos(Duration.ofMillis(90).toNanos());
+            }
+            return SamplingScheduler.ReadStart.NOT_DUE;
+        });
+        scheduler.start();
+        Thread.sleep(350);
+        scheduler.close();
+
+        Assertions.assertEquals(Duration.ZERO, scheduler.getMaxLag());
+        Assertions.assertEquals(Duration.ZERO, scheduler.getMeanLag());
+    }
+
+    @Test
+    public void testDevicesAddedWhileRunningAreRead() throws InterruptedException {
+        List<ShellyDevice> devices = devices(3);
+        Map<ShellyDevice, Integer> reads = new ConcurrentHashMap<>();
+        SamplingScheduler scheduler = new SamplingScheduler(devices.subList(0, 1), INTERVAL, device -> {
+            reads.merge(device, 1, Integer::sum);
+            return SamplingScheduler.ReadStart.STARTED;
+        });
+        scheduler.start();
+        Thread.sleep(250);
+        scheduler.setDevices(devices);
+        Thread.sleep(350);
+        scheduler.close();
+
+        Assertions.assertTrue(reads.get(devices.get(0)) >= 5, "reads: " + reads);
+        Assertions.assertTrue(reads.getOrDefault(devices.get(2), 0) >= 2, "reads: " + reads);
+        Assertions.assertTrue(reads.get(devices.get(0)) > reads.get(devices.get(2)), "reads: " + reads);
+    }
+
+    private static List<ShellyDevice> devices(int count) {
+        List<ShellyDevice> devices = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            devices.add(new ShellyDevice("10.0.0." + i, ShellyDevice.SHELLY_GEN2PLUS_ARG, null));
+        }
+        return devices;
+    }
+
+}
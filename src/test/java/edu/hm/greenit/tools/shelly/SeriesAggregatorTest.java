@@ -0,0 +1,111 @@
+package edu.hm.greenit.tools.shelly;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static edu.hm.greenit.tools.shelly.SampleWriterTest.meter;
+
+public class SeriesAggregatorTest {
+
+    private static final long SECOND = 1_000_000;
+
+    @Test
+    public void testTumblingWindowsIntegrateEnergy() {
+        SeriesAggregator aggregator = new SeriesAggregator("192.168.1.20", 0, 10 * SECOND, 10 * SECOND);
+        List<Aggregate> aggregates = new ArrayList<>();
+        // 3600 W for 20 s = 20 Wh, the counter of the device rises by 1 Wh per second
+        for (int i = 0; i <= 20; i++) {
+            aggregator.add(1_000 * SECOND + i * SECOND, 3600, 500.0 + i, aggregates::add);
+        }
+
+        Assertions.assertEquals(2, aggregates.size());
+        Aggregate first = aggregates.get(0);
+        Assertions.assertEquals(1_000 * SECOND, first.start());
+        Assertions.assertEquals(1_010 * SECOND, first.end());
+        Assertions.assertEquals(10, first.samples());
+        // the first sample only starts the integration
+        Assertions.assertEquals(9.0, first.energy(), 1e-9);
+        Assertions.assertEquals(9.0, first.counterEnergy(), 1e-9);
+        Assertions.assertEquals(3600.0, first.meanPower(), 1e-9);
+        Assertions.assertEquals(10.0, aggregates.get(1).energy(), 1e-9);
+        Assertions.assertEquals(20.0, aggregator.getTotalEnergy(), 1e-9);
+        Assertions.assertEquals(20.0, aggregator.getTotalCounterEnergy(), 1e-9);
+    }
+
+    @Test
+    public void testTrapezoidalRuleAndStatistics() {
+        SeriesAggregator aggregator = new SeriesAggregator("192.168.1.20", 0, 100 * SECOND, 100 * SECOND);
+        List<Aggregate> aggregates = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            // a ramp from 0 to 1900 W
+            aggregator.add(i * SECOND, i * 100.0, 0, aggregates::add);
+        }
+        aggregator.flush(aggregates::add);
+
+        Assertions.assertEquals(1, aggregates.size());
+        Aggregate aggregate = aggregates.get(0);
+        Assertions.assertEquals(0.0, aggregate.minPower());
+        Assertions.assertEquals(1900.0, aggregate.maxPower());
+        Assertions.assertEquals(950.0, aggregate.meanPower(), 1e-9);
+        // nearest rank: the 19th of 20 values
+        Assertions.assertEquals(1800.0, aggregate.p95Power());
+        // area under the ramp: 1900 W * 19 s / 2
+        Assertions.assertEquals(1900.0 * 19 / 2 / 3600, aggregate.energy(), 1e-9);
+    }
+
+    @Test
+    public void testCounterResetCountsEnergySinceReset() {
+        SeriesAggregator aggregator = new SeriesAggregator("192.168.1.20", 0, 60 * SECOND, 60 * SECOND);
+        List<Aggregate> aggregates = new ArrayList<>();
+        aggregator.add(0, 100, 1000.0, aggregates::add);
+        aggregator.add(SECOND, 100, 1002.0, aggregates::add);
+        // device rebooted, counter starts again at 0
+        aggregator.add(2 * SECOND, 100, 0.5, aggregates::add);
+        aggregator.add(3 * SECOND, 100, 1.5, aggregates::add);
+        aggregator.flush(aggregates::add);
+
+        Assertions.assertEquals(1, aggregates.get(0).counterResets());
+        Assertions.assertEquals(2.0 + 0.5 + 1.0, aggregates.get(0).counterEnergy(), 1e-9);
+        Assertions.assertEquals(1, aggregator.getTotalCounterResets());
+    }
+
+    @Test
+    public void testSlidingWindowsOverlap() {
+        SeriesAggregator aggregator = new SeriesAggregator("192.168.1.20", 0, 4 * SECOND, 2 * SECOND);
+        List<Aggregate> aggregates = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            aggregator.add(i * SECOND, i, 0, aggregates::add);
+        }
+
+        // windows end every 2 s and cover the last 4 s
+        Assertions.assertEquals(List.of(2L, 4L, 6L), aggregates.stream().map(a -> a.end() / SECOND).toList());
+        Assertions.assertEquals(List.of(2, 4, 4), aggregates.stream().map(Aggregate::samples).toList());
+        // the window ending at 6 s holds the samples 2 to 5
+        Assertions.assertEquals(3.5, aggregates.get(2).meanPower(), 1e-9);
+    }
+
+    @Test
+    public void testSinkWritesAggregateRows() throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        AggregateCsvSink sink = new AggregateCsvSink(Channels.newChannel(output), 1024, Duration.ofSeconds(10), Duration.ofSeconds(10));
+        sink.open();
+        for (int i = 0; i < 3; i++) {
+            Meter meter = meter(1753786420L + i, 3600, 10.0 + i, 0);
+            meter.setReceivedAt((1753786420L + i) * SECOND);
+            sink.write(new Sample("192.168.1.20", meter));
+        }
+        sink.close();
+
+        Assertions.assertEquals(AggregateCsvSink.AGGREGATE_HEADER + "\n"
+                        + "192.168.1.20,0,1753786420000000,1753786430000000,3,3600.0,3600.0,3600.0,3600.0,2.0,2.0,0\n",
+                output.toString(StandardCharsets.US_ASCII));
+    }
+
+}
@@ -0,0 +1,147 @@
+package edu.hm.greenit.tools.shelly;
+
+import jakarta.ws.rs.ClientErrorException;
+import jakarta.ws.rs.NotFoundException;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static edu.hm.greenit.tools.shelly.SampleWriterTest.meter;
+
+public class SessionManagerTest {
+
+    private static final long SECOND = 1_000_000;
+
+    private long now;
+
+    @Test
+    public void testSessionCoversExactlyItsDuration() {
+        SessionManager sessions = sessionManager();
+        // 3600 W is 1 Wh per second
+        sessions.write(sample("192.168.1.20", 0, 3600, 100.0));
+        now = SECOND / 2;
+        sessions.start("run", List.of());
+        for (int i = 1; i <= 10; i++) {
+            sessions.write(sample("192.168.1.20", i * SECOND, 3600, 100.0 + i));
+        }
+        now = 10 * SECOND + SECOND / 2;
+        SessionManager.SessionResult result = sessions.stop("run");
+
+        Assertions.assertEquals(10.0, result.duration(), 1e-9);
+        Assertions.assertEquals(10.0, result.energy(), 1e-9);
+        Assertions.assertEquals(3600.0, result.averagePower(), 1e-9);
+        Assertions.assertEquals(10, result.samples());
+        Assertions.assertEquals(10 * SECOND + SECOND / 2, result.end());
+    }
+
+    @Test
+    public void testSessionOnlyCountsItsDevices() {
+        SessionManager sessions = sessionManager();
+        sessions.start("plug", List.of("192.168.1.20"));
+        now = 2 * SECOND;
+        sessions.start("all", List.of());
+        for (int i = 0; i <= 4; i++) {
+            sessions.write(sample("192.168.1.20", i * SECOND, 3600, 0));
+            sessions.write(sample("192.168.1.21", i * SECOND, 7200, 0));
+        }
+        now = 4 * SECOND;
+
+        Assertions.assertEquals(4.0, sessions.stop("plug").energy(), 1e-9);
+        // the samples before the start of the session are not counted
+        Assertions.assertEquals(2.0 + 4.0, sessions.stop("all").energy(), 1e-9);
+    }
+
+    @Test
+    public void testStopWaitsForQueuedSamples() throws Exception {
+        SessionManager sessions = sessionManager();
+        CountDownLatch released = new CountDownLatch(1);
+        SampleSink slowSink = new SampleSink() {
+            @Override
+            public void write(Sample sample) throws IOException {
+                try {
+                    released.await();
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException();
+                }
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        SampleWriter writer = new SampleWriter(List.of(slowSink, sessions), 16, Duration.ofSeconds(10));
+        sessions.setWriter(writer);
+        writer.start();
+        sessions.start("run", List.of());
+        for (int i = 1; i <= 4; i++) {
+            Sample sample = sample("192.168.1.20", i * SECOND, 3600, 100.0 + i);
+            writer.write(sample.ip(), sample.meter());
+        }
+        now = 4 * SECOND;
+        Thread.ofVirtual().start(() -> {
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                // released right away
+            }
+            released.countDown();
+        });
+        SessionManager.SessionResult result = sessions.stop("run");
+        writer.close();
+
+        Assertions.assertEquals(4, result.samples());
+        Assertions.assertEquals(3.0, result.energy(), 1e-9);
+        Assertions.assertEquals(3.0, result.counterEnergy(), 1e-9);
+    }
+
+    @Test
+    public void testStoppedSessionOnlyCountsLateSamplesUpToItsEnd() {
+        SessionManager sessions = sessionManager();
+        sessions.start("run", List.of());
+        sessions.write(sample("192.168.1.20", SECOND, 3600, 1.0));
+        now = 3 * SECOND;
+        sessions.stop("run");
+        // still queued when the session stopped
+        sessions.write(sample("192.168.1.20", 2 * SECOND, 3600, 2.0));
+        sessions.write(sample("192.168.1.20", 4 * SECOND, 3600, 4.0));
+
+        SessionManager.SessionResult result = sessions.get("run");
+        Assertions.assertEquals(2, result.samples());
+        Assertions.assertEquals(1.0, result.counterEnergy(), 1e-9);
+    }
+
+    @Test
+    public void testResourceRejectsInvalidTransitions() {
+        SessionResource resource = new SessionResource();
+        resource.sessions = sessionManager();
+
+        Assertions.assertNull(resource.start("run", null).end());
+        Assertions.assertThrows(ClientErrorException.class, () -> resource.start("run", null));
+        Assertions.assertNotNull(resource.stop("run").end());
+        Assertions.assertThrows(ClientErrorException.class, () -> resource.stop("run"));
+        Assertions.assertThrows(NotFoundException.class, () -> resource.stop("unknown"));
+        Assertions.assertEquals(1, resource.list().size());
+    }
+
+    private SessionManager sessionManager() {
+        SessionManager sessions = new SessionManager();
+        sessions.clock = () -> now;
+        return sessions;
+    }
+
+    private static Sample sample(String ip, long receivedAt, double power, double total) {
+        Meter meter = meter(receivedAt / SECOND, power, total, 0);
+        meter.setReceivedAt(receivedAt);
+        return new Sample(ip, meter);
+    }
+
+}
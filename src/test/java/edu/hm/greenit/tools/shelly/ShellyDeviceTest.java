@@ -0,0 +1,39 @@
+package edu.hm.greenit.tools.shelly;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class ShellyDeviceTest {
+
+    @Test
+    public void testParseDeviceLine() {
+        ShellyDevice device = ShellyDevice.parse("192.168.1.20,1,secret", "2+", null);
+        Assertions.assertEquals("192.168.1.20", device.getIp());
+        Assertions.assertEquals("1", device.getGeneration());
+        Assertions.assertInstanceOf(HttpApiReader.class, device.getReader());
+    }
+
+    @Test
+    public void testParseDeviceLineWithDefaults() {
+        ShellyDevice device = ShellyDevice.parse("  192.168.1.21  ", "2+", null);
+        Assertions.assertEquals("192.168.1.21", device.getIp());
+        Assertions.assertEquals("2+", device.getGeneration());
+        Assertions.assertInstanceOf(RpcReader.class, device.getReader());
+    }
+
+    @Test
+    public void testParseSkipsCommentsAndBlankLines() {
+        Assertions.assertNull(ShellyDevice.parse("# lab rack 3", "2+", null));
+        Assertions.assertNull(ShellyDevice.parse("   ", "2+", null));
+    }
+
+    @Test
+    public void testOnlyOneReadAtATime() {
+        ShellyDevice device = new ShellyDevice("192.168.1.22", "2+", null);
+        Assertions.assertTrue(device.tryStartRead());
+        Assertions.assertFalse(device.tryStartRead());
+        device.finishRead();
+        Assertions.assertTrue(device.tryStartRead());
+    }
+
+}
@@ -0,0 +1,195 @@
+package edu.hm.greenit.tools.shelly;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.vertx.core.Vertx;
+import picocli.CommandLine;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Load test of the sampling loop against a {@link ShellySimulator}. <br>
+ * Starts the simulated fleet, runs {@link ShellyPowerReader} with a device file of the fleet and reports the achieved
+ * samples per second, the lag of the scheduler, the request latency and the CPU and heap use of the process
+ * every report interval and, after a graceful shutdown of the reader, at the end.
+ * Simulator and reader share the process, so CPU and heap include the simulator,
+ * use <code>--simulate-only</code> and a separate reader process to measure the reader alone. <br>
+ * Arguments after <code>--</code> are passed to the reader, e.g. <code>-- -o CSV_FILE --output-dir /tmp/load</code>.
+ */
+@CommandLine.Command(name = "shelly-load-test", mixinStandardHelpOptions = true,
+        description = "Runs the shelly power reader against a simulated fleet of shelly devices")
+public class ShellyLoadTestRunner implements Callable<Integer> {
+
+    @CommandLine.Option(names = "--devices", description = "Number of simulated devices, default: ${DEFAULT-VALUE}",
+            defaultValue = "1000")
+    private int deviceCount;
+
+    @CommandLine.Option(names = "--gen1-share", description = "Share of Gen 1 devices, default: ${DEFAULT-VALUE}",
+            defaultValue = "0.5")
+    private double gen1Share;
+
+    @CommandLine.Option(names = "--latency", description = "Minimum response time of a device, default: ${DEFAULT-VALUE}",
+            defaultValue = "20ms", converter = DurationConverter.class)
+    private Duration latency;
+
+    @CommandLine.Option(names = "--jitter", description = "Maximum random time added to the latency, default: ${DEFAULT-VALUE}",
+            defaultValue = "10ms", converter = DurationConverter.class)
+    private Duration jitter;
+
+    @CommandLine.Option(names = "--error-rate", description = "Share of requests answered with HTTP 500, default: ${DEFAULT-VALUE}",
+            defaultValue = "0")
+    private double errorRate;
+
+    @CommandLine.Option(names = "--drop-rate", description = "Share of requests never answered, default: ${DEFAULT-VALUE}",
+            defaultValue = "0")
+    private double dropRate;
+
+    @CommandLine.Option(names = "--password", description = "Password of all devices, Gen 2+ devices answer with digest challenges")
+    private String password;
+
+    @CommandLine.Option(names = "--nonce-lifetime", description = "Time after which a device issues a new nonce, default: ${DEFAULT-VALUE}",
+            defaultValue = "1m", converter = DurationConverter.class)
+    private Duration nonceLifetime;
+
+    @CommandLine.Option(names = "--waveform", description = "Power curve of the devices, one of: ${COMPLETION-CANDIDATES}, default: ${DEFAULT-VALUE}",
+            defaultValue = "SINE")
+    private ShellySimulator.Waveform waveform;
+
+    @CommandLine.Option(names = "--interval", description = "Sampling interval of the reader, default: ${DEFAULT-VALUE}",
+            defaultValue = "1s", converter = DurationConverter.class)
+    private Duration interval;
+
+    @CommandLine.Option(names = "--duration", description = "Duration of the load test, default: ${DEFAULT-VALUE}",
+            defaultValue = "1m", converter = DurationConverter.class)
+    private Duration duration;
+
+    @CommandLine.Option(names = "--report-interval", description = "Time between two reports, default: ${DEFAULT-VALUE}",
+            defaultValue = "10s", converter = DurationConverter.class)
+    private Duration reportInterval;
+
+    @CommandLine.Option(names = "--simulate-only",
+            description = "Only run the simulator and write the device file, to read it from a separate reader process")
+    private Path simulateOnlyDeviceFile;
+
+    @CommandLine.Parameters(description = "Arguments passed to the reader, default: -o BINARY --output-dir <temporary directory>")
+    private List<String> readerArgs = new ArrayList<>();
+
+    private final MeterRegistry registry = new SimpleMeterRegistry();
+    private final long startNanos = System.nanoTime();
+    private long lastReportNanos = startNanos;
+    private long lastSamples;
+    private long lastCpuNanos;
+
+    public static void main(String[] args) {
+        System.exit(new CommandLine(new ShellyLoadTestRunner()).setCaseInsensitiveEnumValuesAllowed(true).execute(args));
+    }
+
+    @Override
+    public Integer call() throws Exception {
+        Vertx vertx = Vertx.vertx();
+        ShellySimulator simulator = new ShellySimulator(vertx, new ShellySimulator.Settings(gen1Share, latency, jitter,
+                errorRate, dropRate, password, nonceLifetime, waveform, 100, Duration.ofMinutes(1)));
+        simulator.start(deviceCount).toCompletionStage().toCompletableFuture().get(1, TimeUnit.MINUTES);
+        if (simulateOnlyDeviceFile != null) {
+            Files.write(simulateOnlyDeviceFile, simulator.getDeviceLines());
+            System.out.printf("%d devices listening, device file: %s%n", deviceCount, simulateOnlyDeviceFile);
+            Thread.sleep(duration.toMillis());
+            return 0;
+        }
+        Path deviceFile = Files.createTempFile("shelly-load-test", ".txt");
+        Files.write(deviceFile, simulator.getDeviceLines());
+
+        ShellyPowerReader reader = new ShellyPowerReader();
+        reader.vertx = vertx;
+        reader.sampleStore = new SampleStore();
+        reader.sessionManager = new SessionManager();
+        reader.metrics = new ShellyMetrics(registry);
+        List<String> args = new ArrayList<>(List.of("-f", deviceFile.toString(), "--interval", interval.toMillis() + "ms"));
+        if (readerArgs.isEmpty()) {
+            args.addAll(List.of("-o", "BINARY", "--output-dir", Files.createTempDirectory("shelly-load-test").toString()));
+        } else {
+            args.addAll(readerArgs);
+        }
+        if (reader.start(args.toArray(String[]::new)) != 0) {
+            return 1;
+        }
+
+        System.out.printf("%d simulated devices (%.0f%% Gen 1), latency %s + %s, interval %s, duration %s%n",
+                deviceCount, gen1Share * 100, latency, jitter, interval, duration);
+        long end = startNanos + duration.toNanos();
+        while (System.nanoTime() < end) {
+            Thread.sleep(Math.min(reportInterval.toMillis(), Math.max(1, (end - System.nanoTime()) / 1_000_000)));
+            report(simulator, false);
+        }
+        // reads in flight and queued samples are part of the total
+        reader.shutdown();
+        report(simulator, true);
+        return 0;
+    }
+
+    private void report(ShellySimulator simulator, boolean total) {
+        long now = System.nanoTime();
+        long samples = (long) functionCounter("shelly.output.samples");
+        long cpuNanos = processCpuNanos();
+        double seconds = (now - (total ? startNanos : lastReportNanos)) / 1e9;
+        double samplesPerSecond = (samples - (total ? 0 : lastSamples)) / seconds;
+        double cpu = (cpuNanos - (total ? 0 : lastCpuNanos)) / 1e9 / seconds;
+        lastReportNanos = now;
+        lastSamples = samples;
+        lastCpuNanos = cpuNanos;
+
+        double requests = 0;
+        double latencySeconds = 0;
+        double maxLatency = 0;
+        for (Timer timer : registry.find("shelly.request.latency").timers()) {
+            requests += timer.count();
+            latencySeconds += timer.totalTime(TimeUnit.SECONDS);
+            maxLatency = Math.max(maxLatency, timer.max(TimeUnit.SECONDS));
+        }
+        long gcCount = 0;
+        long gcMillis = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            gcCount += gc.getCollectionCount();
+            gcMillis += gc.getCollectionTime();
+        }
+        System.out.printf(Locale.ROOT, "%s%7.1fs samples/s %.1f, samples %d, dropped %.0f | ticks %.0f, missed %.0f, late %.0f, "
+                        + "lag mean %.2fms max %.2fms | latency mean %.1fms max %.1fms, failures %.0f, challenges %d | "
+                        + "cpu %.2f cores, heap %d MB, gc %d (%d ms)%n",
+                total ? "TOTAL " : "", (now - startNanos) / 1e9, samplesPerSecond, samples, functionCounter("shelly.output.dropped"),
+                functionCounter("shelly.scheduler.ticks"), functionCounter("shelly.scheduler.ticks.missed"),
+                functionCounter("shelly.scheduler.ticks.late"),
+                gauge("shelly.scheduler.lag.mean") * 1000, gauge("shelly.scheduler.lag.max") * 1000,
+                requests == 0 ? 0 : latencySeconds / requests * 1000, maxLatency * 1000,
+                registry.find("shelly.request.failures").counters().stream().mapToDouble(c -> c.count()).sum(),
+                simulator.getChallenges(), cpu,
+                ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed() / (1024 * 1024), gcCount, gcMillis);
+    }
+
+    private double functionCounter(String name) {
+        return registry.find(name).functionCounters().stream().mapToDouble(FunctionCounter::count).sum();
+    }
+
+    private double gauge(String name) {
+        return registry.find(name).gauges().stream().mapToDouble(Gauge::value).sum();
+    }
+
+    private static long processCpuNanos() {
+        if (ManagementFactory.getOperatingSystemMXBean() instanceof com.sun.management.OperatingSystemMXBean os) {
+            return os.getProcessCpuTime();
+        }
+        return 0;
+    }
+
+}
@@ -0,0 +1,74 @@
+package edu.hm.greenit.tools.shelly;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static edu.hm.greenit.tools.shelly.SampleWriterTest.meter;
+
+public class ShellyMetricsTest {
+
+    private static final String IP = "192.168.1.20";
+
+    @Test
+    public void testReaderMetrics() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        ShellyMetrics metrics = new ShellyMetrics(registry);
+        metrics.readCompleted(IP, TimeUnit.MILLISECONDS.toNanos(8), false);
+        metrics.readCompleted(IP, TimeUnit.MILLISECONDS.toNanos(12), false);
+        metrics.readCompleted(IP, TimeUnit.SECONDS.toNanos(5), true);
+        metrics.authChallenge(IP);
+        metrics.httpError(IP, 500);
+        metrics.httpError(IP, 500);
+
+        Assertions.assertEquals(2, registry.get("shelly.request.latency").tag(ShellyMetrics.DEVICE_TAG, IP).timer().count());
+        Assertions.assertEquals(20, registry.get("shelly.request.latency").timer().totalTime(TimeUnit.MILLISECONDS), 1e-9);
+        Assertions.assertEquals(ShellyMetrics.LATENCY_BUCKETS.length,
+                registry.get("shelly.request.latency").timer().takeSnapshot().histogramCounts().length);
+        Assertions.assertEquals(1, registry.get("shelly.request.failures").counter().count());
+        Assertions.assertEquals(1, registry.get("shelly.request.auth.challenges").counter().count());
+        Assertions.assertEquals(2, registry.get("shelly.request.errors").tag("status", "500").counter().count());
+    }
+
+    @Test
+    public void testPowerGaugesFollowTheStore() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        ShellyMetrics metrics = new ShellyMetrics(registry);
+        SampleStore store = new SampleStore();
+        store.setSeriesListener(metrics::bindSeries);
+        store.write(new Sample(IP, meter(1L, 10.8, 37156.946, 1)));
+        store.write(new Sample(IP, meter(2L, 11.2, 37156.950, 1)));
+
+        Assertions.assertEquals(11.2, registry.get("shelly.power").tag(ShellyMetrics.CHANNEL_TAG, "1").gauge().value());
+        Assertions.assertEquals(37156.950, registry.get("shelly.energy").tag(ShellyMetrics.DEVICE_TAG, IP).gauge().value());
+    }
+
+    @Test
+    public void testSchedulerTicksPerDevice() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        ShellyDevice device = new ShellyDevice(IP, ShellyDevice.SHELLY_GEN2PLUS_ARG, null);
+        new ShellyMetrics(registry).bindDevices(List.of(device));
+        device.recordMissedTicks(3);
+
+        Assertions.assertEquals(3, registry.get("shelly.scheduler.ticks.missed").tag(ShellyMetrics.DEVICE_TAG, IP).functionCounter().count());
+    }
+
+    @Test
+    public void testSchedulerLag() throws InterruptedException {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        SamplingScheduler scheduler = new SamplingScheduler(List.of(new ShellyDevice(IP, ShellyDevice.SHELLY_GEN2PLUS_ARG, null)),
+                Duration.ofMillis(100), device -> SamplingScheduler.ReadStart.STARTED);
+        new ShellyMetrics(registry).bindScheduler(scheduler);
+        scheduler.start();
+        Thread.sleep(250);
+        scheduler.close();
+
+        Assertions.assertEquals(scheduler.getTicks(), registry.get("shelly.scheduler.ticks").functionCounter().count());
+        Assertions.assertEquals(scheduler.getMaxLag().toNanos() / 1e9, registry.get("shelly.scheduler.lag.max").gauge().value());
+    }
+
+}
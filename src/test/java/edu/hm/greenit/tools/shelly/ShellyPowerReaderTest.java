@@ -0,0 +1,170 @@
+package edu.hm.greenit.tools.shelly;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.vertx.core.Vertx;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+public class ShellyPowerReaderTest {
+
+    private static final int DEVICES = 4;
+
+    @TempDir
+    Path directory;
+
+    private Vertx vertx;
+
+    @BeforeEach
+    public void startVertx() {
+        vertx = Vertx.vertx();
+    }
+
+    @AfterEach
+    public void stopVertx() throws Exception {
+        vertx.close().toCompletionStage().toCompletableFuture().get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testShutdownWritesSamplesOfReadsInFlight() throws Exception {
+        ShellySimulator simulator = new ShellySimulator(vertx, new ShellySimulator.Settings(0.5, Duration.ofMillis(300),
+                Duration.ZERO, 0, 0, null, Duration.ofMinutes(1), ShellySimulator.Waveform.CONSTANT, 100, Duration.ofMinutes(1)));
+        simulator.start(DEVICES).toCompletionStage().toCompletableFuture().get(5, TimeUnit.SECONDS);
+        Path deviceFile = directory.resolve("devices.txt");
+        Files.write(deviceFile, simulator.getDeviceLines());
+        Path outputDirectory = Files.createDirectory(directory.resolve("output"));
+
+        ShellyPowerReader reader = reader();
+        Assertions.assertEquals(0, reader.start("-f", deviceFile.toString(), "--interval", "1s",
+                "-o", "CSV_FILE", "--output-dir", outputDirectory.toString()));
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (simulator.getRequests() < DEVICES && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        // all devices answer 300ms after the request, long after the scheduler stopped
+        reader.shutdown();
+        reader.shutdown();
+
+        // every request sent before the shutdown is answered and written
+        List<String> rows = rows(outputDirectory);
+        Assertions.assertEquals(simulator.getRequests(), rows.size(), rows.toString());
+        for (int i = 0; i < DEVICES; i++) {
+            String ip = simulator.getIp(i);
+            Assertions.assertTrue(rows.stream().anyMatch(row -> row.startsWith(ip + ",")), ip + " missing in " + rows);
+        }
+    }
+
+    @Test
+    public void testInvalidOutputSettingsAreRejected() throws Exception {
+        Assertions.assertEquals(1, reader().start("--ip", "127.0.0.1", "--history-size", "0"));
+        Assertions.assertEquals(1, reader().start("--ip", "127.0.0.1", "--history-size", "-1"));
+        Assertions.assertEquals(1, reader().start("--ip", "127.0.0.1", "--output-flush-interval", "0s"));
+    }
+
+    @Test
+    public void testDiscoveredDevicesAreRead() throws Exception {
+        ShellySimulator simulator = new ShellySimulator(vertx, ShellySimulator.Settings.DEFAULT);
+        simulator.start(DEVICES).toCompletionStage().toCompletableFuture().get(5, TimeUnit.SECONDS);
+        Path inventoryFile = directory.resolve("inventory.csv");
+        Path outputDirectory = Files.createDirectory(directory.resolve("output"));
+        List<String> args = new ArrayList<>(List.of("--inventory", inventoryFile.toString(), "--discovery-interval", "0",
+                "--interval", "100ms", "-o", "CSV_FILE", "--output-dir", outputDirectory.toString()));
+        for (int i = 0; i < DEVICES; i++) {
+            // no generation given, it is taken from the identification of the device
+            args.addAll(List.of("--discover", simulator.getIp(i)));
+        }
+
+        ShellyPowerReader reader = reader();
+        Assertions.assertEquals(0, reader.start(args.toArray(String[]::new)));
+        Thread.sleep(500);
+        reader.shutdown();
+
+        List<String> rows = rows(outputDirectory);
+        for (int i = 0; i < DEVICES; i++) {
+            String ip = simulator.getIp(i);
+            Assertions.assertTrue(rows.stream().anyMatch(row -> row.startsWith(ip + ",")), ip + " missing in " + rows);
+        }
+        Assertions.assertEquals(DEVICES, DeviceInventory.read(inventoryFile).getEntries().size());
+    }
+
+    @Test
+    public void testDevicesAreReadWhileDiscoveryScans() throws Exception {
+        ShellySimulator simulator = new ShellySimulator(vertx, ShellySimulator.Settings.DEFAULT);
+        simulator.start(1).toCompletionStage().toCompletableFuture().get(5, TimeUnit.SECONDS);
+        Path deviceFile = directory.resolve("devices.txt");
+        Files.write(deviceFile, simulator.getDeviceLines());
+        // never answers the identification request
+        int silentPort = vertx.createHttpServer().requestHandler(request -> {
+        }).listen(0).toCompletionStage().toCompletableFuture().get(5, TimeUnit.SECONDS).actualPort();
+        Path outputDirectory = Files.createDirectory(directory.resolve("output"));
+
+        ShellyPowerReader reader = reader();
+        long start = System.nanoTime();
+        Assertions.assertEquals(0, reader.start("-f", deviceFile.toString(), "--discover", ShellySimulator.HOST + ":" + silentPort,
+                "--discovery-timeout", "10s", "--inventory", directory.resolve("inventory.csv").toString(),
+                "--interval", "100ms", "-o", "CSV_FILE", "--output-dir", outputDirectory.toString()));
+        Assertions.assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5), "start waited for the scan");
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (simulator.getRequests() < 3 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        // cancels the running scan
+        reader.shutdown();
+
+        List<String> rows = rows(outputDirectory);
+        Assertions.assertTrue(rows.size() >= 3, rows.toString());
+        Assertions.assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(10), "shutdown waited for the scan");
+    }
+
+    @Test
+    public void testShutdownClosesThePushServerBeforeTheOutput() throws Exception {
+        int pushPort;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            pushPort = socket.getLocalPort();
+        }
+        Path outputDirectory = Files.createDirectory(directory.resolve("output"));
+
+        ShellyPowerReader reader = reader();
+        Assertions.assertEquals(0, reader.start("--push-port", Integer.toString(pushPort),
+                "-o", "CSV_FILE", "--output-dir", outputDirectory.toString()));
+        reader.shutdown();
+
+        // the server is closed once shutdown returns, no device can push to the closed output
+        Assertions.assertThrows(ExecutionException.class, () -> vertx.createWebSocketClient()
+                .connect(pushPort, "localhost", "/shelly").toCompletionStage().toCompletableFuture().get(5, TimeUnit.SECONDS));
+    }
+
+    private ShellyPowerReader reader() {
+        ShellyPowerReader reader = new ShellyPowerReader();
+        reader.vertx = vertx;
+        reader.sampleStore = new SampleStore();
+        reader.sessionManager = new SessionManager();
+        reader.metrics = new ShellyMetrics(new SimpleMeterRegistry());
+        return reader;
+    }
+
+    private static List<String> rows(Path outputDirectory) throws IOException {
+        List<String> rows = new ArrayList<>();
+        try (Stream<Path> files = Files.list(outputDirectory)) {
+            for (Path file : files.toList()) {
+                List<String> lines = Files.readAllLines(file);
+                rows.addAll(lines.subList(1, lines.size()));
+            }
+        }
+        return rows;
+    }
+
+}
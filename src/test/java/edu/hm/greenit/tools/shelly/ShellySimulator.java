@@ -0,0 +1,376 @@
+package edu.hm.greenit.tools.shelly;
+
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpServer;
+import io.vertx.core.http.HttpServerRequest;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static edu.hm.greenit.tools.shelly.ShellyPowerReader.SHELLY_USER;
+
+/**
+ * Simulated fleet of Shelly devices on localhost for tests and load tests. <br>
+ * Every virtual device listens on its own port, so the readers keep one connection per device as with real devices.
+ * Gen 1 devices serve <code>/status</code> (a Plug S), Gen 2+ devices serve <code>/rpc</code> (a Plus Plug S) with
+ * <code>Shelly.GetStatus</code>, <code>Switch.GetStatus</code> and <code>Shelly.GetDeviceInfo</code>.
+ * All devices identify themselves on <code>/shelly</code> without authentication. <br>
+ * Responses are delayed by a latency with jitter, a share of the requests fails with HTTP 500 or is never answered.
+ * With a password Gen 1 devices require basic auth and Gen 2+ devices answer with a SHA-256 digest challenge,
+ * the nonce changes after the nonce lifetime, so the readers have to answer a new challenge.
+ * The power of each device follows a waveform with a random phase, the energy counter is its integral.
+ */
+public class ShellySimulator {
+
+    static final String HOST = "127.0.0.1";
+    private static final String GEN1_STATUS_PATH = "/status";
+    private static final String RPC_PATH = "/rpc";
+    private static final String SHELLY_INFO_PATH = "/shelly";
+    private static final String REALM_PREFIX = "shellyplusplugs-";
+    private static final String HA2 = sha256Hex("POST:" + RPC_PATH);
+    private static final int SERVER_ERROR = 500;
+    private static final int UNAUTHORIZED = 401;
+    private static final int NOT_FOUND = 404;
+    private static final double VOLTAGE = 230.0;
+
+    /**
+     * @param gen1Share      share of Gen 1 devices, the others are Gen 2+
+     * @param latency        minimum response time of a device
+     * @param jitter         maximum random time added to the latency
+     * @param errorRate      share of requests answered with HTTP 500
+     * @param dropRate       share of requests never answered, the reader runs into its timeout
+     * @param password       password of all devices, <code>null</code> for no authentication
+     * @param nonceLifetime  time after which a Gen 2+ device issues a new nonce
+     * @param waveform       the power curve of the devices
+     * @param meanPower      mean power of a device in W
+     * @param period         period of the waveform
+     */
+    public record Settings(double gen1Share, Duration latency, Duration jitter, double errorRate, double dropRate,
+                           String password, Duration nonceLifetime, Waveform waveform, double meanPower, Duration period) {
+
+        public static final Settings DEFAULT = new Settings(0.5, Duration.ofMillis(20), Duration.ofMillis(10), 0, 0,
+                null, Duration.ofMinutes(1), Waveform.SINE, 100, Duration.ofMinutes(1));
+    }
+
+    /**
+     * Power curves, as factor of the mean power over the phase (0 to 1) of a period.
+     */
+    public enum Waveform {
+        CONSTANT {
+            @Override
+            double factor(double phase) {
+                return 1;
+            }
+        },
+        SINE {
+            @Override
+            double factor(double phase) {
+                return 1 + 0.5 * Math.sin(2 * Math.PI * phase);
+            }
+        },
+        SQUARE {
+            @Override
+            double factor(double phase) {
+                return phase < 0.5 ? 1.8 : 0.2;
+            }
+        },
+        SAWTOOTH {
+            @Override
+            double factor(double phase) {
+                return 2 * phase;
+            }
+        },
+        NOISE {
+            @Override
+            double factor(double phase) {
+                return 0.5 + ThreadLocalRandom.current().nextDouble();
+            }
+        };
+
+        abstract double factor(double phase);
+    }
+
+    private final Vertx vertx;
+    private final Settings settings;
+    private final List<VirtualDevice> devices = new ArrayList<>();
+    private final List<HttpServer> servers = new ArrayList<>();
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong challenges = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    public ShellySimulator(Vertx vertx, Settings settings) {
+        this.vertx = vertx;
+        this.settings = settings;
+    }
+
+    /**
+     * Starts the given number of devices on free ports.
+     *
+     * @return completes once all devices are listening
+     */
+    public Future<Void> start(int count) {
+        List<Future<HttpServer>> started = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            // spread the generations evenly over the fleet
+            boolean gen1 = Math.floor((i + 1) * settings.gen1Share()) > Math.floor(i * settings.gen1Share());
+            VirtualDevice device = new VirtualDevice(i, gen1);
+            HttpServer server = vertx.createHttpServer().requestHandler(request -> handle(device, request));
+            servers.add(server);
+            started.add(server.listen(0, HOST).onSuccess(s -> device.port = s.actualPort()));
+            devices.add(device);
+        }
+        return Future.all(started).mapEmpty();
+    }
+
+    /**
+     * Stops all devices.
+     */
+    public Future<Void> stop() {
+        List<Future<Void>> stopped = new ArrayList<>(servers.size());
+        for (HttpServer server : servers) {
+            stopped.add(server.close());
+        }
+        return Future.all(stopped).mapEmpty();
+    }
+
+    /**
+     * @return the devices as lines of a device file: <code>ip,generation[,password]</code>, the ip includes the port
+     */
+    public List<String> getDeviceLines() {
+        List<String> lines = new ArrayList<>(devices.size());
+        for (VirtualDevice device : devices) {
+            String line = getIp(device) + "," + (device.gen1 ? ShellyDevice.SHELLY_GEN1_ARG : ShellyDevice.SHELLY_GEN2PLUS_ARG);
+            lines.add(settings.password() == null ? line : line + "," + settings.password());
+        }
+        return lines;
+    }
+
+    /**
+     * @return address of the device with the given index, e.g. <code>127.0.0.1:41234</code>
+     */
+    public String getIp(int index) {
+        return getIp(devices.get(index));
+    }
+
+    public long getRequests() {
+        return requests.get();
+    }
+
+    public long getChallenges() {
+        return challenges.get();
+    }
+
+    public long getErrors() {
+        return errors.get();
+    }
+
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    private static String getIp(VirtualDevice device) {
+        return HOST + ":" + device.port;
+    }
+
+    private void handle(VirtualDevice device, HttpServerRequest request) {
+        requests.incrementAndGet();
+        request.body().onSuccess(body -> {
+            double outcome = ThreadLocalRandom.current().nextDouble();
+            if (outcome < settings.dropRate()) {
+                dropped.incrementAndGet();
+                return;
+            }
+            boolean error = outcome < settings.dropRate() + settings.errorRate();
+            long delay = settings.latency().toMillis();
+            if (!settings.jitter().isZero()) {
+                delay += ThreadLocalRandom.current().nextLong(settings.jitter().toMillis() + 1);
+            }
+            if (delay > 0) {
+                vertx.setTimer(delay, id -> respond(device, request, body, error));
+            } else {
+                respond(device, request, body, error);
+            }
+        });
+    }
+
+    private void respond(VirtualDevice device, HttpServerRequest request, Buffer body, boolean error) {
+        if (error) {
+            errors.incrementAndGet();
+            request.response().setStatusCode(SERVER_ERROR).end();
+        } else if (SHELLY_INFO_PATH.equals(request.path())) {
+            request.response().putHeader("Content-Type", "application/json").end(shellyInfo(device).encode());
+        } else if (device.gen1 && GEN1_STATUS_PATH.equals(request.path())) {
+            if (settings.password() != null
+                    && !HttpApiReader.basicAuthorization(settings.password()).equals(request.getHeader("Authorization"))) {
+                request.response().setStatusCode(UNAUTHORIZED).end();
+                return;
+            }
+            request.response().putHeader("Content-Type", "application/json").end(gen1Status(device).encode());
+        } else if (!device.gen1 && RPC_PATH.equals(request.path())) {
+            if (settings.password() != null && !isAuthorized(device, request.getHeader("Authorization"))) {
+                challenges.incrementAndGet();
+                request.response().setStatusCode(UNAUTHORIZED)
+                        .putHeader("WWW-Authenticate", "Digest qop=\"auth\", realm=\"" + REALM_PREFIX + device.id
+                                + "\", nonce=\"" + device.nonce(settings.nonceLifetime()) + "\", algorithm=SHA-256")
+                        .end();
+                return;
+            }
+            String method = new JsonObject(body).getString("method");
+            JsonObject result = switch (method) {
+                case "Shelly.GetStatus" -> new JsonObject()
+                        .put("switch:0", switchStatus(device))
+                        .put("sys", new JsonObject().put("mac", device.id).put("unixtime", System.currentTimeMillis() / 1000));
+                case "Switch.GetStatus" -> switchStatus(device);
+                case "Shelly.GetDeviceInfo" -> new JsonObject()
+                        .put("id", REALM_PREFIX + device.id).put("mac", device.id).put("gen", 2).put("app", "PlugS")
+                        .put("auth_en", settings.password() != null);
+                default -> null;
+            };
+            if (result == null) {
+                request.response().setStatusCode(NOT_FOUND).end();
+                return;
+            }
+            request.response().putHeader("Content-Type", "application/json")
+                    .end(new JsonObject().put("id", 1).put("src", REALM_PREFIX + device.id).put("result", result).encode());
+        } else {
+            request.response().setStatusCode(NOT_FOUND).end();
+        }
+    }
+
+    private boolean isAuthorized(VirtualDevice device, String authorization) {
+        if (authorization == null || !authorization.startsWith("Digest ")) {
+            return false;
+        }
+        Map<String, String> parameters = RpcReader.parseDigestAuthHeader(authorization);
+        String realm = REALM_PREFIX + device.id;
+        if (!device.isCurrentNonce(parameters.get("nonce"), settings.nonceLifetime())) {
+            return false;
+        }
+        String ha1 = sha256Hex(SHELLY_USER + ":" + realm + ":" + settings.password());
+        String expected = sha256Hex(String.join(":", ha1, parameters.get("nonce"), parameters.get("nc"),
+                parameters.get("cnonce"), "auth", HA2));
+        return expected.equals(parameters.get("response"));
+    }
+
+    private JsonObject shellyInfo(VirtualDevice device) {
+        if (device.gen1) {
+            return new JsonObject()
+                    .put("type", "SHPLG-S")
+                    .put("mac", device.id)
+                    .put("auth", settings.password() != null)
+                    .put("fw", "20230913-112003/v1.14.0-gcb84623")
+                    .put("num_outputs", 1)
+                    .put("num_meters", 1);
+        }
+        return new JsonObject()
+                .put("name", null)
+                .put("id", REALM_PREFIX + device.id)
+                .put("mac", device.id)
+                .put("model", "SNPL-00112EU")
+                .put("gen", 2)
+                .put("ver", "1.4.4")
+                .put("app", "PlusPlugS")
+                .put("auth_en", settings.password() != null)
+                .put("auth_domain", settings.password() != null ? REALM_PREFIX + device.id : null);
+    }
+
+    private JsonObject gen1Status(VirtualDevice device) {
+        double power = device.update(settings);
+        long unixtime = System.currentTimeMillis() / 1000;
+        JsonObject meter = new JsonObject()
+                .put("power", power)
+                .put("overpower", 0.0)
+                .put("is_valid", true)
+                .put("timestamp", unixtime)
+                .put("counters", new JsonArray().add(power).add(power).add(power))
+                // Gen 1 counts watt-minutes
+                .put("total", Math.round(device.energyWh * 60));
+        return new JsonObject()
+                .put("mac", device.id)
+                .put("unixtime", unixtime)
+                .put("relays", new JsonArray().add(new JsonObject().put("ison", true)))
+                .put("meters", new JsonArray().add(meter));
+    }
+
+    private JsonObject switchStatus(VirtualDevice device) {
+        double power = device.update(settings);
+        return new JsonObject()
+                .put("id", 0)
+                .put("source", "init")
+                .put("output", true)
+                .put("apower", power)
+                .put("voltage", VOLTAGE)
+                .put("current", power / VOLTAGE)
+                .put("aenergy", new JsonObject().put("total", device.energyWh));
+    }
+
+    private static String sha256Hex(String input) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(input.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(hash);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * State of one device, updated on the event loop of its server.
+     */
+    private static final class VirtualDevice {
+        private final String id;
+        private final boolean gen1;
+        private final double phaseOffset = ThreadLocalRandom.current().nextDouble();
+        private volatile int port;
+        private double energyWh;
+        private long lastUpdate = System.nanoTime();
+        private String nonce;
+        private long nonceIssued;
+
+        private VirtualDevice(int index, boolean gen1) {
+            this.id = String.format("%012x", index);
+            this.gen1 = gen1;
+        }
+
+        /**
+         * Integrates the energy since the last request.
+         *
+         * @return the current power in W
+         */
+        synchronized double update(Settings settings) {
+            long now = System.nanoTime();
+            double cycles = now / (double) settings.period().toNanos() + phaseOffset;
+            double phase = cycles - Math.floor(cycles);
+            double power = Math.round(settings.meanPower() * settings.waveform().factor(phase) * 10) / 10.0;
+            energyWh += power * (now - lastUpdate) / 3.6e12;
+            lastUpdate = now;
+            return power;
+        }
+
+        synchronized String nonce(Duration lifetime) {
+            long now = System.nanoTime();
+            if (nonce == null || now - nonceIssued > lifetime.toNanos()) {
+                nonce = Long.toHexString(ThreadLocalRandom.current().nextLong());
+                nonceIssued = now;
+            }
+            return nonce;
+        }
+
+        synchronized boolean isCurrentNonce(String value, Duration lifetime) {
+            return nonce != null && nonce.equals(value) && System.nanoTime() - nonceIssued <= lifetime.toNanos();
+        }
+    }
+
+}
@@ -0,0 +1,91 @@
+package edu.hm.greenit.tools.shelly;
+
+import io.vertx.core.Vertx;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+public class ShellySimulatorTest {
+
+    private static final Duration TIMEOUT = Duration.ofSeconds(2);
+
+    private Vertx vertx;
+    private ShellySimulator simulator;
+
+    @BeforeEach
+    public void startVertx() {
+        vertx = Vertx.vertx();
+    }
+
+    @AfterEach
+    public void stopVertx() throws Exception {
+        vertx.close().toCompletionStage().toCompletableFuture().get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testReadersReadSimulatedDevices() throws Exception {
+        start(new ShellySimulator.Settings(0.5, Duration.ZERO, Duration.ZERO, 0, 0, "secret",
+                Duration.ofMinutes(1), ShellySimulator.Waveform.CONSTANT, 50, Duration.ofMinutes(1)), 2);
+        Assertions.assertEquals(List.of(simulator.getIp(0) + ",2+,secret", simulator.getIp(1) + ",1,secret"),
+                simulator.getDeviceLines());
+
+        HttpApiReader gen1 = new HttpApiReader(simulator.getIp(1), "secret");
+        Meter gen1Meter = gen1.readPowerConsumptionAsync(TIMEOUT).toCompletableFuture().get().get(0);
+        Assertions.assertEquals(50.0, gen1Meter.getPower());
+        Assertions.assertTrue(gen1Meter.getTimestamp() > 0);
+
+        RpcReader gen2 = new RpcReader(simulator.getIp(0), "secret", RpcStatusMethod.AUTO);
+        Meter first = gen2.readPowerConsumptionAsync(TIMEOUT).toCompletableFuture().get().get(0);
+        Thread.sleep(50);
+        Meter second = gen2.readPowerConsumptionAsync(TIMEOUT).toCompletableFuture().get().get(0);
+        Assertions.assertEquals(50.0, second.getPower());
+        Assertions.assertTrue(second.getTotal() > first.getTotal(), first.getTotal() + " -> " + second.getTotal());
+        // the session of the first challenge is reused
+        Assertions.assertEquals(1, simulator.getChallenges());
+    }
+
+    @Test
+    public void testNewNonceIsChallengedAgain() throws Exception {
+        start(new ShellySimulator.Settings(0, Duration.ZERO, Duration.ZERO, 0, 0, "secret",
+                Duration.ofMillis(200), ShellySimulator.Waveform.SINE, 100, Duration.ofSeconds(1)), 1);
+        RpcReader reader = new RpcReader(simulator.getIp(0), "secret");
+        reader.readPowerConsumptionAsync(TIMEOUT).toCompletableFuture().get();
+        Thread.sleep(300);
+        List<Meter> meters = reader.readPowerConsumptionAsync(TIMEOUT).toCompletableFuture().get();
+
+        Assertions.assertEquals(1, meters.size());
+        Assertions.assertEquals(2, simulator.getChallenges());
+    }
+
+    @Test
+    public void testFailuresAndDroppedRequests() throws Exception {
+        start(new ShellySimulator.Settings(1, Duration.ZERO, Duration.ZERO, 1, 0, null,
+                Duration.ofMinutes(1), ShellySimulator.Waveform.CONSTANT, 100, Duration.ofMinutes(1)), 1);
+        HttpApiReader failing = new HttpApiReader(simulator.getIp(0), null);
+        // HTTP errors are logged and return no meters
+        Assertions.assertEquals(List.of(), failing.readPowerConsumptionAsync(TIMEOUT).toCompletableFuture().get());
+        Assertions.assertEquals(1, simulator.getErrors());
+
+        ShellySimulator dropping = new ShellySimulator(vertx, new ShellySimulator.Settings(1, Duration.ZERO, Duration.ZERO, 0, 1,
+                null, Duration.ofMinutes(1), ShellySimulator.Waveform.CONSTANT, 100, Duration.ofMinutes(1)));
+        dropping.start(1).toCompletionStage().toCompletableFuture().get(5, TimeUnit.SECONDS);
+        HttpApiReader timingOut = new HttpApiReader(dropping.getIp(0), null);
+        ExecutionException e = Assertions.assertThrows(ExecutionException.class,
+                () -> timingOut.readPowerConsumptionAsync(Duration.ofMillis(200)).toCompletableFuture().get());
+        Assertions.assertInstanceOf(HttpTimeoutException.class, e.getCause());
+        Assertions.assertEquals(1, dropping.getDropped());
+    }
+
+    private void start(ShellySimulator.Settings settings, int count) throws Exception {
+        simulator = new ShellySimulator(vertx, settings);
+        simulator.start(count).toCompletionStage().toCompletableFuture().get(5, TimeUnit.SECONDS);
+    }
+
+}
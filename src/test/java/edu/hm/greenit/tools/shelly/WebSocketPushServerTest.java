@@ -0,0 +1,76 @@
+package edu.hm.greenit.tools.shelly;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.http.WebSocket;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+public class WebSocketPushServerTest {
+
+    private static final String FULL_STATUS_NOTIFICATION = """
+            {"src": "shellyplugsg3-123456", "dst": "ws", "method": "NotifyFullStatus",
+             "params": {"ts": 1743801611.12, "cloud": {"connected": true},
+                        "switch:0": {"id": 0, "output": true, "apower": 9.5, "aenergy": {"total": 11009.330}},
+                        "sys": {"unixtime": 1743801611}}}
+            """;
+    private static final String POWER_CHANGE_NOTIFICATION = """
+            {"src": "shellyplugsg3-123456", "dst": "ws", "method": "NotifyStatus",
+             "params": {"ts": 1743801615.87, "switch:0": {"id": 0, "apower": 42.1}}}
+            """;
+    private static final String OUTPUT_NOTIFICATION = """
+            {"src": "shellyplugsg3-123456", "dst": "ws", "method": "NotifyStatus",
+             "params": {"ts": 1743801615.12, "switch:0": {"id": 0, "output": false, "temperature": {"tC": 41.9}}}}
+            """;
+    private static final String SYS_NOTIFICATION = """
+            {"src": "shellyplugsg3-123456", "dst": "ws", "method": "NotifyStatus",
+             "params": {"ts": 1743801616.00, "sys": {"unixtime": 1743801616}}}
+            """;
+
+    private final BlockingQueue<Meter> meters = new LinkedBlockingQueue<>();
+    private Vertx vertx;
+    private WebSocketPushServer server;
+    private int port;
+
+    @BeforeEach
+    public void startServer() throws Exception {
+        vertx = Vertx.vertx();
+        server = new WebSocketPushServer((ip, meter) -> meters.add(meter));
+        port = server.start(vertx, 0).toCompletionStage().toCompletableFuture().get(5, TimeUnit.SECONDS).actualPort();
+    }
+
+    @AfterEach
+    public void stopServer() throws Exception {
+        vertx.close().toCompletionStage().toCompletableFuture().get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testDeviceNotificationsAreEmittedAsMeters() throws Exception {
+        // stand-in for a shelly device connecting to its outbound websocket server
+        WebSocket device = vertx.createWebSocketClient().connect(port, "localhost", "/shelly")
+                .toCompletionStage().toCompletableFuture().get(5, TimeUnit.SECONDS);
+        device.writeTextMessage(FULL_STATUS_NOTIFICATION);
+        device.writeTextMessage(SYS_NOTIFICATION);
+        device.writeTextMessage(OUTPUT_NOTIFICATION);
+        device.writeTextMessage(POWER_CHANGE_NOTIFICATION);
+
+        Meter fullStatus = meters.poll(5, TimeUnit.SECONDS);
+        Assertions.assertNotNull(fullStatus);
+        Assertions.assertEquals(9.5d, fullStatus.getPower());
+        Assertions.assertEquals(11009.330d, fullStatus.getTotal());
+        Assertions.assertEquals(1743801611L, fullStatus.getTimestamp());
+
+        Meter powerChange = meters.poll(5, TimeUnit.SECONDS);
+        Assertions.assertNotNull(powerChange);
+        Assertions.assertEquals(42.1d, powerChange.getPower());
+        Assertions.assertEquals(11009.330d, powerChange.getTotal());
+        Assertions.assertEquals(1743801615L, powerChange.getTimestamp());
+        Assertions.assertTrue(meters.isEmpty());
+    }
+
+}